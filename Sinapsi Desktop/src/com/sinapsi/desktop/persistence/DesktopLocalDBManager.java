@@ -55,4 +55,16 @@ public class DesktopLocalDBManager implements LocalDBManager{
 		
 	}
 
+	@Override
+	public long getSyncRevision() {
+		// TODO Auto-generated method stub
+		return -1;
+	}
+
+	@Override
+	public void setSyncRevision(long revision) {
+		// TODO Auto-generated method stub
+		
+	}
+
 }
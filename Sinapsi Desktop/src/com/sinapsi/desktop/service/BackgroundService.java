@@ -1,6 +1,5 @@
 package com.sinapsi.desktop.service;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.print.attribute.standard.MediaSize.Engineering;
@@ -41,6 +40,8 @@ import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
 import com.sinapsi.model.impl.CommunicationInfo;
+import com.sinapsi.model.impl.MacroChangeSet;
+import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.utils.Pair;
 import com.sinapsi.webshared.ComponentFactoryProvider;
 import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
@@ -49,6 +50,9 @@ import com.sinapsi.webshared.wsproto.WebSocketMessage;
 
 public class BackgroundService implements Runnable, OnlineStatusProvider, WebSocketEventHandler, UserLoginStatusListener, ComponentFactoryProvider {
 
+	// the messages have no model objects, a single gson is shared
+	private static final Gson gson = new Gson();
+	
 	private SinapsiLog sinapsiLog;
 	private RetrofitWebServiceFacade web;
 	private DeviceInterface device;
@@ -160,11 +164,10 @@ public class BackgroundService implements Runnable, OnlineStatusProvider, WebSoc
 	}
 
 	public List<MacroInterface> getMacros() {
-		return new ArrayList<>(macroEngine.getMacros().values());
+		return macroEngine.getMacros();
 	}
 
 	public void handleWSMessage(String message, boolean firstCall) {
-		Gson gson = new Gson();
 		WebSocketMessage wsMessage = gson.fromJson(message, WebSocketMessage.class);
 
 		switch(wsMessage.getMsgType()) {
@@ -172,6 +175,9 @@ public class BackgroundService implements Runnable, OnlineStatusProvider, WebSoc
 			RemoteExecutionDescriptor red = gson.fromJson(wsMessage.getData(), RemoteExecutionDescriptor.class);
 			try {
 				macroEngine.continueMacro(red);
+				// the continuation has been executed, the server can forget it
+				if(getWSClient() != null)
+					getWSClient().acknowledgeContinuation(red);
 			} catch(MacroEngine.MissingMacroException e) {
 				if(firstCall) {
 					syncMacros(new BackgroundSyncCallback() {
@@ -194,23 +200,7 @@ public class BackgroundService implements Runnable, OnlineStatusProvider, WebSoc
 		} break;
 
 		case SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION: {
-			//TODO: eliminare questo dopo aver fatto i db manager
-			getWeb().getAllMacros(device, new WebServiceCallback<Pair<Boolean,List<MacroInterface>>>() {
-
-				@Override
-				public void success(Pair<Boolean, List<MacroInterface>> t,
-						Object response) {
-					macroEngine.clearMacros();
-					macroEngine.addMacros(t.getSecond());
-					
-				}
-
-				@Override
-				public void failure(Throwable error) {
-					System.out.println("Error");				
-				}
-			});
-			/*syncMacros(new BackgroundSyncCallback() {
+			BackgroundSyncCallback callback = new BackgroundSyncCallback() {
 
 				@Override
 				public void onBackgroundSyncSuccess(List<MacroInterface> currentMacros) {
@@ -221,7 +211,13 @@ public class BackgroundService implements Runnable, OnlineStatusProvider, WebSoc
 				public void onBackgroundSyncFail(Throwable error) {
 					//Do nothing					
 				}
-			},false);*/
+			};
+			// the notification carries the changes, a sync is done only if they can't be applied in place
+			MacroChangeSet changes = wsMessage.getData() == null ? null : getWeb().parseMacroChangeSet(wsMessage.getData());
+			if(changes == null)
+				syncMacros(callback, false);
+			else
+				safeSyncManager.applyPushedChanges(changes, new BackgroundServicePushedChangesCallback(callback));
 		} break;
 
 		case SinapsiMessageTypes.NEW_CONNECTION: {
@@ -329,6 +325,22 @@ public class BackgroundService implements Runnable, OnlineStatusProvider, WebSoc
 		}
 	}
 
+	private class BackgroundServicePushedChangesCallback extends BackgroundServiceInternalSyncCallback implements SyncManager.PushedChangesCallback {
+
+		private final BackgroundSyncCallback pushedCallback;
+
+		public BackgroundServicePushedChangesCallback(BackgroundSyncCallback callback) {
+			super(callback, false);
+			this.pushedCallback = callback;
+		}
+
+		@Override
+		public void onPushedChangesApplied(List<Pair<SyncOperation, MacroInterface>> appliedChanges) {
+			macroEngine.applyChanges(appliedChanges);
+			pushedCallback.onBackgroundSyncSuccess(getMacros());
+		}
+	}
+
 	public void handleConflicts(List<MacroSyncConflict> conflicts, SyncManager.ConflictResolutionCallback callback) {
 
 	}
@@ -36,6 +36,7 @@ import com.sinapsi.client.SyncManager;
 import com.sinapsi.client.persistence.InconsistentMacroChangeException;
 import com.sinapsi.client.persistence.UserSettingsFacade;
 import com.sinapsi.client.persistence.syncmodel.MacroSyncConflict;
+import com.sinapsi.utils.Pair;
 import com.sinapsi.utils.Triplet;
 import com.sinapsi.webshared.ComponentFactoryProvider;
 import com.sinapsi.client.web.OnlineStatusProvider;
@@ -81,12 +82,13 @@ import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
 import com.sinapsi.model.impl.CommunicationInfo;
 import com.sinapsi.model.impl.FactoryModel;
+import com.sinapsi.model.impl.MacroChangeSet;
+import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.engine.parameters.ActualParamBuilder;
 import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
 import com.sinapsi.webshared.wsproto.WebSocketEventHandler;
 import com.sinapsi.webshared.wsproto.WebSocketMessage;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -116,6 +118,7 @@ public class SinapsiBackgroundService extends Service
     private DeviceInterface device;
 
     private static FactoryModel fm = new FactoryModel();
+    private static final Gson gson = new Gson();
 
     private Map<String, WebServiceConnectionListener> connectionListeners = new HashMap<>();
 
@@ -336,7 +339,7 @@ public class SinapsiBackgroundService extends Service
 
 
     public List<MacroInterface> getMacros() {
-        return new ArrayList<>(engine.getMacros().values());
+        return engine.getMacros();
     }
 
     /**
@@ -404,7 +407,6 @@ public class SinapsiBackgroundService extends Service
 
     private void handleWsMessage(final String message, boolean firstcall) {
 
-        Gson gson = new Gson();
         WebSocketMessage wsMsg = gson.fromJson(message, WebSocketMessage.class);
         switch (wsMsg.getMsgType()) {
             case SinapsiMessageTypes.REMOTE_EXECUTION_DESCRIPTOR: {
@@ -413,7 +415,7 @@ public class SinapsiBackgroundService extends Service
             }
             break;
             case SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION: {
-                syncMacros(new BackgroundSyncCallback() {
+                BackgroundSyncCallback callback = new BackgroundSyncCallback() {
                     @Override
                     public void onBackgroundSyncSuccess(List<MacroInterface> currentMacros) {
                         //do nothing
@@ -423,7 +425,11 @@ public class SinapsiBackgroundService extends Service
                     public void onBackgroundSyncFail(Throwable error) {
                         //do nothing
                     }
-                }, false);
+                };
+                //the notification carries the changes, a sync is done only if they can't be applied in place
+                MacroChangeSet changes = wsMsg.getData() == null ? null : web.parseMacroChangeSet(wsMsg.getData());
+                if (changes == null) syncMacros(callback, false);
+                else safeSyncManager.applyPushedChanges(changes, new BackgroundServicePushedChangesCallback(callback));
             }
             break;
             case SinapsiMessageTypes.NEW_CONNECTION: {
@@ -826,6 +832,29 @@ public class SinapsiBackgroundService extends Service
         }
     }
 
+    private class BackgroundServicePushedChangesCallback extends BackgroundServiceInternalSyncCallback implements SyncManager.PushedChangesCallback {
+
+        private final BackgroundSyncCallback pushedCallback;
+
+        public BackgroundServicePushedChangesCallback(BackgroundSyncCallback callback) {
+            super(callback, false);
+            this.pushedCallback = callback;
+        }
+
+        @Override
+        public void onPushedChangesApplied(final List<Pair<SyncOperation, MacroInterface>> appliedChanges) {
+            //the engine is updated on the main thread, like after a sync
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    Lol.d(this, "Applying " + appliedChanges.size() + " pushed changes");
+                    engine.applyChanges(appliedChanges);
+                    pushedCallback.onBackgroundSyncSuccess(engine.getMacros());
+                }
+            });
+        }
+    }
+
     private final class REDHandler extends Handler{
 
         public REDHandler(Looper looper) {
@@ -846,6 +875,8 @@ public class SinapsiBackgroundService extends Service
 
             try {
                 engine.continueMacro(triplet.getFirst());
+                //the continuation has been executed, the server can forget it
+                if (getWSClient() != null) getWSClient().acknowledgeContinuation(triplet.getFirst());
             } catch (MacroEngine.MissingMacroException e) {
                 if (triplet.getThird()) {
                     //retries after a sync
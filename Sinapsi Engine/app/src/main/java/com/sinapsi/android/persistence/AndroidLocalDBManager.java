@@ -24,10 +24,11 @@ import java.util.List;
 public class AndroidLocalDBManager implements LocalDBManager {
 
 
-    public static final int LOCAL_DB_VERSION = 2;
+    public static final int LOCAL_DB_VERSION = 3;
 
     public static final String TABLE_MACROS = "macro";
     public static final String TABLE_ACTION_LISTS = "action_list";
+    public static final String TABLE_SYNC_STATE = "sync_state";
 
     public static final String COL_MACRO_ROW_ID = "row_id";
     public static final String COL_MACRO_ID = "id";
@@ -93,6 +94,14 @@ public class AndroidLocalDBManager implements LocalDBManager {
             COL_ACTIONLIST_ACTION_JSON + " TEXT" +
             ");";
 
+    public static final String COL_SYNC_STATE_REVISION = "revision";
+
+    //a single row, with the server revision the macros of the db refer to
+    public static final String SQL_STATEMENT_CREATE_TABLE_SYNC_STATE = "" +
+            "CREATE TABLE " + TABLE_SYNC_STATE + " (" +
+            COL_SYNC_STATE_REVISION + " INTEGER" +
+            ");";
+
 
     private String dbname;
     public AndroidLocalDBOpenHelper localDBOpenHelper;
@@ -246,6 +255,38 @@ public class AndroidLocalDBManager implements LocalDBManager {
         SQLiteDatabase db = localDBOpenHelper.getWritableDatabase();
         db.delete(TABLE_MACROS,null, null);
         db.delete(TABLE_ACTION_LISTS, null, null);
+        db.delete(TABLE_SYNC_STATE, null, null);
+        db.close();
+        localDBOpenHelper.close();
+    }
+
+    @Override
+    public long getSyncRevision() {
+        SQLiteDatabase db = localDBOpenHelper.getReadableDatabase();
+        Cursor c = db.query(TABLE_SYNC_STATE, new String[]{COL_SYNC_STATE_REVISION}, null, null, null, null, null);
+        long revision = -1;
+        if (c != null) {
+            if (c.moveToFirst()) revision = c.getLong(0);
+            c.close();
+        }
+        db.close();
+        localDBOpenHelper.close();
+        return revision;
+    }
+
+    @Override
+    public void setSyncRevision(long revision) {
+        SQLiteDatabase db = localDBOpenHelper.getWritableDatabase();
+        ContentValues cv = new ContentValues();
+        cv.put(COL_SYNC_STATE_REVISION, revision);
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_SYNC_STATE, null, null);
+            db.insertOrThrow(TABLE_SYNC_STATE, null, cv);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         db.close();
         localDBOpenHelper.close();
     }
@@ -23,13 +23,24 @@ public class AndroidLocalDBOpenHelper extends SQLiteOpenHelper{
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Lol.d("ON UPGRADE CALLED from " +oldVersion+" to "+newVersion);
+        if (oldVersion >= 2) {
+            // version 3 only adds the sync state: the macros, including the ones
+            // not pushed yet, are kept, and the missing revision asks for a full snapshot
+            if (oldVersion < 3)
+                db.execSQL(AndroidLocalDBManager.SQL_STATEMENT_CREATE_TABLE_SYNC_STATE);
+            return;
+        }
+
+        // the schema before version 2 can't be migrated
         db.execSQL("DROP TABLE IF EXISTS " + AndroidLocalDBManager.TABLE_MACROS);
         db.execSQL("DROP TABLE IF EXISTS " + AndroidLocalDBManager.TABLE_ACTION_LISTS);
+        db.execSQL("DROP TABLE IF EXISTS " + AndroidLocalDBManager.TABLE_SYNC_STATE);
         createTables(db);
     }
 
     public void createTables(SQLiteDatabase db){
         db.execSQL(AndroidLocalDBManager.SQL_STATEMENT_CREATE_TABLE_MACROS);
         db.execSQL(AndroidLocalDBManager.SQL_STATEMENT_CREATE_TABLE_ACTION_LISTS);
+        db.execSQL(AndroidLocalDBManager.SQL_STATEMENT_CREATE_TABLE_SYNC_STATE);
     }
 }
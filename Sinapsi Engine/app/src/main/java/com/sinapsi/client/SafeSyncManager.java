@@ -4,6 +4,9 @@ import com.sinapsi.client.persistence.InconsistentMacroChangeException;
 import com.sinapsi.client.persistence.syncmodel.MacroSyncConflict;
 import com.sinapsi.client.web.OnlineStatusProvider;
 import com.sinapsi.model.MacroInterface;
+import com.sinapsi.model.impl.MacroChangeSet;
+import com.sinapsi.model.impl.SyncOperation;
+import com.sinapsi.utils.Pair;
 
 import java.util.List;
 
@@ -95,6 +98,34 @@ public class SafeSyncManager {
         }
     }
 
+    /**
+     * Applies a change set pushed by the web service. When the change set can't be
+     * applied in place, a sync is done like in getMacros().
+     */
+    public void applyPushedChanges(final MacroChangeSet changes, final SyncManager.PushedChangesCallback callback) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lock();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+
+                List<Pair<SyncOperation, MacroInterface>> applied;
+                try {
+                    applied = syncManager.applyPushedChanges(changes);
+                } finally {
+                    lock.unlock();
+                }
+
+                if (applied != null) callback.onPushedChangesApplied(applied);
+                else getMacros(callback);
+            }
+        }).start();
+    }
+
     public int getMinId() {
         return syncManager.getMinId();
     }
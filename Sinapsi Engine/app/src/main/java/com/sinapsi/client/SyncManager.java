@@ -8,10 +8,11 @@ import com.sinapsi.client.persistence.MemoryLocalDBManager;
 import com.sinapsi.client.persistence.syncmodel.MacroChange;
 import com.sinapsi.client.persistence.syncmodel.MacroSyncConflict;
 import com.sinapsi.client.web.SinapsiWebServiceFacade;
-import com.sinapsi.engine.Action;
 import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.impl.FactoryModel;
+import com.sinapsi.model.impl.LazyMacro;
+import com.sinapsi.model.impl.MacroChangeSet;
 import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.utils.Pair;
 import com.sinapsi.utils.Triplet;
@@ -41,6 +42,15 @@ public class SyncManager {
     }
 
 
+    /**
+     * Callback of a change set pushed by the web service: when the change set
+     * can't be applied in place a sync is done, and the MacroSyncCallback's
+     * methods are called instead.
+     */
+    public interface PushedChangesCallback extends MacroSyncCallback {
+        public void onPushedChangesApplied(List<Pair<SyncOperation, MacroInterface>> appliedChanges);
+    }
+
     public interface ConflictResolutionCallback {
         public void onConflictsResolved(List<MacroChange> toBePushedConflict, List<MacroChange> toBePulledConflict);
         public void onAbort();
@@ -115,6 +125,44 @@ public class SyncManager {
         currentDb.clearDB();
         lastSyncDb.clearDB();
         diffDb.clearDB();
+        //the copy of the last sync is gone with its revision, next sync must download everything
+    }
+
+    /**
+     * Applies in place the change set pushed by the web service after a change
+     * made by another device, without downloading the macro collection. This is
+     * possible only when the change set starts from the last synced revision and
+     * there are no local changes waiting to be pushed.
+     *
+     * @param changes the pushed change set
+     * @return the applied changes, to be applied to the engine, or null if a sync is needed
+     */
+    public List<Pair<SyncOperation, MacroInterface>> applyPushedChanges(MacroChangeSet changes) {
+        List<Pair<SyncOperation, MacroInterface>> applied = new ArrayList<>();
+        long lastSyncRevision = lastSyncDb.getSyncRevision();
+        //the change set is already known
+        if (lastSyncRevision >= 0 && changes.getRevision() <= lastSyncRevision) return applied;
+
+        if (lastSyncRevision < 0 ||
+                changes.getBaseRevision() != lastSyncRevision ||
+                !diffDb.getAllChanges().isEmpty()) return null;
+
+        for (MacroInterface mi : changes.getUpdatedMacros()) {
+            SyncOperation op = lastSyncDb.containsMacro(mi.getId()) ? SyncOperation.UPDATE : SyncOperation.ADD;
+            currentDb.addOrUpdateMacro(mi);
+            lastSyncDb.addOrUpdateMacro(mi);
+            applied.add(new Pair<>(op, mi));
+        }
+        for (Integer id : changes.getDeletedMacroIds()) {
+            if (!lastSyncDb.containsMacro(id)) continue;
+            MacroInterface removed = lastSyncDb.getMacroWithId(id);
+            lastSyncDb.removeMacro(id);
+            if (currentDb.containsMacro(id)) currentDb.removeMacro(id);
+            applied.add(new Pair<>(SyncOperation.DELETE, removed));
+        }
+
+        lastSyncDb.setSyncRevision(changes.getRevision());
+        return applied;
     }
 
     public void sync(final MacroSyncCallback callback) {
@@ -122,24 +170,19 @@ public class SyncManager {
             callback.onSyncSuccess(currentDb.getAllMacros());
             return;
         }
-        webService.getAllMacros(device, new SinapsiWebServiceFacade.WebServiceCallback<Pair<Boolean, List<MacroInterface>>>() {
+        //the revision is saved with the copy of the last sync, so a restart doesn't download everything
+        webService.getMacroChanges(device, lastSyncDb.getSyncRevision(), new SinapsiWebServiceFacade.WebServiceCallback<MacroChangeSet>() {
             @Override
-            public void success(Pair<Boolean, List<MacroInterface>> result, Object response) {
-                final List<MacroInterface> serverMacros = result.getSecond();
+            public void success(MacroChangeSet changes, Object response) {
+                final List<MacroInterface> serverMacros = rebuildServerMacros(changes);
+                final MacroSyncCallback revisionCallback = new RevisionUpdateCallback(callback, changes.getRevision());
 
-                if (result.getFirst()) {
-                    syncWithFreshDataFromServer(callback, serverMacros);
+                if (changes.isFullSnapshot() || !changes.isEmpty()) {
+                    syncWithFreshDataFromServer(revisionCallback, serverMacros);
                 } else {
                     if (diffDb.getAllChanges().isEmpty()) {
-                        //server and client probably have same data, but let's do
-                        //another check on the number of macros to see if this is true
-                        if (currentDb.getAllMacros().size() != serverMacros.size()) {
-                            //something in the change tracking system has gone wrong
-                            System.out.println("SINAPSI SYNC MANAGER: The change tracking mechanism failed, the server returned a false negative sync flag");
-                            //forcing to sync as if the boolean was true
-                            syncWithFreshDataFromServer(callback, serverMacros);
-                        }
-                        callback.onSyncSuccess(currentDb.getAllMacros());
+                        //server and client have the same data
+                        revisionCallback.onSyncSuccess(currentDb.getAllMacros());
                     } else {
                         //only the client has updated data
                         List<MacroChange> toBePushed = diffDb.getAllChanges();
@@ -147,7 +190,7 @@ public class SyncManager {
                         webService.pushChanges(
                                 device,
                                 convertChangesToPushSyncOps(diffDb.getAllChanges(), currentDb),
-                                new PushAndPullWebServiceCallBack(callback, pushtmp, null, null, new int[]{0, 0}, null, 0));
+                                new PushAndPullWebServiceCallBack(revisionCallback, pushtmp, null, null, new int[]{0, 0}, null, 0));
                     }
                 }
             }
@@ -159,6 +202,56 @@ public class SyncManager {
         });
     }
 
+    /**
+     * Rebuilds the collection of macros on the server by applying
+     * the received changes on the copy of the last sync
+     *
+     * @param changes the changes received from the server
+     * @return the macros on the server
+     */
+    private List<MacroInterface> rebuildServerMacros(MacroChangeSet changes) {
+        if (changes.isFullSnapshot()) return changes.getUpdatedMacros();
+
+        MemoryLocalDBManager serverDb = new MemoryLocalDBManager(lastSyncDb);
+        for (MacroInterface mi : changes.getUpdatedMacros()) {
+            serverDb.addOrUpdateMacro(mi);
+        }
+        for (Integer id : changes.getDeletedMacroIds()) {
+            if (serverDb.containsMacro(id)) serverDb.removeMacro(id);
+        }
+        return serverDb.getAllMacros();
+    }
+
+    /**
+     * Sync callback wrapper that updates the last known server revision
+     * only when the sync ends successfully.
+     */
+    private class RevisionUpdateCallback implements MacroSyncCallback {
+        private final MacroSyncCallback callback;
+        private final long revision;
+
+        public RevisionUpdateCallback(MacroSyncCallback callback, long revision) {
+            this.callback = callback;
+            this.revision = revision;
+        }
+
+        @Override
+        public void onSyncSuccess(List<MacroInterface> currentMacros) {
+            lastSyncDb.setSyncRevision(revision);
+            callback.onSyncSuccess(currentMacros);
+        }
+
+        @Override
+        public void onSyncConflicts(List<MacroSyncConflict> conflicts, final ConflictResolutionCallback conflictCallback) {
+            callback.onSyncConflicts(conflicts, conflictCallback);
+        }
+
+        @Override
+        public void onSyncFailure(Throwable error) {
+            callback.onSyncFailure(error);
+        }
+    }
+
 
     private void syncWithFreshDataFromServer(final MacroSyncCallback callback, final List<MacroInterface> serverMacros){
         if (diffDb.getAllChanges().isEmpty()) {
@@ -406,22 +499,25 @@ public class SyncManager {
         if (!m1.getIconName().equals(m2.getIconName())) return false;
         if (!m1.getMacroColor().equals(m2.getMacroColor())) return false;
         if (!m1.getExecutionFailurePolicy().equals(m2.getExecutionFailurePolicy())) return false;
-        if (!m1.getTrigger().getName().equals(m2.getTrigger().getName())) return false;
-        if (!m1.getTrigger().getActualParameters().equals(m2.getTrigger().getActualParameters()))
-            return false;
-        if (m1.getTrigger().getExecutionDevice().getId() != m2.getTrigger().getExecutionDevice().getId())
+        //compares the component data, without instantiating the components of lazy macros
+        if (!areComponentsEqual(LazyMacro.getTriggerData(m1), LazyMacro.getTriggerData(m2)))
             return false;
-        if (m1.getActions().size() != m2.getActions().size()) return false;
-        for (int i = 0; i < m1.getActions().size(); i++) {
-            Action a1 = m1.getActions().get(i);
-            Action a2 = m2.getActions().get(i);
-            if (a1.getExecutionDevice() != a2.getExecutionDevice()) return false;
-            if (!a1.getActualParameters().equals(a2.getActualParameters())) return false;
-            if (!a1.getName().equals(a2.getName())) return false;
+        List<LazyMacro.ComponentData> actions1 = LazyMacro.getActionData(m1);
+        List<LazyMacro.ComponentData> actions2 = LazyMacro.getActionData(m2);
+        if (actions1.size() != actions2.size()) return false;
+        for (int i = 0; i < actions1.size(); i++) {
+            if (!areComponentsEqual(actions1.get(i), actions2.get(i))) return false;
         }
         return true;
     }
 
+    private static boolean areComponentsEqual(LazyMacro.ComponentData c1, LazyMacro.ComponentData c2) {
+        if (c1 == null || c2 == null) return c1 == c2;
+        if (c1.getDeviceId() != c2.getDeviceId()) return false;
+        if (!c1.getParameters().equals(c2.getParameters())) return false;
+        return c1.getName().equals(c2.getName());
+    }
+
     public int getMinId() {
         return Math.min(currentDb.getMinMacroId(), diffDb.getMinMacroId());
     }
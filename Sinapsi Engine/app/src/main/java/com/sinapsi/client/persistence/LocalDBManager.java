@@ -68,4 +68,20 @@ public interface LocalDBManager {
      * that are not synced with the server yet.
      */
     public void deleteMacrosWithNegativeId();
+
+    /**
+     * Gets the revision of the server's macro collection the macros of the db
+     * refer to. The revision is reset by clearDB().
+     *
+     * @return the revision, or -1 if unknown
+     */
+    public long getSyncRevision();
+
+    /**
+     * Saves the revision of the server's macro collection the macros of the db
+     * refer to.
+     *
+     * @param revision the revision
+     */
+    public void setSyncRevision(long revision);
 }
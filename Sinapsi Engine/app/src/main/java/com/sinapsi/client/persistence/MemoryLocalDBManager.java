@@ -15,6 +15,7 @@ import java.util.Map;
 public class MemoryLocalDBManager implements LocalDBManager{
 
     Map<Integer, MacroInterface> macros;
+    long syncRevision = -1;
 
     public MemoryLocalDBManager(){
         macros = new HashMap<>();
@@ -51,6 +52,7 @@ public class MemoryLocalDBManager implements LocalDBManager{
     @Override
     public void clearDB() {
         macros.clear();
+        syncRevision = -1;
     }
 
     @Override
@@ -79,6 +81,16 @@ public class MemoryLocalDBManager implements LocalDBManager{
         }
     }
 
+    @Override
+    public long getSyncRevision() {
+        return syncRevision;
+    }
+
+    @Override
+    public void setSyncRevision(long revision) {
+        syncRevision = revision;
+    }
+
     public void saveToDb(LocalDBManager db, boolean clear){
         if(clear) db.clearDB();
         for (MacroInterface m :macros.values())
@@ -0,0 +1,99 @@
+package com.sinapsi.client.web;
+
+import com.google.gson.Gson;
+import com.sinapsi.model.MacroInterface;
+import com.sinapsi.model.impl.MacroChangeSet;
+import com.sinapsi.utils.Pair;
+import com.sinapsi.webshared.BinaryMacroCodec;
+import com.sinapsi.webshared.ComponentFactoryProvider;
+import com.sinapsi.webshared.MacroConsumer;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * Converter that reads the macro lists sent by the web service with the
+ * binary encoding, one macro at a time, and passes all the other bodies
+ * to the wrapped converter.
+ */
+public class BinaryMacroConverter implements Converter {
+
+    private final Converter converter;
+    private final Gson gson;
+    private final ComponentFactoryProvider componentFactoryProvider;
+
+    /**
+     * Default ctor
+     * @param converter the converter of the other bodies
+     * @param gson the gson object, used to read the envelope of the list
+     * @param componentFactoryProvider the provider of the factory of the macro components
+     */
+    public BinaryMacroConverter(Converter converter, Gson gson, ComponentFactoryProvider componentFactoryProvider) {
+        this.converter = converter;
+        this.gson = gson;
+        this.componentFactoryProvider = componentFactoryProvider;
+    }
+
+    @Override
+    public Object fromBody(TypedInput body, Type type) throws ConversionException {
+        if (!BinaryMacroCodec.isBinary(body.mimeType()))
+            return converter.fromBody(body, type);
+
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(body.in());
+            BinaryMacroCodec.Reader reader = new BinaryMacroCodec.Reader(in, componentFactoryProvider.getComponentFactory());
+            Object envelope = gson.fromJson(reader.getEnvelope(), type);
+
+            if (envelope instanceof MacroChangeSet) {
+                MacroChangeSet changes = (MacroChangeSet) envelope;
+                readMacros(reader, changes.getUpdatedMacros());
+                return changes;
+            }
+
+            if (envelope instanceof Pair) {
+                Pair<?, ?> pair = (Pair<?, ?>) envelope;
+                Pair<Object, List<MacroInterface>> result = new Pair<Object, List<MacroInterface>>(pair.getFirst(), new ArrayList<MacroInterface>());
+                result.errorOccured(pair.isErrorOccured());
+                result.setErrorDescription(pair.getErrorDescription());
+                result.setAdditionalInfo(pair.getAdditionalInfo());
+                readMacros(reader, result.getSecond());
+                return result;
+            }
+
+            throw new ConversionException("Unexpected binary macro body for " + type);
+        } catch (IOException e) {
+            throw new ConversionException(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public TypedOutput toBody(Object object) {
+        return converter.toBody(object);
+    }
+
+    private static void readMacros(BinaryMacroCodec.Reader reader, final List<MacroInterface> macros) throws IOException {
+        reader.readAll(new MacroConsumer() {
+            @Override
+            public void onMacro(MacroInterface macro) {
+                macros.add(macro);
+            }
+        });
+    }
+}
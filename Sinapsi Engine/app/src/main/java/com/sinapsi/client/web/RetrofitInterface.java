@@ -7,8 +7,10 @@ import com.sinapsi.model.MacroComponent;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.impl.ActionDescriptor;
 import com.sinapsi.model.impl.AvailabilityMap;
+import com.sinapsi.model.impl.BootstrapData;
 import com.sinapsi.model.impl.CommunicationInfo;
 import com.sinapsi.model.impl.Device;
+import com.sinapsi.model.impl.MacroChangeSet;
 import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.model.impl.TriggerDescriptor;
 import com.sinapsi.model.impl.User;
@@ -20,6 +22,7 @@ import java.util.List;
 import retrofit.Callback;
 import retrofit.http.Body;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.POST;
 import retrofit.http.Query;
 
@@ -37,9 +40,13 @@ public interface RetrofitInterface {
     public static final String AVAILABLE_COMPONENTS = "/available_components";
     public static final String REMOTE_MACRO = "/remote_macro";
     public static final String MACROS = "/macro";
+    public static final String BOOTSTRAP = "/bootstrap";
 
     public static final String ACTION = "?action=";
 
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String ACCEPT = "Accept";
+
     public static final String ADD = "add";
     public static final String GET = "get";
     public static final String DEL = "del";
@@ -121,6 +128,29 @@ public interface RetrofitInterface {
             Callback<Device> device);
 
 
+    /**
+     * Bootstrap request: registers the device, sets its available components and gets
+     * the device, the available components of all the user's devices and the macro changes.
+     * It needs the components up front, so the login of the Sinapsi clients, which build
+     * the engine from the registered device, doesn't use it
+     *
+     * @param type               type of the device (mobile/desktop)
+     * @param version            version of the device
+     * @param since              the last revision known by the client, or -1 to get a full snapshot
+     * @param triggersAndActions the available components of this device
+     */
+    @POST(BOOTSTRAP)
+    public void bootstrap(
+            @Query("email") String email,
+            @Query("name") String deviceName,
+            @Query("model") String deviceModel,
+            @Query("type") String type,
+            @Query("version") int version,
+            @Query("since") long since,
+            @Body Pair<List<TriggerDescriptor>, List<ActionDescriptor>> triggersAndActions,
+            Callback<BootstrapData> result);
+
+
     /**
      * Request the available actions
      *
@@ -168,11 +198,17 @@ public interface RetrofitInterface {
             Callback<CommunicationInfo> result);
 
 
+    /**
+     * Request the available components of all the user's devices
+     *
+     * @param etag the validator of the last received components, or null
+     */
     @GET(AVAILABLE_COMPONENTS)
     public void getAvailableComponents(
             @Query("email") String email,
             @Query("name") String deviceName,
             @Query("model") String deviceModel,
+            @Header(IF_NONE_MATCH) String etag,
             Callback<AvailabilityMap> result);
 
 
@@ -226,15 +262,37 @@ public interface RetrofitInterface {
     /**
      * Gets all the macros from the server
      *
-     * @param email the user's email
+     * @param email  the user's email
+     * @param etag   the validator of the last received macros, or null
+     * @param accept the content type of the binary encoding, or null to get json
      */
     @GET(MACROS + ACTION + GET)
     public void getAllMacros(
             @Query("email") String email,
             @Query("name") String deviceName,
             @Query("model") String deviceModel,
+            @Header(IF_NONE_MATCH) String etag,
+            @Header(ACCEPT) String accept,
             Callback<Pair<Boolean, List<MacroInterface>>> result);
 
+    /**
+     * Gets the macro changes done on the server after the specified revision
+     *
+     * @param email the user's email
+     * @param since the last revision known by the client, or -1 to get a full snapshot
+     * @param etag   the validator of the last received change set for since, or null
+     * @param accept the content type of the binary encoding, or null to get json
+     */
+    @GET(MACROS + ACTION + GET)
+    public void getMacroChanges(
+            @Query("email") String email,
+            @Query("name") String deviceName,
+            @Query("model") String deviceModel,
+            @Query("since") long since,
+            @Header(IF_NONE_MATCH) String etag,
+            @Header(ACCEPT) String accept,
+            Callback<MacroChangeSet> result);
+
     /**
      * Call this method to continue the execution of a macro on another device.
      *
@@ -3,12 +3,12 @@ package com.sinapsi.client.web;
 import com.bgp.codec.DecodingMethod;
 import com.bgp.codec.EncodingMethod;
 import com.bgp.encryption.Encrypt;
-import com.bgp.generator.KeyGenerator;
 import com.bgp.keymanager.PublicKeyManager;
 import com.bgp.keymanager.SessionKeyManager;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.InstanceCreator;
+import com.google.gson.reflect.TypeToken;
 import com.sinapsi.client.AppConsts;
 import com.sinapsi.client.web.gson.DeviceInterfaceInstanceCreator;
 import com.sinapsi.client.websocket.WSClient;
@@ -18,15 +18,19 @@ import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
 import com.sinapsi.model.impl.ActionDescriptor;
 import com.sinapsi.model.impl.AvailabilityMap;
+import com.sinapsi.model.impl.BootstrapData;
 import com.sinapsi.model.impl.CommunicationInfo;
 import com.sinapsi.model.impl.Device;
 import com.sinapsi.model.impl.FactoryModel;
 import com.sinapsi.model.impl.Macro;
+import com.sinapsi.model.impl.MacroChangeSet;
 import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.model.impl.TriggerDescriptor;
 import com.sinapsi.model.impl.User;
 import com.sinapsi.utils.Pair;
+import com.sinapsi.webshared.BinaryMacroCodec;
 import com.sinapsi.webshared.ComponentFactoryProvider;
+import com.sinapsi.webshared.KeyPairPool;
 import com.sinapsi.webshared.gson.DeviceInterfaceTypeAdapter;
 import com.sinapsi.webshared.gson.MacroTypeAdapter;
 import com.sinapsi.webshared.gson.UserInterfaceTypeAdapter;
@@ -36,17 +40,22 @@ import org.java_websocket.handshake.ServerHandshake;
 
 import java.lang.reflect.Type;
 import java.net.URISyntaxException;
+import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.crypto.SecretKey;
 
 import retrofit.Callback;
 import retrofit.RestAdapter;
 import retrofit.RetrofitError;
+import retrofit.client.Header;
 import retrofit.client.Response;
 import retrofit.converter.GsonConverter;
 import retrofit.mime.TypedOutput;
@@ -86,6 +95,16 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
 
     private UserInterface loggedUser = null;
 
+    //gson able to parse the macros, used also for the websocket messages
+    private Gson gson;
+
+    //a ready key pair is kept in background, so requestLogin doesn't wait for its generation.
+    //the pool and its thread are shared by all the facades of the process
+    private static final KeyPairPool keyPairPool = new KeyPairPool(1024, 1, 0, 1);
+
+    //last bodies of the conditional requests with their validators, by request
+    private final Map<String, ValidatedBody> validatedBodies = Collections.synchronizedMap(new HashMap<String, ValidatedBody>());
+
     /**
      * Default ctor
      */
@@ -103,7 +122,7 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
         this.encodingMethod = encodingMethod;
         this.decodingMethod = decodingMethod;
 
-        Gson gson = new GsonBuilder()
+        gson = new GsonBuilder()
                 .registerTypeAdapter(
                         DeviceInterface.class,
                         new DeviceInterfaceTypeAdapter())
@@ -142,9 +161,10 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
                 .setLog(retrofitLog)
                 .build();
 
+        //the macro lists can be received with the binary encoding only on plain connections
         RestAdapter uncryptedRestAdapter = new RestAdapter.Builder()
                 .setEndpoint(AppConsts.SINAPSI_URL)
-                .setConverter(defaultGsonConverter)
+                .setConverter(new BinaryMacroConverter(defaultGsonConverter, gson, componentFactoryProvider))
                 .setLog(retrofitLog)
                 .build();
 
@@ -234,6 +254,86 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
         };
     }
 
+    /**
+     * Converts a generic WebServiceCallback to a retrofit's Callback of a conditional
+     * request. The body received with a validator is kept, and when the server answers
+     * 304 Not Modified a fresh copy of the kept body is returned to the WebServiceCallback.
+     *
+     * @param key        the request, with the parameters the body depends on
+     * @param type       the type of the body
+     * @param wsCallback the WebServiceCallback
+     * @param <T>        the type
+     * @return a retrofit's Callback
+     */
+    private <T> Callback<T> convertConditionalCallback(final String key, final Type type, final WebServiceCallback<T> wsCallback) {
+        return new Callback<T>() {
+            @Override
+            public void success(T t, Response response) {
+                String etag = getHeader(response, "ETag");
+                //the kept copy is serialized now, the returned object can be changed by the caller
+                if (etag != null && t != null)
+                    validatedBodies.put(key, new ValidatedBody(etag, gson.toJson(t, type)));
+                else
+                    validatedBodies.remove(key);
+                wsCallback.success(t, response);
+            }
+
+            @Override
+            public void failure(RetrofitError error) {
+                ValidatedBody body = validatedBodies.get(key);
+                Response response = error.getResponse();
+                if (body != null && response != null && response.getStatus() == 304) {
+                    T t = gson.fromJson(body.json, type);
+                    wsCallback.success(t, response);
+                    return;
+                }
+                wsCallback.failure(error);
+            }
+        };
+    }
+
+    /**
+     * Returns the validator of the body kept for the request
+     *
+     * @param key the request
+     * @return the validator, or null if there is no kept body
+     */
+    private String getValidator(String key) {
+        ValidatedBody body = validatedBodies.get(key);
+        return body == null ? null : body.etag;
+    }
+
+    /**
+     * Returns the Accept header of the macro pulls: the encrypted bodies carry
+     * text, so the binary encoding is asked for only on plain connections
+     *
+     * @return the content type of the binary encoding, or null to get json
+     */
+    private static String getMacroAccept() {
+        //noinspection ConstantConditions
+        return AppConsts.DEBUG_ENCRYPTED_RETROFIT ? null : BinaryMacroCodec.CONTENT_TYPE;
+    }
+
+    private static String getHeader(Response response, String name) {
+        for (Header h : response.getHeaders()) {
+            if (name.equalsIgnoreCase(h.getName())) return h.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Body of a conditional request, kept serialized with its validator
+     */
+    private static class ValidatedBody {
+        private final String etag;
+        private final String json;
+
+        private ValidatedBody(String etag, String json) {
+            this.etag = etag;
+            this.json = json;
+        }
+    }
+
     /**
      * Check to ensure the keys are not null. Throws a runtime exception
      */
@@ -253,9 +353,9 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
     public void requestLogin(String email, String deviceName, String deviceModel, final WebServiceCallback<Pair<byte[], byte[]>> keysCallback) {
         if (!onlineStatusProvider.isOnline()) return;
 
-        KeyGenerator kg = new KeyGenerator(1024, "RSA");
-        final PrivateKey prk = kg.getPrivateKey();
-        final PublicKey puk = kg.getPublicKey();
+        KeyPair kp = keyPairPool.take();
+        final PrivateKey prk = kp.getPrivate();
+        final PublicKey puk = kp.getPublic();
 
         try {
             uncryptedRetrofit.requestLogin(email,
@@ -423,16 +523,80 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
                 });
     }
 
+    @Override
+    public void bootstrap(UserInterface user,
+                          String deviceName,
+                          String deviceModel,
+                          String deviceType,
+                          int deviceClientVersion,
+                          List<TriggerDescriptor> triggers,
+                          List<ActionDescriptor> actions,
+                          long since,
+                          final WebServiceCallback<BootstrapData> result) {
+        checkKeys();
+        if (!onlineStatusProvider.isOnline()) return;
+        cryptedRetrofit.bootstrap(
+                user.getEmail(),
+                deviceName,
+                deviceModel,
+                deviceType,
+                deviceClientVersion,
+                since,
+                new Pair<>(triggers, actions),
+                new Callback<BootstrapData>() {
+                    @Override
+                    public void success(BootstrapData data, Response response) {
+                        if (data == null) {
+                            result.failure(new RuntimeException("Returned bootstrap data from server is null"));
+                            return;
+                        }
+                        if (data.isErrorOccured()) {
+                            result.failure(new RuntimeException(data.getErrorDescription()));
+                            return;
+                        }
+                        wsClient.setDeviceId(data.getDevice().getId());
+                        result.success(data, response);
+                    }
+
+                    @Override
+                    public void failure(RetrofitError error) {
+                        result.failure(error);
+                    }
+                });
+    }
+
     //Don't force call this before login or NullPointerException occurs
     @Override
     public void getAllMacros(DeviceInterface device, WebServiceCallback<Pair<Boolean, List<MacroInterface>>> result) {
         checkKeys();
         if (!onlineStatusProvider.isOnline()) return;
+        String key = RetrofitInterface.MACROS;
         cryptedRetrofit.getAllMacros(
                 loggedUser.getEmail(),
                 device.getName(),
                 device.getModel(),
-                convertCallback(result));
+                getValidator(key),
+                getMacroAccept(),
+                this.<Pair<Boolean, List<MacroInterface>>>convertConditionalCallback(
+                        key,
+                        new TypeToken<Pair<Boolean, List<MacroInterface>>>() {}.getType(),
+                        result));
+    }
+
+
+    @Override
+    public void getMacroChanges(DeviceInterface device, long since, WebServiceCallback<MacroChangeSet> result) {
+        checkKeys();
+        if (!onlineStatusProvider.isOnline()) return;
+        String key = RetrofitInterface.MACROS + "?since=" + since;
+        cryptedRetrofit.getMacroChanges(
+                loggedUser.getEmail(),
+                device.getName(),
+                device.getModel(),
+                since,
+                getValidator(key),
+                getMacroAccept(),
+                this.<MacroChangeSet>convertConditionalCallback(key, MacroChangeSet.class, result));
     }
 
 
@@ -452,11 +616,13 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
     public void getAvailableComponents(DeviceInterface device, WebServiceCallback<AvailabilityMap> result) {
         checkKeys();
         if (!onlineStatusProvider.isOnline()) return;
+        String key = RetrofitInterface.AVAILABLE_COMPONENTS;
         cryptedRetrofit.getAvailableComponents(
                 loggedUser.getEmail(),
                 device.getName(),
                 device.getModel(),
-                convertCallback(result));
+                getValidator(key),
+                this.<AvailabilityMap>convertConditionalCallback(key, AvailabilityMap.class, result));
     }
 
     @Override
@@ -475,6 +641,11 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
         return wsClient;
     }
 
+    @Override
+    public MacroChangeSet parseMacroChangeSet(String json) {
+        return gson.fromJson(json, MacroChangeSet.class);
+    }
+
     @Override
     public void logout() {
         if (wsClient == null) return;
@@ -486,6 +657,7 @@ public class RetrofitWebServiceFacade implements SinapsiWebServiceFacade, BGPKey
         serverSessionKey = null;
         serverPublicKey = null;
         loggedUser = null;
+        validatedBodies.clear();
         userLoginStatusListener.onUserLogOut();
     }
 
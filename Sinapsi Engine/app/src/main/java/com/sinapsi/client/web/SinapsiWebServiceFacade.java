@@ -7,8 +7,10 @@ import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
 import com.sinapsi.model.impl.ActionDescriptor;
 import com.sinapsi.model.impl.AvailabilityMap;
+import com.sinapsi.model.impl.BootstrapData;
 import com.sinapsi.model.impl.CommunicationInfo;
 import com.sinapsi.model.impl.Device;
+import com.sinapsi.model.impl.MacroChangeSet;
 import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.model.impl.TriggerDescriptor;
 import com.sinapsi.model.impl.User;
@@ -101,6 +103,32 @@ public interface SinapsiWebServiceFacade {
                                int deviceClientVersion,
                                WebServiceCallback<Device> result);
 
+    /**
+     * Registers the device, sets its available components, and gets the device, the
+     * available components of all the user's devices and the macro changes in a single
+     * request. Usable only by a client knowing its components before the device is
+     * registered, the Sinapsi clients still use registerDevice and setAvailableComponents
+     *
+     * @param user                the user
+     * @param deviceName          the name of the device
+     * @param deviceModel         the model of the device
+     * @param deviceType          the type of the device
+     * @param deviceClientVersion the version of the Sinapsi Engine running on the device
+     * @param triggers            the available triggers of the device
+     * @param actions             the available actions of the device
+     * @param since               the last revision received from the server, or -1 to get a full snapshot
+     * @param result              the bootstrap data returned by the web service
+     */
+    public void bootstrap(UserInterface user,
+                          String deviceName,
+                          String deviceModel,
+                          String deviceType,
+                          int deviceClientVersion,
+                          List<TriggerDescriptor> triggers,
+                          List<ActionDescriptor> actions,
+                          long since,
+                          WebServiceCallback<BootstrapData> result);
+
     /**
      * Gets all the macros saved in the web service
      *
@@ -108,6 +136,15 @@ public interface SinapsiWebServiceFacade {
      */
     public void getAllMacros(DeviceInterface device, WebServiceCallback<Pair<Boolean, List<MacroInterface>>> result);
 
+    /**
+     * Gets the macro changes done on the server after the specified revision
+     *
+     * @param device the caller device
+     * @param since  the last revision received from the server, or -1 to get a full snapshot
+     * @param result the change set result
+     */
+    public void getMacroChanges(DeviceInterface device, long since, WebServiceCallback<MacroChangeSet> result);
+
 
     /**
      * Sets the availability of triggers and actions of the current device
@@ -160,6 +197,15 @@ public interface SinapsiWebServiceFacade {
                             List<Pair<SyncOperation, MacroInterface>> changes,
                             WebServiceCallback<List<Pair<SyncOperation, Integer>>> callback);
 
+    /**
+     * Parses the change set carried by a model update notification
+     * received from the web socket
+     *
+     * @param json the data of the notification
+     * @return the change set
+     */
+    public MacroChangeSet parseMacroChangeSet(String json);
+
     /**
      * Makes a logout from the server. The client should delete
      * any keys and close any open connection after this.
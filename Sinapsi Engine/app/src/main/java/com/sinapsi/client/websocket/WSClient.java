@@ -4,12 +4,27 @@ import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import com.google.gson.Gson;
 import com.sinapsi.client.AppConsts;
+import com.sinapsi.engine.execution.RemoteExecutionDescriptor;
+import com.sinapsi.webshared.wsproto.BinaryFrameCodec;
+import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
+import com.sinapsi.webshared.wsproto.WebSocketMessage;
+
 /**
- * Web Socket Client
+ * Web Socket Client.
+ * The client asks the server for deflated binary frames, and falls back
+ * to text frames when the server doesn't confirm them in the handshake.
  */
 public class WSClient extends WebSocketClient {
+    private static final String FRAMES_QUERY = "/?" + BinaryFrameCodec.FRAMES_PARAM + "=" + BinaryFrameCodec.MODE_BINARY_DEFLATE;
+
+    private static final Gson gson = new Gson();
+
     private String username;
+    private String framing = BinaryFrameCodec.MODE_TEXT;
     
     /**
      * Default Ctor
@@ -23,7 +38,7 @@ public class WSClient extends WebSocketClient {
      * @throws URISyntaxException
      */
     public WSClient(String username) throws URISyntaxException {
-        super(new URI(AppConsts.SINAPSI_WS_URL), username);
+        super(new URI(AppConsts.SINAPSI_WS_URL + FRAMES_QUERY), username);
         this.username = username;
     }
 
@@ -43,7 +58,8 @@ public class WSClient extends WebSocketClient {
      */
     @Override
     public void onOpen(ServerHandshake handshakedata) {
-        System.out.println("Connection open :" + this.getURI());
+        framing = BinaryFrameCodec.negotiate(handshakedata.getFieldValue(BinaryFrameCodec.FRAMES_HEADER));
+        System.out.println("Connection open :" + this.getURI() + " (" + framing + " frames)");
     }
 
     /**
@@ -54,6 +70,26 @@ public class WSClient extends WebSocketClient {
         //Override this to handle messages
     }
 
+    /**
+     * Method called when a binary message is received. The message is decoded
+     * and passed to onMessage(String) in the text format
+     */
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        BinaryFrameCodec.Frame frame;
+        try {
+            frame = BinaryFrameCodec.decode(bytes);
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        WebSocketMessage message = frame.getMessage();
+        if (frame.getDescriptor() != null)
+            message = new WebSocketMessage(message.getMsgType(), gson.toJson(frame.getDescriptor()));
+        onMessage(gson.toJson(message));
+    }
+
     /**
      * Method called when the connetion closed
      */
@@ -84,6 +120,29 @@ public class WSClient extends WebSocketClient {
         this.close();
     }
 
+    /**
+     * Sends a message to the other devices of the user, or to its target device,
+     * in the framing mode negotiated with the server
+     * @param message the message
+     */
+    public void send(WebSocketMessage message) {
+        if (BinaryFrameCodec.MODE_TEXT.equals(framing))
+            send(gson.toJson(message));
+        else
+            send(BinaryFrameCodec.encode(message, null, BinaryFrameCodec.MODE_BINARY_DEFLATE.equals(framing)));
+    }
+
+    /**
+     * Tells the server that a remote execution descriptor has been received, so it's
+     * no longer sent again when the device reconnects
+     * @param red the descriptor, without a continuation id nothing is sent
+     */
+    public void acknowledgeContinuation(RemoteExecutionDescriptor red) {
+        if (red.getContinuationId() == null || !isOpen())
+            return;
+        send(new WebSocketMessage(SinapsiMessageTypes.CONTINUATION_ACK, red.getContinuationId()));
+    }
+
     /**
      * Return the username of the client
      * @return
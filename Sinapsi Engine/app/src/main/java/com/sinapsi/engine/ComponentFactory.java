@@ -46,6 +46,14 @@ public class ComponentFactory {
         if (this.device == null)throw new RuntimeException("device is null");
     }
 
+    /**
+     * Device getter
+     * @return the device on which the local components are executed
+     */
+    public DeviceInterface getDevice() {
+        return device;
+    }
+
     /**
      * Creates a new Trigger instance
      * @param triggerName the name of this trigger
@@ -8,12 +8,16 @@ import com.sinapsi.model.MacroComponent;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.impl.ActionDescriptor;
 import com.sinapsi.model.impl.FactoryModel;
+import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.model.impl.TriggerDescriptor;
+import com.sinapsi.utils.Pair;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Macro engine class. Used to initialize the whole macro execution system
@@ -27,7 +31,18 @@ public class MacroEngine {
     private ComponentFactory factory;
     private SinapsiLog log;
 
-    private HashMap<Integer,MacroInterface> macros = new HashMap<>();
+    // read by the executions without locks, changed only under the engine's lock
+    // so the triggers are registered and unregistered consistently
+    private final Map<Integer,MacroInterface> macros = new ConcurrentHashMap<>();
+
+    // ids of the last continuations executed, a stored continuation can be delivered again
+    private static final int CONTINUATION_HISTORY_SIZE = 256;
+    private final Map<String, Boolean> executedContinuations = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CONTINUATION_HISTORY_SIZE;
+        }
+    };
 
     /**
      * Creates a new MacroEngine instance with a custom component
@@ -67,7 +82,7 @@ public class MacroEngine {
      * and starts listening for system events.
      * @param m the macro
      */
-    public void addMacro(MacroInterface m){
+    public synchronized void addMacro(MacroInterface m){
         if(m.getTrigger().getExecutionDevice().getId() == device.getId())
             m.getTrigger().register(activator);
 
@@ -80,7 +95,7 @@ public class MacroEngine {
      * macros, registering every trigger on the ActivationManager.
      * @param lm the collection of macros
      */
-    public void addMacros(Collection<MacroInterface> lm){
+    public synchronized void addMacros(Collection<MacroInterface> lm){
         for(MacroInterface m: lm){
             addMacro(m);
         }
@@ -104,6 +119,15 @@ public class MacroEngine {
 
         if(m == null) throw new MissingMacroException();
 
+        if(red.getContinuationId() != null) {
+            synchronized (executedContinuations) {
+                if (executedContinuations.put(red.getContinuationId(), Boolean.TRUE) != null) {
+                    log.log("MACROENGINE", "Continuation " + red.getContinuationId() + " already executed");
+                    return;
+                }
+            }
+        }
+
         ei.continueExecutionFromRemote(m, red.getLocalVariables(), red.getStack());
         log.log("MACROENGINE", "Continuing execution of macro with name '" + m.getName() + "'");
         ei.execute();
@@ -121,8 +145,22 @@ public class MacroEngine {
         return activator.isEnabled();
     }
 
-    public HashMap<Integer, MacroInterface> getMacros() {
-        return macros;
+    /**
+     * Returns a snapshot of the defined macros, not changed by
+     * the next changes of the engine
+     * @return the list of macros
+     */
+    public List<MacroInterface> getMacros() {
+        return new ArrayList<>(macros.values());
+    }
+
+    /**
+     * Returns the macro with the specified id
+     * @param id the id of the macro
+     * @return the macro, or null if there's no macro with that id
+     */
+    public MacroInterface getMacro(int id) {
+        return getMacroById(id);
     }
 
     public void setMacroEnabled(int id, boolean enabled) throws MissingMacroException {
@@ -132,7 +170,7 @@ public class MacroEngine {
 
     }
 
-    public void removeMacro(int id) throws MissingMacroException {
+    public synchronized void removeMacro(int id) throws MissingMacroException {
         MacroInterface m = getMacroById(id);
         if(m == null) throw new MissingMacroException();
         if(m.getTrigger().getExecutionDevice().getId() == device.getId()){
@@ -141,7 +179,35 @@ public class MacroEngine {
         macros.remove(id);
     }
 
-    public void clearMacros() {
+    /**
+     * Applies a list of changes to the list of defined macros. Only the
+     * triggers of the affected macros are unregistered/registered on the
+     * ActivationManager, the other macros are left untouched.
+     * @param changes a list of pairs of operations and macros. For the
+     *                DELETE operation only the id of the macro is used
+     */
+    public synchronized void applyChanges(List<Pair<SyncOperation, MacroInterface>> changes){
+        for(Pair<SyncOperation, MacroInterface> change: changes){
+            MacroInterface m = change.getSecond();
+            MacroInterface old = macros.remove(m.getId());
+            if(old != null && old.getTrigger().getExecutionDevice().getId() == device.getId()){
+                old.getTrigger().unregister(activator);
+            }
+
+            switch (change.getFirst()){
+                case ADD:
+                case UPDATE:
+                    addMacro(m);
+                    break;
+                case DELETE:
+                    log.log("MACROENGINE", "Removed macro " + m.getId() + " from the engine");
+                    break;
+            }
+        }
+        log.log("MACROENGINE", "Applied " + changes.size() + " changes to the engine");
+    }
+
+    public synchronized void clearMacros() {
         for(MacroInterface m: macros.values()){
             if(m.getTrigger().getExecutionDevice().getId() == device.getId()){
                 m.getTrigger().unregister(activator);
@@ -2,7 +2,9 @@ package com.sinapsi.engine;
 
 import com.sinapsi.utils.Pair;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Simple class used to identify a scope and the variables in it.
@@ -79,6 +81,14 @@ public class VariableManager {
         return map.containsKey(name);
     }
 
+    /**
+     * Gets the names of all the variables in this scope.
+     * @return an unmodifiable set of names
+     */
+    public Set<String> getVariableNames(){
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
     public enum Types {
         STRING,
         INT,
@@ -14,6 +14,7 @@ public class RemoteExecutionDescriptor {
     private int idMacro;
     private VariableManager localVariables;
     private Deque<Integer> indexes;
+    private String continuationId;
 
     public RemoteExecutionDescriptor(int idMacro, VariableManager localVariables, Deque<Integer> PCstack){
         this.localVariables = localVariables;
@@ -33,4 +34,18 @@ public class RemoteExecutionDescriptor {
     public int getIdMacro(){
         return idMacro;
     }
+
+    /**
+     * Getter of the id assigned by the web service to a continuation
+     * stored for an offline device. The same continuation can be delivered
+     * more than once, the receiver must execute it only once.
+     * @return the continuation id, null if the continuation was not stored
+     */
+    public String getContinuationId(){
+        return continuationId;
+    }
+
+    public void setContinuationId(String continuationId){
+        this.continuationId = continuationId;
+    }
 }
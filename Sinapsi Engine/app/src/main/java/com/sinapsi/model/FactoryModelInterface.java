@@ -1,6 +1,8 @@
 package com.sinapsi.model;
 
+import com.sinapsi.engine.ComponentFactory;
 import com.sinapsi.model.impl.ActionDescriptor;
+import com.sinapsi.model.impl.LazyMacro;
 import com.sinapsi.model.impl.TriggerDescriptor;
 
 import java.util.List;
@@ -43,6 +45,17 @@ public interface FactoryModelInterface {
      * @return a new MacroInterface instance
      */
     public MacroInterface newMacro(String name, int id);
+
+    /**
+     * Should create a new instance of MacroInterface whose components are
+     * instantiated only when they are needed
+     *
+     * @param name the name chosen for the macro
+     * @param id the id of the macro in the db
+     * @param componentFactory the factory of the components
+     * @return a new LazyMacro instance
+     */
+    public LazyMacro newLazyMacro(String name, int id, ComponentFactory componentFactory);
     
     /**
      * Should create a new action abstract representation
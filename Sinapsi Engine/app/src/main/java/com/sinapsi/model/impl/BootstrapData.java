@@ -0,0 +1,53 @@
+package com.sinapsi.model.impl;
+
+/**
+ * Everything a client needs after the login, returned by the web service
+ * in a single response: the record of the registered device, the component
+ * availability of all the user's devices and the macro changes since the
+ * revision known by the client.
+ */
+public class BootstrapData extends CommunicationInfo {
+
+    private Device device;
+    private AvailabilityMap availableComponents;
+    private MacroChangeSet macroChanges;
+
+    public BootstrapData() {
+    }
+
+    public BootstrapData(Device device, AvailabilityMap availableComponents, MacroChangeSet macroChanges) {
+        this.device = device;
+        this.availableComponents = availableComponents;
+        this.macroChanges = macroChanges;
+    }
+
+    /**
+     * Getter of the device record of the caller device, registered
+     * by the web service if it was new
+     *
+     * @return the device
+     */
+    public Device getDevice() {
+        return device;
+    }
+
+    /**
+     * Getter of the available triggers and actions of all the user's devices,
+     * including the ones just sent by the caller device
+     *
+     * @return the availability map
+     */
+    public AvailabilityMap getAvailableComponents() {
+        return availableComponents;
+    }
+
+    /**
+     * Getter of the macro changes done on the server after the revision
+     * sent by the client, a full snapshot if the revision was -1
+     *
+     * @return the change set
+     */
+    public MacroChangeSet getMacroChanges() {
+        return macroChanges;
+    }
+}
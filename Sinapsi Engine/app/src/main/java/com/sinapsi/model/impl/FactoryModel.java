@@ -3,6 +3,7 @@
  */
 package com.sinapsi.model.impl;
 
+import com.sinapsi.engine.ComponentFactory;
 import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.FactoryModelInterface;
 import com.sinapsi.model.MacroComponent;
@@ -41,6 +42,14 @@ public class FactoryModel implements FactoryModelInterface {
 		return new Macro(id, name);
 	}
 
+	/* (non-Javadoc)
+	 * @see com.sinapsi.model.FactoryModelInterface#newLazyMacro(java.lang.String, int, com.sinapsi.engine.ComponentFactory)
+	 */
+	@Override
+	public LazyMacro newLazyMacro(String name, int id, ComponentFactory componentFactory) {
+		return new LazyMacro(id, name, componentFactory);
+	}
+
 	/* (non-Javadoc)
 	 * @see com.sinapsi.model.FactoryModelInterface#newActionAbstraction(int, int, java.lang.String)
 	 */
@@ -0,0 +1,220 @@
+package com.sinapsi.model.impl;
+
+import com.sinapsi.engine.Action;
+import com.sinapsi.engine.ComponentFactory;
+import com.sinapsi.engine.Trigger;
+import com.sinapsi.engine.execution.ExecutionInterface;
+import com.sinapsi.model.MacroInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Macro whose trigger and actions are kept as names, device ids and parameters
+ * JSON strings, and are instantiated by the component factory only when they are
+ * asked for the first time, like when the macro is added to an engine or executed.
+ * The metadata and the component data can be read without instantiating anything.
+ *
+ */
+public class LazyMacro extends Macro {
+
+    /**
+     * Data needed to instantiate a trigger or an action
+     */
+    public static class ComponentData {
+        private final String name;
+        private final int deviceId;
+        private final String parameters;
+
+        public ComponentData(String name, int deviceId, String parameters) {
+            this.name = name;
+            this.deviceId = deviceId;
+            this.parameters = parameters;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getDeviceId() {
+            return deviceId;
+        }
+
+        /**
+         * Actual parameters JSON string getter
+         * @return the parameters
+         */
+        public String getParameters() {
+            return parameters;
+        }
+    }
+
+    private final ComponentFactory componentFactory;
+    private ComponentData triggerData;
+    private List<ComponentData> actionData = new ArrayList<>();
+    private volatile boolean hydrated = false;
+    private boolean enabled = true;
+
+    /**
+     * LazyMacro ctor.
+     * @param id the macro's id
+     * @param name the macro's name
+     * @param componentFactory the factory used to instantiate the components
+     */
+    LazyMacro(int id, String name, ComponentFactory componentFactory) {
+        super(id, name);
+        this.componentFactory = componentFactory;
+        this.triggerData = new ComponentData(ComponentFactory.TRIGGER_EMPTY, componentFactory.getDevice().getId(), "");
+    }
+
+    /**
+     * Sets the data of the trigger, replaced by an empty trigger when the
+     * name is null
+     * @param name the trigger name, can be null
+     * @param deviceId the id of the execution device
+     * @param parameters the actual parameters JSON string
+     */
+    public synchronized void setTriggerData(String name, int deviceId, String parameters) {
+        if (hydrated)
+            throw new IllegalStateException("The components of the macro are already instantiated");
+        if (name == null)
+            triggerData = new ComponentData(ComponentFactory.TRIGGER_EMPTY, componentFactory.getDevice().getId(), "");
+        else
+            triggerData = new ComponentData(name, deviceId, parameters);
+    }
+
+    /**
+     * Appends the data of an action to the macro's action list
+     * @param name the action name
+     * @param deviceId the id of the execution device
+     * @param parameters the actual parameters JSON string
+     */
+    public synchronized void addActionData(String name, int deviceId, String parameters) {
+        if (hydrated)
+            throw new IllegalStateException("The components of the macro are already instantiated");
+        actionData.add(new ComponentData(name, deviceId, parameters));
+    }
+
+    /**
+     * Tells if the trigger and the actions have been instantiated
+     * @return true if the components exist
+     */
+    public boolean isHydrated() {
+        return hydrated;
+    }
+
+    /**
+     * Instantiates the trigger and the actions, if not done yet.
+     * If a component can't be instantiated the macro is left untouched,
+     * so a later call starts again from the component data
+     */
+    public synchronized void hydrate() {
+        if (hydrated)
+            return;
+
+        Trigger trigger;
+        if (ComponentFactory.TRIGGER_EMPTY.equals(triggerData.getName()))
+            trigger = componentFactory.newEmptyTrigger(this);
+        else
+            trigger = componentFactory.newTrigger(triggerData.getName(),
+                                                  triggerData.getParameters(),
+                                                  this,
+                                                  triggerData.getDeviceId());
+        List<Action> actions = new ArrayList<>(actionData.size());
+        for (ComponentData action : actionData)
+            actions.add(componentFactory.newAction(action.getName(), action.getParameters(), action.getDeviceId()));
+
+        // every component exists, the macro can be built
+        super.setTrigger(trigger);
+        for (Action action : actions)
+            super.addAction(action);
+        trigger.setEnabled(enabled);
+
+        hydrated = true;
+        triggerData = null;
+        actionData = null;
+    }
+
+    @Override
+    public Trigger getTrigger() {
+        hydrate();
+        return super.getTrigger();
+    }
+
+    @Override
+    public void setTrigger(Trigger t) {
+        hydrate();
+        super.setTrigger(t);
+    }
+
+    @Override
+    public List<Action> getActions() {
+        hydrate();
+        return super.getActions();
+    }
+
+    @Override
+    public void addAction(Action a) {
+        hydrate();
+        super.addAction(a);
+    }
+
+    @Override
+    public void execute(ExecutionInterface sf) {
+        hydrate();
+        super.execute(sf);
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (hydrated)
+            super.setEnabled(enabled);
+    }
+
+    @Override
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the data of the trigger of a macro, without instantiating
+     * the components of a lazy macro
+     * @param m the macro
+     * @return the trigger data, null if the macro has no trigger
+     */
+    public static ComponentData getTriggerData(MacroInterface m) {
+        if (m instanceof LazyMacro) {
+            LazyMacro lazy = (LazyMacro) m;
+            synchronized (lazy) {
+                if (!lazy.hydrated)
+                    return lazy.triggerData;
+            }
+        }
+        Trigger t = m.getTrigger();
+        if (t == null)
+            return null;
+        return new ComponentData(t.getName(), t.getExecutionDevice().getId(), t.getActualParameters());
+    }
+
+    /**
+     * Returns the data of the actions of a macro, without instantiating
+     * the components of a lazy macro
+     * @param m the macro
+     * @return the action data, in the order of execution
+     */
+    public static List<ComponentData> getActionData(MacroInterface m) {
+        if (m instanceof LazyMacro) {
+            LazyMacro lazy = (LazyMacro) m;
+            synchronized (lazy) {
+                if (!lazy.hydrated)
+                    return Collections.unmodifiableList(new ArrayList<>(lazy.actionData));
+            }
+        }
+        List<ComponentData> result = new ArrayList<>(m.getActions().size());
+        for (Action a : m.getActions())
+            result.add(new ComponentData(a.getName(), a.getExecutionDevice().getId(), a.getActualParameters()));
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+package com.sinapsi.model.impl;
+
+import com.sinapsi.model.MacroInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of the macro changes done on the server after a specific
+ * revision of the user's macro collection. When fullSnapshot
+ * is true, updatedMacros contains the whole collection and
+ * the client should discard everything it received before.
+ * A change set pushed by the web service in a model update
+ * notification also carries the revision it starts from.
+ */
+public class MacroChangeSet extends CommunicationInfo {
+
+    private long revision;
+    private long baseRevision = -1;
+    private boolean fullSnapshot;
+    private List<MacroInterface> updatedMacros = new ArrayList<>();
+    private List<Integer> deletedMacroIds = new ArrayList<>();
+
+    public MacroChangeSet() {
+    }
+
+    public MacroChangeSet(long revision, boolean fullSnapshot) {
+        this.revision = revision;
+        this.fullSnapshot = fullSnapshot;
+    }
+
+    /**
+     * Getter of the revision of the user's macro collection
+     * this change set brings the client to
+     *
+     * @return the revision
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Getter of the revision this change set starts from. A client
+     * can apply the change set in place only if its last synced
+     * revision is the base revision
+     *
+     * @return the base revision, -1 if unknown
+     */
+    public long getBaseRevision() {
+        return baseRevision;
+    }
+
+    public void setBaseRevision(long baseRevision) {
+        this.baseRevision = baseRevision;
+    }
+
+    /**
+     * Tells if this change set contains the whole macro collection
+     *
+     * @return true if this is a full snapshot
+     */
+    public boolean isFullSnapshot() {
+        return fullSnapshot;
+    }
+
+    /**
+     * Getter of the macros added or updated after the requested revision
+     *
+     * @return a list of macros
+     */
+    public List<MacroInterface> getUpdatedMacros() {
+        return updatedMacros;
+    }
+
+    /**
+     * Getter of the ids of the macros deleted after the requested revision
+     *
+     * @return a list of macro ids
+     */
+    public List<Integer> getDeletedMacroIds() {
+        return deletedMacroIds;
+    }
+
+    /**
+     * Tells if there are no changes in this change set
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return updatedMacros.isEmpty() && deletedMacroIds.isEmpty();
+    }
+}
@@ -0,0 +1,326 @@
+package com.sinapsi.webshared;
+
+import com.sinapsi.engine.ComponentFactory;
+import com.sinapsi.model.MacroInterface;
+import com.sinapsi.model.impl.FactoryModel;
+import com.sinapsi.model.impl.LazyMacro;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a list of macros, used instead of json when the
+ * client asks for it with the Accept header of a macro pull.
+ * A body is made of a header, with the json of the object carrying the list
+ * (without the list itself), followed by the macros one at a time and by an
+ * end tag. Every macro is a length-prefixed record with varint-encoded numbers,
+ * so a reader skips the trailing fields added by newer versions, and the
+ * components are kept as raw data in lazy macros.
+ */
+public class BinaryMacroCodec {
+
+    /**
+     * Content type of the binary bodies, to be asked for with the Accept header
+     */
+    public static final String CONTENT_TYPE = "application/x-sinapsi-macros";
+
+    private static final int MAGIC = 0x534D;
+    private static final int VERSION = 1;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_MACRO = 1;
+
+    // records bigger than this are considered malformed
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private static final int FLAG_ERROR = 0x01;
+    private static final int FLAG_VALID = 0x02;
+    private static final int FLAG_ENABLED = 0x04;
+    private static final int FLAG_TRIGGER = 0x08;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BinaryMacroCodec() {
+    }
+
+    /**
+     * Tells if a client accepts the binary encoding
+     *
+     * @param accept the Accept header of the request, can be null
+     * @return true if the binary encoding can be used
+     */
+    public static boolean isAccepted(String accept) {
+        if (accept == null)
+            return false;
+        for (String type : accept.split(",")) {
+            int params = type.indexOf(';');
+            if (params >= 0)
+                type = type.substring(0, params);
+            if (type.trim().equalsIgnoreCase(CONTENT_TYPE))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells if a body has the binary encoding
+     *
+     * @param contentType the content type of the body, can be null
+     * @return true if the body must be read with a Reader
+     */
+    public static boolean isBinary(String contentType) {
+        return contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE);
+    }
+
+    /**
+     * Writes the macros to a stream one at a time
+     */
+    public static class Writer implements MacroConsumer {
+        private final OutputStream out;
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+        private boolean finished = false;
+
+        /**
+         * Writes the header of the body
+         *
+         * @param out      the stream
+         * @param envelope json of the object carrying the list, without the list
+         * @throws IOException
+         */
+        public Writer(OutputStream out, String envelope) throws IOException {
+            this.out = out;
+            ByteArrayOutputStream header = new ByteArrayOutputStream(envelope.length() + 8);
+            writeVarint(header, MAGIC);
+            writeVarint(header, VERSION);
+            writeString(header, envelope);
+            header.writeTo(out);
+        }
+
+        /**
+         * Writes a macro, without instantiating the components of a lazy macro
+         *
+         * @param m the macro
+         * @throws IOException
+         */
+        public void write(MacroInterface m) throws IOException {
+            if (finished)
+                throw new IllegalStateException("The body is already finished");
+
+            LazyMacro.ComponentData trigger = LazyMacro.getTriggerData(m);
+            int flags = 0;
+            if (m.isErrorOccured()) flags |= FLAG_ERROR;
+            if (m.isValid()) flags |= FLAG_VALID;
+            if (m.isEnabled()) flags |= FLAG_ENABLED;
+            if (trigger != null) flags |= FLAG_TRIGGER;
+
+            record.reset();
+            writeSignedVarint(record, m.getId());
+            record.write(flags);
+            writeString(record, m.getName());
+            writeString(record, m.getIconName());
+            writeString(record, m.getMacroColor());
+            writeString(record, m.getExecutionFailurePolicy());
+            writeString(record, m.getErrorDescription());
+            writeString(record, m.getAdditionalInfo());
+            if (trigger != null)
+                writeComponent(record, trigger);
+
+            List<LazyMacro.ComponentData> actions = LazyMacro.getActionData(m);
+            writeVarint(record, actions.size());
+            for (LazyMacro.ComponentData action : actions)
+                writeComponent(record, action);
+
+            out.write(TAG_MACRO);
+            writeVarint(out, record.size());
+            record.writeTo(out);
+        }
+
+        @Override
+        public void onMacro(MacroInterface macro) throws IOException {
+            write(macro);
+        }
+
+        /**
+         * Writes the end tag and flushes the stream
+         *
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            if (finished)
+                return;
+            finished = true;
+            out.write(TAG_END);
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the macros from a stream one at a time
+     */
+    public static class Reader {
+        private final DataInputStream in;
+        private final ComponentFactory componentFactory;
+        private final FactoryModel factoryModel = new FactoryModel();
+        private final String envelope;
+        private byte[] record = new byte[512];
+        private boolean finished = false;
+
+        /**
+         * Reads the header of the body
+         *
+         * @param in               the stream
+         * @param componentFactory the factory used to instantiate the components of the macros
+         * @throws IOException if the stream is not a binary body of a known version
+         */
+        public Reader(InputStream in, ComponentFactory componentFactory) throws IOException {
+            this.in = new DataInputStream(in);
+            this.componentFactory = componentFactory;
+            if (readVarint(this.in) != MAGIC)
+                throw new IOException("Not a binary macro body");
+            int version = readVarint(this.in);
+            if (version != VERSION)
+                throw new IOException("Unknown binary macro version: " + version);
+            this.envelope = readString(this.in);
+        }
+
+        /**
+         * Getter of the envelope
+         *
+         * @return json of the object carrying the list, without the list
+         */
+        public String getEnvelope() {
+            return envelope;
+        }
+
+        /**
+         * Reads the next macro
+         *
+         * @return a lazy macro, or null at the end of the list
+         * @throws IOException
+         */
+        public MacroInterface read() throws IOException {
+            if (finished)
+                return null;
+
+            int tag = in.readUnsignedByte();
+            if (tag == TAG_END) {
+                finished = true;
+                return null;
+            }
+            if (tag != TAG_MACRO)
+                throw new IOException("Unknown binary macro tag: " + tag);
+
+            int length = readVarint(in);
+            if (length < 0 || length > MAX_RECORD_LENGTH)
+                throw new IOException("Malformed binary macro record");
+            if (record.length < length)
+                record = new byte[Math.max(length, record.length * 2)];
+            in.readFully(record, 0, length);
+
+            // the fields beyond the known ones are ignored
+            DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record, 0, length));
+            int id = readSignedVarint(fields);
+            int flags = fields.readUnsignedByte();
+
+            LazyMacro m = factoryModel.newLazyMacro(readString(fields), id, componentFactory);
+            m.setIconName(readString(fields));
+            m.setMacroColor(readString(fields));
+            m.setExecutionFailurePolicy(readString(fields));
+            m.setErrorDescription(readString(fields));
+            m.setAdditionalInfo(readString(fields));
+            m.errorOccured((flags & FLAG_ERROR) != 0);
+            m.setValid((flags & FLAG_VALID) != 0);
+            m.setEnabled((flags & FLAG_ENABLED) != 0);
+
+            if ((flags & FLAG_TRIGGER) != 0) {
+                String name = readString(fields);
+                int deviceId = readSignedVarint(fields);
+                m.setTriggerData(name, deviceId, readString(fields));
+            }
+
+            int actions = readVarint(fields);
+            for (int i = 0; i < actions; ++i) {
+                String name = readString(fields);
+                int deviceId = readSignedVarint(fields);
+                m.addActionData(name, deviceId, readString(fields));
+            }
+            return m;
+        }
+
+        /**
+         * Reads all the remaining macros, passing each one to the consumer
+         *
+         * @param consumer the consumer
+         * @throws IOException
+         */
+        public void readAll(MacroConsumer consumer) throws IOException {
+            MacroInterface m;
+            while ((m = read()) != null)
+                consumer.onMacro(m);
+        }
+    }
+
+    private static void writeComponent(OutputStream out, LazyMacro.ComponentData component) throws IOException {
+        writeString(out, component.getName());
+        writeSignedVarint(out, component.getDeviceId());
+        writeString(out, component.getParameters());
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeSignedVarint(OutputStream out, int value) throws IOException {
+        // zigzag encoding, so small negative numbers stay small
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readSignedVarint(DataInputStream in) throws IOException {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        // the length is shifted by one, zero means null
+        if (s == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int encoded = readVarint(in);
+        if (encoded == 0)
+            return null;
+        int length = encoded - 1;
+        if (length < 0 || length > MAX_RECORD_LENGTH)
+            throw new IOException("Malformed binary macro string");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,157 @@
+package com.sinapsi.webshared;
+
+import com.bgp.generator.KeyGenerator;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of pre-generated RSA key pairs. Key pair generation is the most
+ * expensive step of the login handshake, so the pairs are generated by
+ * background threads and the handshake just takes a ready one.
+ * When the number of ready pairs drops to the low-water mark, the pool
+ * is refilled up to its capacity. When the pool is exhausted, take()
+ * generates a pair on the calling thread.
+ */
+public class KeyPairPool {
+
+    private final int keySize;
+    private final int lowWaterMark;
+    private final int refillThreads;
+    private final BlockingQueue<KeyPair> pairs;
+    private final ExecutorService refiller;
+    private final AtomicInteger activeRefills = new AtomicInteger(0);
+
+    private final AtomicLong taken = new AtomicLong(0);
+    private final AtomicLong exhausted = new AtomicLong(0);
+    private final AtomicLong generated = new AtomicLong(0);
+
+    /**
+     * Creates a new pool and starts filling it in background.
+     *
+     * @param keySize       the size in bits of the keys
+     * @param capacity      the max number of ready pairs
+     * @param lowWaterMark  the number of ready pairs that triggers a refill
+     * @param refillThreads the number of background threads generating pairs
+     */
+    public KeyPairPool(int keySize, int capacity, int lowWaterMark, int refillThreads) {
+        this.keySize = keySize;
+        this.lowWaterMark = lowWaterMark;
+        this.refillThreads = refillThreads;
+        this.pairs = new ArrayBlockingQueue<>(capacity);
+        this.refiller = Executors.newFixedThreadPool(refillThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "keypair-pool-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        for (int i = 0; i < refillThreads; ++i) refill();
+    }
+
+    /**
+     * Takes a ready key pair from the pool. If the pool is exhausted,
+     * the pair is generated on the calling thread.
+     *
+     * @return a new key pair, never given to anyone else
+     */
+    public KeyPair take() {
+        taken.incrementAndGet();
+        KeyPair pair = pairs.poll();
+        if (pairs.size() <= lowWaterMark) refill();
+
+        if (pair == null) {
+            exhausted.incrementAndGet();
+            pair = generate();
+        }
+        return pair;
+    }
+
+    /**
+     * Stops the background refill threads.
+     */
+    public void shutdown() {
+        refiller.shutdownNow();
+    }
+
+    /**
+     * Getter of the number of ready pairs
+     *
+     * @return the number of pairs in the pool
+     */
+    public int getAvailable() {
+        return pairs.size();
+    }
+
+    /**
+     * Getter of the number of pairs taken from the pool
+     *
+     * @return the number of calls to take()
+     */
+    public long getTakenCount() {
+        return taken.get();
+    }
+
+    /**
+     * Getter of the number of times the pool was found empty,
+     * and a pair was generated on the calling thread
+     *
+     * @return the number of pool exhaustions
+     */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    /**
+     * Getter of the number of pairs generated, both in background
+     * and on the calling threads
+     *
+     * @return the number of generated pairs
+     */
+    public long getGeneratedCount() {
+        return generated.get();
+    }
+
+    private KeyPair generate() {
+        KeyPair pair = new KeyGenerator(keySize, "RSA").getKeyPair();
+        generated.incrementAndGet();
+        return pair;
+    }
+
+    private void refill() {
+        // at most one refill task per thread
+        while (true) {
+            int active = activeRefills.get();
+            if (active >= refillThreads) return;
+            if (activeRefills.compareAndSet(active, active + 1)) break;
+        }
+
+        try {
+            refiller.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (pairs.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+                            if (!pairs.offer(generate())) break;
+                        }
+                    } finally {
+                        activeRefills.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // the pool has been shut down
+            activeRefills.decrementAndGet();
+        }
+    }
+}
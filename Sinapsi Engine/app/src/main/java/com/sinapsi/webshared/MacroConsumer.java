@@ -0,0 +1,13 @@
+package com.sinapsi.webshared;
+
+import com.sinapsi.model.MacroInterface;
+
+import java.io.IOException;
+
+/**
+ * Receives the macros of a stream one at a time, as soon as each one is read,
+ * so the whole list of macros never has to be kept in memory.
+ */
+public interface MacroConsumer {
+    public void onMacro(MacroInterface macro) throws IOException;
+}
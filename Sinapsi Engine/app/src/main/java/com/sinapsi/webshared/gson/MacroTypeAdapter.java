@@ -5,15 +5,21 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import com.sinapsi.webshared.ComponentFactoryProvider;
-import com.sinapsi.engine.Action;
-import com.sinapsi.engine.Trigger;
+import com.sinapsi.webshared.MacroConsumer;
+import com.sinapsi.engine.ComponentFactory;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.impl.FactoryModel;
+import com.sinapsi.model.impl.LazyMacro;
 
 import java.io.IOException;
 
 /**
  * Default Gson's type adapter used to serialize Macro objects.
+ * The macros are read as lazy macros: the trigger and the actions are
+ * instantiated only when the macro is added to an engine or executed,
+ * and a lazy macro is written back without instantiating them.
+ * The fields are read by name, so their order doesn't matter and the
+ * unknown ones are skipped.
  */
 public class MacroTypeAdapter extends TypeAdapter<MacroInterface> {
 
@@ -71,10 +77,11 @@ public class MacroTypeAdapter extends TypeAdapter<MacroInterface> {
         out.name(MACRO_ENABLED).value(m.isEnabled());
 
         //Trigger
-        if(m.getTrigger()!=null) {
-            out.name(TRIGGER_DEVICE_ID).value(m.getTrigger().getExecutionDevice().getId());
-            out.name(TRIGGER_NAME).value(m.getTrigger().getName());
-            out.name(TRIGGER_JSON).value(m.getTrigger().getActualParameters());
+        LazyMacro.ComponentData trigger = LazyMacro.getTriggerData(m);
+        if(trigger!=null) {
+            out.name(TRIGGER_DEVICE_ID).value(trigger.getDeviceId());
+            out.name(TRIGGER_NAME).value(trigger.getName());
+            out.name(TRIGGER_JSON).value(trigger.getParameters());
         }else{
             out.name(TRIGGER_DEVICE_ID).value(-1);
             out.name(TRIGGER_NAME).nullValue();
@@ -83,12 +90,11 @@ public class MacroTypeAdapter extends TypeAdapter<MacroInterface> {
 
         //Actions
         out.name(MACRO_ACTIONS).beginArray();
-        for(int i = 0; i < m.getActions().size(); ++i){
-            Action a = m.getActions().get(i);
+        for(LazyMacro.ComponentData a : LazyMacro.getActionData(m)){
             out.beginObject();
             out.name(ACTION_NAME).value(a.getName());
-            out.name(ACTION_DEVICE_ID).value(a.getExecutionDevice().getId());
-            out.name(ACTION_JSON).value(a.getActualParameters());
+            out.name(ACTION_DEVICE_ID).value(a.getDeviceId());
+            out.name(ACTION_JSON).value(a.getParameters());
             out.endObject();
         }
         out.endArray();
@@ -100,114 +106,139 @@ public class MacroTypeAdapter extends TypeAdapter<MacroInterface> {
     @Override
     public MacroInterface read(JsonReader in) throws IOException {
         if(in.peek() == JsonToken.NULL){
+            in.nextNull();
             return null;
         }
 
-        MacroInterface result = factoryModel.newMacro("",-1);
-
-        in.beginObject();
-
-        //Communication info
-        in.nextName();//COMMINFO_ERROR
-        boolean commError = in.nextBoolean();
-        in.nextName();//COMMINFO_ERROR_DESC
-        String commErrorDesc = in.nextString();
-        in.nextName();//COMMINFO_ADDITIONAL
-        String commAdditional = in.nextString();
-
-        result.errorOccured(commError);
-        result.setErrorDescription(commErrorDesc);
-        result.setAdditionalInfo(commAdditional);
-
-        //Macro's metadata
-        in.nextName();//MACRO_NAME
-        String macroName = in.nextString();
-        in.nextName();//MACRO_ID
-        int id = in.nextInt();
-        in.nextName();//MACRO_ICON_NAME
-        String iconName = in.nextString();
-        in.nextName();//MACRO_ICON_COLOR
-        String iconColor = in.nextString();
-        in.nextName();//MACRO_VALID
-        boolean valid = in.nextBoolean();
-        in.nextName();//MACRO_FAILURE_POLICY
-        String failurePolicy = in.nextString();
-        in.nextName();//MACRO_ENABLED
-        boolean enabled = in.nextBoolean();
-
-
-        result.setName(macroName);
-        result.setId(id);
-        result.setIconName(iconName);
-        result.setMacroColor(iconColor);
-        result.setValid(valid);
-        result.setExecutionFailurePolicy(failurePolicy);
-
-
-        //Trigger
-        in.nextName();//TRIGGER_DEVICE_ID
-        int triggerDeviceId = in.nextInt();
-
-
+        // the factory is taken now, the components are instantiated later
+        ComponentFactory componentFactory = componentFactoryProvider.getComponentFactory();
+        LazyMacro result = factoryModel.newLazyMacro("", -1, componentFactory);
 
+        boolean enabled = true;
+        int triggerDeviceId = -1;
         String triggerName = null;
         String triggerJson = null;
-        if(in.nextName().equals(TRIGGER_NAME)) {//TRIGGER_NAME
-            if (in.peek() == JsonToken.NULL) {
-                in.nextNull();
-            } else {
-                triggerName = in.nextString();
-            }
-            in.nextName();//TRIGGER_JSON
 
-            if(in.peek() == JsonToken.NULL){
-                in.nextNull();
-            }else {
-                triggerJson = in.nextString();
+        //the fields are matched by name, in any order: the null ones may be missing
+        //and the unknown ones, written by newer versions, are skipped
+        in.beginObject();
+        while(in.hasNext()){
+            switch (in.nextName()){
+                //Communication info
+                case COMMINFO_ERROR:
+                    result.errorOccured(in.nextBoolean());
+                    break;
+                case COMMINFO_ERROR_DESC:
+                    result.setErrorDescription(nextStringOrNull(in));
+                    break;
+                case COMMINFO_ADDITIONAL:
+                    result.setAdditionalInfo(nextStringOrNull(in));
+                    break;
+
+                //Macro's metadata
+                case MACRO_NAME:
+                    result.setName(nextStringOrNull(in));
+                    break;
+                case MACRO_ID:
+                    result.setId(in.nextInt());
+                    break;
+                case MACRO_ICON_NAME:
+                    result.setIconName(nextStringOrNull(in));
+                    break;
+                case MACRO_ICON_COLOR:
+                    result.setMacroColor(nextStringOrNull(in));
+                    break;
+                case MACRO_VALID:
+                    result.setValid(in.nextBoolean());
+                    break;
+                case MACRO_FAILURE_POLICY:
+                    result.setExecutionFailurePolicy(nextStringOrNull(in));
+                    break;
+                case MACRO_ENABLED:
+                    enabled = in.nextBoolean();
+                    break;
+
+                //Trigger
+                case TRIGGER_DEVICE_ID:
+                    triggerDeviceId = in.nextInt();
+                    break;
+                case TRIGGER_NAME:
+                    triggerName = nextStringOrNull(in);
+                    break;
+                case TRIGGER_JSON:
+                    triggerJson = nextStringOrNull(in);
+                    break;
+
+                //Actions
+                case MACRO_ACTIONS:
+                    readActions(in, result);
+                    break;
+
+                default:
+                    in.skipValue();
+                    break;
             }
-
-            in.nextName();//MACRO_ACTIONS -- this is anticipated here in order to avoid JsonSyntaxExceptions
         }
+        in.endObject();
 
+        // a null name means an empty trigger
+        result.setTriggerData(triggerName, triggerDeviceId, triggerJson);
+        result.setEnabled(enabled);
 
-        Trigger trigger = null;
-        if(triggerName == null){
-            trigger = componentFactoryProvider.getComponentFactory().newEmptyTrigger(result);
-        }else{
-            trigger = componentFactoryProvider.getComponentFactory().newTrigger(
-                    triggerName,
-                    triggerJson,
-                    result,
-                    triggerDeviceId);
-        }
+        return result;
+    }
 
-        result.setTrigger(trigger);
-        result.setEnabled(enabled);
+    /**
+     * Reads a json array of macros, passing every macro to the consumer
+     * as soon as it's read, instead of building the whole list
+     *
+     * @param in       the reader, positioned on the array
+     * @param consumer the consumer of the macros
+     * @throws IOException
+     */
+    public void readMacros(JsonReader in, MacroConsumer consumer) throws IOException {
+        in.beginArray();
+        while(in.hasNext()){
+            consumer.onMacro(read(in));
+        }
+        in.endArray();
+    }
 
-        //Actions
-        
+    private static void readActions(JsonReader in, LazyMacro result) throws IOException {
         in.beginArray();
         while(in.hasNext()){
+            String actionName = null;
+            int actionDeviceId = -1;
+            String actionJson = null;
+
             in.beginObject();
-            in.nextName();//ACTION_NAME
-            String actionName = in.nextString();
-            in.nextName();//ACTION_DEVICE_ID
-            int actionDeviceId = in.nextInt();
-            in.nextName();//ACTION_JSON
-            String actionJson = in.nextString();
+            while(in.hasNext()){
+                switch (in.nextName()){
+                    case ACTION_NAME:
+                        actionName = nextStringOrNull(in);
+                        break;
+                    case ACTION_DEVICE_ID:
+                        actionDeviceId = in.nextInt();
+                        break;
+                    case ACTION_JSON:
+                        actionJson = nextStringOrNull(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
             in.endObject();
-            Action action = componentFactoryProvider.getComponentFactory().newAction(
-                    actionName,
-                    actionJson,
-                    actionDeviceId);
-
-            result.addAction(action);
-
+            result.addActionData(actionName, actionDeviceId, actionJson);
         }
         in.endArray();
-        in.endObject();
-
+    }
 
-        return result;
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL){
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
     }
 }
@@ -0,0 +1,375 @@
+package com.sinapsi.webshared.wsproto;
+
+import com.sinapsi.engine.VariableManager;
+import com.sinapsi.engine.execution.RemoteExecutionDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of the web socket messages, used instead of the
+ * gson encoding when both the ends negotiated it during the handshake.
+ * A frame is made of a type byte, a flags byte, the optional target device,
+ * and a length-prefixed payload, optionally deflated. Remote execution
+ * descriptors are encoded field by field, with varint-encoded numbers,
+ * instead of being embedded as a json string.
+ */
+public class BinaryFrameCodec {
+
+    /**
+     * Query parameter of the web socket url used by the client to ask for a framing mode
+     */
+    public static final String FRAMES_PARAM = "frames";
+
+    /**
+     * Handshake header used by the server to confirm the framing mode
+     */
+    public static final String FRAMES_HEADER = "Sinapsi-Frames";
+
+    public static final String MODE_TEXT = "text";
+    public static final String MODE_BINARY = "binary";
+    public static final String MODE_BINARY_DEFLATE = "binary-deflate";
+
+    // payloads smaller than this are never deflated
+    public static final int DEFLATE_THRESHOLD = 128;
+
+    // deflated payloads bigger than this once inflated are rejected
+    public static final int MAX_INFLATED_LENGTH = 4 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_OTHER = 0;
+    private static final byte TYPE_REMOTE_EXECUTION_DESCRIPTOR = 1;
+    private static final byte TYPE_MODEL_UPDATED_NOTIFICATION = 2;
+    private static final byte TYPE_NEW_CONNECTION = 3;
+    private static final byte TYPE_CONNECTION_LOST = 4;
+
+    private static final int FLAG_DEFLATED = 0x01;
+    private static final int FLAG_TARGET = 0x02;
+    private static final int FLAG_DESCRIPTOR = 0x04;
+    private static final int FLAG_NULL_DATA = 0x08;
+
+    /**
+     * A decoded frame: the message and, for remote execution frames,
+     * the decoded descriptor
+     */
+    public static class Frame {
+        private final WebSocketMessage message;
+        private final RemoteExecutionDescriptor descriptor;
+
+        private Frame(WebSocketMessage message, RemoteExecutionDescriptor descriptor) {
+            this.message = message;
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * Getter of the message. The data of a remote execution frame
+         * carrying a descriptor is null, use getDescriptor()
+         *
+         * @return the message
+         */
+        public WebSocketMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * Getter of the remote execution descriptor
+         *
+         * @return the descriptor, null if the frame doesn't carry one
+         */
+        public RemoteExecutionDescriptor getDescriptor() {
+            return descriptor;
+        }
+    }
+
+    private BinaryFrameCodec() {
+    }
+
+    /**
+     * Chooses the framing mode from the one requested by a client
+     *
+     * @param requested the requested mode, can be null
+     * @return the mode to use
+     */
+    public static String negotiate(String requested) {
+        if (MODE_BINARY.equals(requested) || MODE_BINARY_DEFLATE.equals(requested))
+            return requested;
+        return MODE_TEXT;
+    }
+
+    /**
+     * Encodes a message
+     *
+     * @param message    the message
+     * @param descriptor the remote execution descriptor carried by the message,
+     *                   null to send the data string of the message
+     * @param deflate    true to deflate payloads bigger than the threshold
+     * @return the frame
+     */
+    public static byte[] encode(WebSocketMessage message, RemoteExecutionDescriptor descriptor, boolean deflate) {
+        int flags = 0;
+        byte[] payload;
+        if (descriptor != null) {
+            flags |= FLAG_DESCRIPTOR;
+            payload = encodeDescriptor(descriptor);
+        } else if (message.getData() == null) {
+            flags |= FLAG_NULL_DATA;
+            payload = new byte[0];
+        } else {
+            payload = message.getData().getBytes(UTF8);
+        }
+
+        if (deflate && payload.length >= DEFLATE_THRESHOLD) {
+            byte[] deflated = deflate(payload);
+            if (deflated.length < payload.length) {
+                flags |= FLAG_DEFLATED;
+                payload = deflated;
+            }
+        }
+        if (message.getTargetDevice() != null)
+            flags |= FLAG_TARGET;
+
+        byte type = typeCode(message.getMsgType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 16);
+        out.write(type);
+        out.write(flags);
+        if (type == TYPE_OTHER)
+            writeString(out, message.getMsgType());
+        if (message.getTargetDevice() != null)
+            writeSignedVarint(out, message.getTargetDevice());
+        writeVarint(out, payload.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a frame
+     *
+     * @param frame the frame
+     * @return the decoded frame
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    public static Frame decode(ByteBuffer frame) {
+        try {
+            byte type = frame.get();
+            int flags = frame.get();
+            String msgType = type == TYPE_OTHER ? readString(frame) : typeName(type);
+            Integer target = (flags & FLAG_TARGET) != 0 ? readSignedVarint(frame) : null;
+
+            byte[] payload = new byte[readLength(frame)];
+            frame.get(payload);
+            if ((flags & FLAG_DEFLATED) != 0)
+                payload = inflate(payload);
+
+            if ((flags & FLAG_DESCRIPTOR) != 0) {
+                RemoteExecutionDescriptor descriptor = decodeDescriptor(ByteBuffer.wrap(payload));
+                return new Frame(newMessage(msgType, null, target), descriptor);
+            }
+
+            String data = (flags & FLAG_NULL_DATA) != 0 ? null : new String(payload, UTF8);
+            return new Frame(newMessage(msgType, data, target), null);
+
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed binary frame", e);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed binary frame", e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed binary frame", e);
+        }
+    }
+
+    private static WebSocketMessage newMessage(String msgType, String data, Integer target) {
+        if (target != null)
+            return new WebSocketMessage(msgType, data, target);
+        return new WebSocketMessage(msgType, data);
+    }
+
+    private static byte[] encodeDescriptor(RemoteExecutionDescriptor descriptor) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeSignedVarint(out, descriptor.getIdMacro());
+
+        Deque<Integer> stack = descriptor.getStack();
+        writeVarint(out, stack.size());
+        for (Integer index : stack)
+            writeSignedVarint(out, index);
+
+        VariableManager variables = descriptor.getLocalVariables();
+        writeVarint(out, variables.getVariableNames().size());
+        for (String name : variables.getVariableNames()) {
+            VariableManager.Types varType = variables.getVarType(name);
+            writeString(out, name);
+            out.write(varType.ordinal());
+            switch (varType) {
+                case INT:
+                    writeSignedVarint(out, (Integer) variables.getVarValue(name));
+                    break;
+                case BOOLEAN:
+                    out.write(((Boolean) variables.getVarValue(name)) ? 1 : 0);
+                    break;
+                default:
+                    writeString(out, variables.getStringRepresentationOfValue(name));
+                    break;
+            }
+        }
+
+        // optional trailing field, older decoders ignore it
+        if (descriptor.getContinuationId() != null)
+            writeString(out, descriptor.getContinuationId());
+        return out.toByteArray();
+    }
+
+    private static RemoteExecutionDescriptor decodeDescriptor(ByteBuffer in) {
+        int idMacro = readSignedVarint(in);
+
+        int stackSize = readLength(in);
+        Deque<Integer> stack = new ArrayDeque<>(stackSize);
+        for (int i = 0; i < stackSize; ++i)
+            stack.add(readSignedVarint(in));
+
+        VariableManager variables = new VariableManager();
+        int count = readLength(in);
+        for (int i = 0; i < count; ++i) {
+            String name = readString(in);
+            VariableManager.Types varType = VariableManager.Types.values()[in.get()];
+            switch (varType) {
+                case INT:
+                    variables.putVar(name, varType, Integer.toString(readSignedVarint(in)));
+                    break;
+                case BOOLEAN:
+                    variables.putVar(name, varType, Boolean.toString(in.get() != 0));
+                    break;
+                default:
+                    variables.putVar(name, varType, readString(in));
+                    break;
+            }
+        }
+        RemoteExecutionDescriptor descriptor = new RemoteExecutionDescriptor(idMacro, variables, stack);
+        if (in.hasRemaining())
+            descriptor.setContinuationId(readString(in));
+        return descriptor;
+    }
+
+    private static byte typeCode(String msgType) {
+        if (SinapsiMessageTypes.REMOTE_EXECUTION_DESCRIPTOR.equals(msgType))
+            return TYPE_REMOTE_EXECUTION_DESCRIPTOR;
+        if (SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION.equals(msgType))
+            return TYPE_MODEL_UPDATED_NOTIFICATION;
+        if (SinapsiMessageTypes.NEW_CONNECTION.equals(msgType))
+            return TYPE_NEW_CONNECTION;
+        if (SinapsiMessageTypes.CONNECTION_LOST.equals(msgType))
+            return TYPE_CONNECTION_LOST;
+        return TYPE_OTHER;
+    }
+
+    private static String typeName(byte type) {
+        switch (type) {
+            case TYPE_REMOTE_EXECUTION_DESCRIPTOR:
+                return SinapsiMessageTypes.REMOTE_EXECUTION_DESCRIPTOR;
+            case TYPE_MODEL_UPDATED_NOTIFICATION:
+                return SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION;
+            case TYPE_NEW_CONNECTION:
+                return SinapsiMessageTypes.NEW_CONNECTION;
+            case TYPE_CONNECTION_LOST:
+                return SinapsiMessageTypes.CONNECTION_LOST;
+            default:
+                throw new IllegalArgumentException("Unknown message type: " + type);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeSignedVarint(ByteArrayOutputStream out, int value) {
+        // zigzag encoding, so small negative numbers stay small
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads a length or a count, which can't be more than the remaining bytes:
+     * it's checked before anything is allocated with it
+     */
+    private static int readLength(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length < 0 || length > in.remaining())
+            throw new IllegalArgumentException("Malformed length: " + length);
+        return length;
+    }
+
+    private static int readSignedVarint(ByteBuffer in) {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException, IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(data.length * 3, MAX_INFLATED_LENGTH));
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("Truncated deflated payload");
+                // a small frame must not expand without limits
+                if (out.size() + n > MAX_INFLATED_LENGTH)
+                    throw new IOException("Inflated payload bigger than " + MAX_INFLATED_LENGTH + " bytes");
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -8,4 +8,10 @@ public class SinapsiMessageTypes {
     public static final String MODEL_UPDATED_NOTIFICATION = "MODEL_UPDATED_NOTIFICATION";
     public static final String NEW_CONNECTION = "NEW_CONNECTION";
     public static final String CONNECTION_LOST = "CONNECTION_LOST";
+
+    /**
+     * Sent by a device to the server once it received a remote execution descriptor,
+     * the data is the continuation id of the descriptor
+     */
+    public static final String CONTINUATION_ACK = "CONTINUATION_ACK";
 }
@@ -3,17 +3,24 @@ package com.sinapsi.webshared.wsproto;
 /**
  * Class used to wrap data into a message containing other metadata (like the type of message),
  * in order to be serialized (with gson) and sent across a web socket connection.
+ * A message without a target device is delivered to all the other devices of the same user.
  */
 public class WebSocketMessage {
 
     private String msgType;
     private String data;
+    private Integer targetDevice;
 
     public WebSocketMessage(String msgType, String data) {
         this.msgType = msgType;
         this.data = data;
     }
 
+    public WebSocketMessage(String msgType, String data, int targetDevice) {
+        this(msgType, data);
+        this.targetDevice = targetDevice;
+    }
+
     public String getMsgType() {
         return msgType;
     }
@@ -21,4 +28,13 @@ public class WebSocketMessage {
     public String getData() {
         return data;
     }
+
+    /**
+     * Getter of the id of the device this message is addressed to
+     *
+     * @return the device id, null if the message is for all the devices of the user
+     */
+    public Integer getTargetDevice() {
+        return targetDevice;
+    }
 }
@@ -1,5 +1,9 @@
 <%@ page import="java.util.Vector"%>
 <%@ page import="com.sinapsi.utils.Pair"%>
+<%@ page import="java.util.List"%>
+<%@ page import="java.util.Map"%>
+<%@ page import="com.sinapsi.webservice.system.RequestMetrics"%>
+<%@ page import="com.sinapsi.webservice.web.dashboard.MetricsServlet"%>
 <%@ page language="java" contentType="text/html; charset=utf-8"
 	pageEncoding="utf-8"%>
 <!DOCTYPE html>
@@ -25,6 +29,10 @@
   @SuppressWarnings("unchecked")
   Vector<Pair<String, String>> load = (Vector<Pair<String, String>>) session.getAttribute("server_load");
   String role = (String) session.getAttribute("role");
+  @SuppressWarnings("unchecked")
+  List<RequestMetrics.Endpoint> endpoints = (List<RequestMetrics.Endpoint>) request.getAttribute("endpoint_metrics");
+  @SuppressWarnings("unchecked")
+  Map<String, Number> gauges = (Map<String, Number>) request.getAttribute("service_gauges");
 %>
 <%
   if(role == "admin") {
@@ -220,6 +228,95 @@
 						</div>
 					</div>
 				</div>
+				<%
+				  if (endpoints != null) {
+				%>
+				<div class="row">
+					<div class="col-md-12 col-sm-12 col-xs-12">
+						<div class="panel panel-default">
+							<div class="panel-heading">Endpoint Latency (ms)</div>
+							<div class="panel-body">
+								<div class="table-responsive">
+									<table class="table table-striped table-hover">
+										<thead>
+											<tr>
+												<th>Endpoint</th>
+												<th>Requests</th>
+												<%
+												  for (double percentile : MetricsServlet.PERCENTILES) {
+												%>
+												<th>p<%=Math.round(percentile * 100)%></th>
+												<%
+												  }
+												%>
+												<th>Max</th>
+												<th>4xx</th>
+												<th>5xx</th>
+												<th>KB in</th>
+												<th>KB out</th>
+											</tr>
+										</thead>
+										<tbody>
+											<%
+											  for (RequestMetrics.Endpoint endpoint : endpoints) {
+											%>
+											<tr>
+												<td><%=endpoint.getName()%></td>
+												<td><%=endpoint.getCount()%></td>
+												<%
+												  for (double percentile : MetricsServlet.PERCENTILES) {
+												%>
+												<td><%=String.format("%.1f", endpoint.getPercentile(percentile) / 1000.0)%></td>
+												<%
+												  }
+												%>
+												<td><%=String.format("%.1f", endpoint.getMaxMicros() / 1000.0)%></td>
+												<td><%=endpoint.getStatusCount(4)%></td>
+												<td><%=endpoint.getStatusCount(5)%></td>
+												<td><%=endpoint.getBytesIn() / 1024%></td>
+												<td><%=endpoint.getBytesOut() / 1024%></td>
+											</tr>
+											<%
+											  }
+											%>
+										</tbody>
+									</table>
+								</div>
+							</div>
+						</div>
+					</div>
+				</div>
+				<%
+				  } if (gauges != null) {
+				%>
+				<div class="row">
+					<div class="col-md-12 col-sm-12 col-xs-12">
+						<div class="panel panel-default">
+							<div class="panel-heading">Service Counters</div>
+							<div class="panel-body">
+								<div class="table-responsive">
+									<table class="table table-striped table-hover">
+										<tbody>
+											<%
+											  for (Map.Entry<String, Number> gauge : gauges.entrySet()) {
+											%>
+											<tr>
+												<td><%=gauge.getKey().replace("\"", "")%></td>
+												<td><%=gauge.getValue()%></td>
+											</tr>
+											<%
+											  }
+											%>
+										</tbody>
+									</table>
+								</div>
+							</div>
+						</div>
+					</div>
+				</div>
+				<%
+				  }
+				%>
 				<%
 				  }
 				%>
@@ -1,5 +1,5 @@
-<%@page import="java.io.BufferedReader"%>
-<%@page import="com.sinapsi.utils.Pair"%>
+<%@page import="com.sinapsi.webservice.web.dashboard.LogViewer"%>
+<%@page import="com.sinapsi.webservice.system.WebServiceConsts"%>
 <%@ page language="java" contentType="text/html; charset=utf-8"
 	pageEncoding="utf-8"%>
 <!DOCTYPE html>
@@ -44,9 +44,22 @@
 	   if(email == null) 
 	     response.sendRedirect("login.html");
 	 
-	   @SuppressWarnings("unchecked")
-	   Pair<BufferedReader, String> log = (Pair<BufferedReader, String>) session.getAttribute("log_buffer");
-	   session.removeAttribute("log_buffer");
+	   LogViewer.Page log = (LogViewer.Page) request.getAttribute("log_page");
+	   String logType = (String) request.getAttribute("log_type");
+	   String logDate = (String) request.getAttribute("log_date");
+	   String logGrep = (String) request.getAttribute("log_grep");
+	   if(logDate == null)
+	     logDate = "";
+	   if(logGrep == null)
+	     logGrep = "";
+	   String pageUrl = "web_log?type=" + java.net.URLEncoder.encode(String.valueOf(logType), "UTF-8") 
+	                    + "&filter_text=" + java.net.URLEncoder.encode(logDate, "UTF-8")
+	                    + "&grep=" + java.net.URLEncoder.encode(logGrep, "UTF-8");
+	%>
+	<%!
+	  private static String escape(String text) {
+	    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	  }
 	%>
 	<div id="wrapper">
 		<nav class="navbar navbar-default top-navbar" role="navigation">
@@ -150,7 +163,7 @@
 			<div class="row">
 				<div class="col-md-6">
 					<h1 class="page-header">
-						<%=log.getSecond()%>
+						<%=escape(String.valueOf(logType))%>
 						<small>Log</small>
 					</h1>
 				</div>
@@ -159,8 +172,9 @@
 					<div class="col-lg-6">
 						<div class=input-group input-group-lg>
 							<input name="filter_text" id="filter" type="text"
-								class="form-control"> <input name="type"
-								value=<%=log.getSecond()%> hidden="true"> <span
+								class="form-control" value="<%=escape(logDate)%>"> <input name="grep" type="text"
+								class="form-control" placeholder="Text" value="<%=escape(logGrep)%>"> <input name="type"
+								value="<%=escape(String.valueOf(logType))%>" hidden="true"> <span
 								class="input-group-btn">
 								<button class="btn btn-default" type="submit">Filter</button>
 							</span>
@@ -181,11 +195,10 @@
 						style="height: 100%; overflow: scroll; border: 1px solid rgba(67, 67, 67, 0.36); padding-left: 4px;">
 
 						<%
-						  if(log.getFirst() != null) {
-						    String line;
-						      while((line = log.getFirst().readLine()) != null) {
+						  if(log != null) {
+						    for(String line : log.getLines()) {
 						%>
-						"<%=line%>"<br>
+						"<%=escape(line)%>"<br>
 						<%
 						  }
 						  }
@@ -193,6 +206,58 @@
 					</div>
 				</div>
 			</div>
+			<%
+			  if(log != null) {
+			    long previous = Math.max(0, log.getFirstLine() - WebServiceConsts.LOG_VIEWER_PAGE_LINES);
+			%>
+			<div class="row">
+				<div class="col-md-12">
+					<ul class="pager">
+						<li><a href="<%=pageUrl%>&line=0">First</a></li>
+						<%
+						  if(log.getFirstLine() > 0) {
+						%>
+						<li><a href="<%=pageUrl%>&line=<%=previous%>">Previous</a></li>
+						<%
+						  } if(log.getNextLine() < log.getTotalLines()) {
+						%>
+						<li><a href="<%=pageUrl%>&line=<%=log.getNextLine()%>">Next</a></li>
+						<%
+						  }
+						%>
+						<li><a href="<%=pageUrl%>">Last</a></li>
+					</ul>
+					Lines <%=log.getFirstLine() + 1%> - <%=log.getNextLine()%> of <%=log.getTotalLines()%>
+				</div>
+			</div>
+			<%
+			    // the live tail follows the file only from the last page
+			    if(log.getNextLine() >= log.getTotalLines()) {
+			%>
+			<script type="application/javascript">
+			  (function() {
+			    var offset = <%=log.getEndOffset()%>;
+			    var poll = function() {
+			      $.getJSON("<%=pageUrl%>", { tail : offset }, function(data) {
+			        offset = data.offset;
+			        var log = $('#tomcat_log');
+			        $.each(data.lines, function(i, line) {
+			          log.append(document.createTextNode('"' + line + '"'));
+			          log.append('<br>');
+			        });
+			        if (data.lines.length > 0)
+			          log.scrollTop(log.prop('scrollHeight'));
+			      }).always(function() {
+			        setTimeout(poll, <%=WebServiceConsts.LOG_VIEWER_TAIL_POLL_MILLIS%>);
+			      });
+			    };
+			    setTimeout(poll, <%=WebServiceConsts.LOG_VIEWER_TAIL_POLL_MILLIS%>);
+			  })();
+			</script>
+			<%
+			    }
+			  }
+			%>
 		</div>
 		<script type="application/javascript">
       $(document).ready(function() {
@@ -237,4 +302,4 @@
 	<script src="assets/js/jquery.metisMenu.js"></script>
 	<script src="assets/js/custom-scripts.js"></script>
 </body>
-</html>
\ No newline at end of file
+</html>
\ No newline at end of file
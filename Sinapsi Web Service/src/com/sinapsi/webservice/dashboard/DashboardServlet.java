@@ -1,8 +1,5 @@
 package com.sinapsi.webservice.dashboard;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.text.DateFormat;
@@ -21,6 +18,7 @@ import com.sinapsi.model.UserInterface;
 import com.sinapsi.webservice.db.EngineDBManager;
 import com.sinapsi.webservice.db.UserDBManager;
 import com.sinapsi.webservice.engine.WebServiceEngine;
+import com.sinapsi.webservice.web.dashboard.AccessLogStats;
 import com.sinapsi.webservice.websocket.Server;
 
 /**
@@ -79,32 +77,11 @@ public class DashboardServlet extends HttpServlet {
             // server requestes
             DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
             Date date = new Date();
-            String dayliLog = "/var/log/tomcat7/localhost_access_log." + dateFormat.format(date) + ".txt";
             
-            // count n of line in the dayli log (fastest way to count the number of
-            // line. thanks: stackoverflow")
-            BufferedInputStream is = new BufferedInputStream(new FileInputStream(
-                  new File(dayliLog)));
-            int count = 0;
-            try {
-               byte[] c = new byte[1024];
-               int readChars = 0;
-               boolean empty = true;
-               while ((readChars = is.read(c)) != -1) {
-                  empty = false;
-                  for (int i = 0; i < readChars; ++i) {
-                     if (c[i] == '\n') {
-                        ++count;
-                     }
-                  }
-               }
-               if (count == 0 && !empty)
-                  count = 1;
-
-            } finally {
-               is.close();
-            }
-            session.setAttribute("server_requestes", Integer.toString(count));
+            // counted by the access log index, only the new part of the log is read
+            AccessLogStats stats = (AccessLogStats) getServletContext().getAttribute("access_log_stats");
+            long count = stats.getRequests(dateFormat.format(date));
+            session.setAttribute("server_requestes", Long.toString(count));
             
             // registered users
             session.setAttribute("registered_users",Integer.toString(userManager.getUsers().size()));
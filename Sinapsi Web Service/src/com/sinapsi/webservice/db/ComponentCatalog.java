@@ -0,0 +1,95 @@
+package com.sinapsi.webservice.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory catalog of the trigger and action components known by the db.
+ * Maps component names to their ids (and trigger ids back to names), so
+ * component lookups don't need a round-trip to the db. The catalog is
+ * populated at startup and updated write-through when a new component
+ * is inserted.
+ *
+ */
+class ComponentCatalog {
+    private final ConcurrentMap<String, Integer> triggerIds = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Integer, String> triggerNames = new ConcurrentHashMap<Integer, String>();
+    private final ConcurrentMap<String, Integer> actionIds = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Integer, String> actionNames = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * Return the id of the trigger
+     *
+     * @param name name of the trigger
+     * @return id of the trigger, null if not in the catalog
+     */
+    public Integer getTriggerId(String name) {
+        return triggerIds.get(name);
+    }
+
+    /**
+     * Return the name of the trigger
+     *
+     * @param id id of the trigger
+     * @return name of the trigger, null if not in the catalog
+     */
+    public String getTriggerName(int id) {
+        return triggerNames.get(id);
+    }
+
+    /**
+     * Return the id of the action
+     *
+     * @param name name of the action
+     * @return id of the action, null if not in the catalog
+     */
+    public Integer getActionId(String name) {
+        return actionIds.get(name);
+    }
+
+    /**
+     * Return the name of the action
+     *
+     * @param id id of the action
+     * @return name of the action, null if not in the catalog
+     */
+    public String getActionName(int id) {
+        return actionNames.get(id);
+    }
+
+    /**
+     * Add a trigger to the catalog. The name is interned, so every macro
+     * referring to the same trigger shares the same string instance
+     *
+     * @param id id of the trigger
+     * @param name name of the trigger
+     */
+    public void putTrigger(int id, String name) {
+        String interned = name.intern();
+        triggerNames.put(id, interned);
+        triggerIds.put(interned, id);
+    }
+
+    /**
+     * Add an action to the catalog. The name is interned, so every macro
+     * referring to the same action shares the same string instance
+     *
+     * @param id id of the action
+     * @param name name of the action
+     */
+    public void putAction(int id, String name) {
+        String interned = name.intern();
+        actionNames.put(id, interned);
+        actionIds.put(interned, id);
+    }
+
+    /**
+     * Remove every component from the catalog
+     */
+    public void clear() {
+        triggerIds.clear();
+        triggerNames.clear();
+        actionIds.clear();
+        actionNames.clear();
+    }
+}
@@ -6,6 +6,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import com.sinapsi.model.*;
 import com.sinapsi.model.impl.FactoryModel;
 
@@ -19,6 +21,12 @@ public class DatabaseController {
     private String driver;
     private String user;
     private String password;
+    
+    // connections to the db of all the managers, for the metrics
+    private static final AtomicLong opened = new AtomicLong(0);
+    private static final AtomicLong failed = new AtomicLong(0);
+    private static final AtomicInteger open = new AtomicInteger(0);
+    private static final AtomicLong connectNanos = new AtomicLong(0);
 
     /**
      * Class constructor
@@ -45,7 +53,18 @@ public class DatabaseController {
      * @throws SQLException
      */
     Connection connect() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        long start = System.nanoTime();
+        try {
+            Connection c = DriverManager.getConnection(url, user, password);
+            opened.incrementAndGet();
+            open.incrementAndGet();
+            return c;
+        } catch (SQLException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            connectNanos.addAndGet(System.nanoTime() - start);
+        }
     }
 
     /**
@@ -76,9 +95,51 @@ public class DatabaseController {
         } catch (Throwable t) {
         }
 
+        if (c == null)
+            return;
         try {
+            // the error paths may disconnect twice, only a live connection is counted
+            if (c.isClosed())
+                return;
             c.close();
+            open.decrementAndGet();
         } catch (Throwable t) {
         }
     }
+
+    /**
+     * Return the number of connections opened since the start
+     * 
+     * @return opened connections
+     */
+    public static long getOpenedConnections() {
+        return opened.get();
+    }
+
+    /**
+     * Return the number of connections not closed yet
+     * 
+     * @return open connections
+     */
+    public static int getOpenConnections() {
+        return open.get();
+    }
+
+    /**
+     * Return the number of connections that couldn't be opened
+     * 
+     * @return failed connections
+     */
+    public static long getFailedConnections() {
+        return failed.get();
+    }
+
+    /**
+     * Return the time spent opening the connections
+     * 
+     * @return time, in nanoseconds
+     */
+    public static long getConnectNanos() {
+        return connectNanos.get();
+    }
 }
@@ -426,6 +426,32 @@ public class DeviceDBManager extends UserDBManager {
         db.disconnect(c, s);
     }
     
+    /**
+     * Update the value of macro sync of a device
+     * 
+     * @param idDevice id of the device
+     * @param b boolean
+     * @throws SQLException 
+     */
+    public void macroNotSynced(int idDevice, boolean b) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+           
+        try {
+            c = db.connect();
+            String query = "UPDATE device SET not_synced = ? WHERE id = ?";
+            s = c.prepareStatement(query);
+            s.setBoolean(1, b);
+            s.setInt(2, idDevice);
+            s.execute();
+               
+        } catch(Exception e) {
+            db.disconnect(c, s);
+            throw e;
+        }
+        db.disconnect(c, s);
+    }
+    
     /**
      * Update the value of macro sync for all devices of current user except the device specified by name & model
      * 
@@ -436,24 +462,21 @@ public class DeviceDBManager extends UserDBManager {
      * @throws SQLException 
      */
     public void macroNotSynced(String email, String name, String model, boolean b) throws SQLException {
-        List<DeviceInterface> devices = getUserDevices(email);
         Connection c = null;
         PreparedStatement s = null;
            
         try {
             c = db.connect();
+            String query = "UPDATE device SET not_synced = ? " +
+                           "WHERE iduser = (SELECT id FROM users WHERE email = ?) AND " +
+                                 "NOT (lower(name) = lower(?) AND lower(model) = lower(?))";
+            s = c.prepareStatement(query);
+            s.setBoolean(1, b);
+            s.setString(2, email);
+            s.setString(3, name);
+            s.setString(4, model);
+            s.execute();
             
-            for(DeviceInterface device : devices) {
-                if(getDevice(name, model).getId() != device.getId()) {
-                    s = null;
-                    String query = "UPDATE device SET not_synced = ? WHERE name = ? AND model = ?";
-                    s = c.prepareStatement(query);
-                    s.setBoolean(1, b);
-                    s.setString(2, device.getName());
-                    s.setString(3, device.getModel());
-                    s.execute();
-                }
-            }
         } catch(Exception e) {
             db.disconnect(c, s);
             throw e;
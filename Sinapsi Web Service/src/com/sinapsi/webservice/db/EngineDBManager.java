@@ -1,27 +1,40 @@
 package com.sinapsi.webservice.db;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpServlet;
+
+import org.apache.commons.codec.binary.Hex;
+
 import com.sinapsi.engine.Action;
 import com.sinapsi.engine.ComponentFactory;
 import com.sinapsi.engine.Trigger;
 import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.impl.ActionDescriptor;
+import com.sinapsi.model.impl.MacroChangeSet;
+import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.model.impl.TriggerDescriptor;
 import com.sinapsi.webservice.engine.WebServiceEngine;
+import com.sinapsi.webservice.system.WebServiceConsts;
 
 /**
  * Class that perform engine(triggers, actions, macros) query
  *
  */
 public class EngineDBManager {
+    private static final ComponentCatalog catalog = new ComponentCatalog();
+    private static final UserMacroCache macroCache = new UserMacroCache(WebServiceConsts.MACRO_CACHE_MAX_BYTES);
     private DatabaseController db;
     private HttpServlet http;
        
@@ -209,6 +222,50 @@ public class EngineDBManager {
         return actions;
     }
     
+    /**
+     * Return the cache of the serialized macro lists of the users
+     * 
+     * @return macro cache
+     */
+    public UserMacroCache getMacroCache() {
+        return macroCache;
+    }
+    
+    /**
+     * Load in the component catalog all the triggers and actions saved in the db
+     * 
+     * @throws SQLException
+     */
+    public void loadComponentCatalog() throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        
+        try {
+            c = db.connect();
+            s = c.prepareStatement("SELECT id, name FROM trigger");
+            r = s.executeQuery();
+            
+            while (r.next())
+                catalog.putTrigger(r.getInt("id"), r.getString("name"));
+            
+            r.close();
+            s.close();
+            
+            s = c.prepareStatement("SELECT id, name FROM action");
+            r = s.executeQuery();
+            
+            while (r.next())
+                catalog.putAction(r.getInt("id"), r.getString("name"));
+            
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+    }
+    
     /**
      * Get action, if doesn't exist, create it
      * 
@@ -218,6 +275,31 @@ public class EngineDBManager {
      * @throws SQLException
      */
     public int getIdAction(String name, int versionAction, String parameters) throws SQLException {
+        Integer cached = catalog.getActionId(name);
+        if (cached != null)
+            return cached;
+        
+        // the miss path is serialized, so the same action is never inserted twice
+        synchronized (catalog) {
+            cached = catalog.getActionId(name);
+            if (cached != null)
+                return cached;
+            
+            int id = selectOrInsertAction(name, versionAction, parameters);
+            catalog.putAction(id, name);
+            return id;
+        }
+    }
+    
+    /**
+     * Query the db for the id of the action, if doesn't exist, create it
+     * 
+     * @param name name of the action
+     * @param versionAction min version of the action
+     * @return id of the action
+     * @throws SQLException
+     */
+    private int selectOrInsertAction(String name, int versionAction, String parameters) throws SQLException {
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
@@ -261,6 +343,31 @@ public class EngineDBManager {
      * @throws SQLException
      */
     public int getTrigger(String name, int minVersion, String parameters) throws SQLException {
+        Integer cached = catalog.getTriggerId(name);
+        if (cached != null)
+            return cached;
+        
+        // the miss path is serialized, so the same trigger is never inserted twice
+        synchronized (catalog) {
+            cached = catalog.getTriggerId(name);
+            if (cached != null)
+                return cached;
+            
+            int id = selectOrInsertTrigger(name, minVersion, parameters);
+            catalog.putTrigger(id, name);
+            return id;
+        }
+    }
+    
+    /**
+     * Query the db for the id of the trigger, if doesn't exist, create it
+     * 
+     * @param name name of the trigger
+     * @param minVersion min version of the trigger
+     * @return id of the trigger
+     * @throws SQLException
+     */
+    private int selectOrInsertTrigger(String name, int minVersion, String parameters) throws SQLException {
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
@@ -303,10 +410,13 @@ public class EngineDBManager {
      * @throws SQLException 
      */
     public String getTrigger(int id) throws SQLException {
+        String name = catalog.getTriggerName(id);
+        if (name != null)
+            return name;
+        
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
-        String name = null;
 
         try {
             c = db.connect();
@@ -314,9 +424,10 @@ public class EngineDBManager {
             s.setInt(1, id);
             r = s.executeQuery();
 
-            if (r.next())
+            if (r.next()) {
                 name = r.getString("name");
-            
+                catalog.putTrigger(id, name);
+            }
 
         } catch (SQLException ex) {
             ex.printStackTrace();
@@ -503,6 +614,55 @@ public class EngineDBManager {
         db.disconnect(c, s);
     }
 
+    /**
+     * Return a strong validator of the available components of all the devices of the user.
+     * The validator is a hash of the availability rows, so it changes when a device is added
+     * or changed, or when its available components are updated
+     * 
+     * @param email email of the user
+     * @return hex hash of the availability rows
+     * @throws SQLException
+     */
+    public String getAvailabilityValidator(String email) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new SQLException(e);
+        }
+        
+        try {
+            c = db.connect();
+            String query = "SELECT device.id, device.name, device.model, device.type, device.version, 0 AS kind, availabletrigger.idtrigger AS idcomponent " +
+                           "FROM device JOIN users ON device.iduser = users.id " +
+                           "LEFT JOIN availabletrigger ON availabletrigger.iddevice = device.id WHERE users.email = ? " +
+                           "UNION ALL " +
+                           "SELECT device.id, device.name, device.model, device.type, device.version, 1 AS kind, availableaction.idaction AS idcomponent " +
+                           "FROM device JOIN users ON device.iduser = users.id " +
+                           "LEFT JOIN availableaction ON availableaction.iddevice = device.id WHERE users.email = ? " +
+                           "ORDER BY 1, 6, 7";
+            s = c.prepareStatement(query);
+            s.setString(1, email);
+            s.setString(2, email);
+            r = s.executeQuery();
+            
+            while (r.next()) {
+                String row = r.getInt(1) + "|" + r.getString(2) + "|" + r.getString(3) + "|" + r.getString(4) + "|" + 
+                             r.getInt(5) + "|" + r.getInt(6) + "|" + r.getInt(7) + "\n";
+                digest.update(row.getBytes(StandardCharsets.UTF_8));
+            }
+            
+        } catch (SQLException ex) {
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+        return Hex.encodeHexString(digest.digest());
+    }
+
     /**
      * Return macro with id
      * 
@@ -579,29 +739,45 @@ public class EngineDBManager {
             s.setInt(1, id);
             r = s.executeQuery();
 
-            while (r.next()) {
-                // create a new macro from the information saved in the db
-                MacroInterface macro = db.factory.newMacro(r.getString("name"), r.getInt("id"));
-                          
-                // create a trigger from the information saved in the db
-                Trigger trigger = componentFactory.newTrigger(getTrigger(r.getInt("idtrigger")), 
-                                                              r.getString("triggerjson"), 
-                                                              macro, 
-                                                              deviceDb.getDevice(r.getInt("iddevice")).getId());
-                // set the trigger
-                macro.setTrigger(trigger);
-                
-                // create a action/actions (of macro:id) from the information saved in the db
-                List<Action> actions = getActions(r.getInt("id"), componentFactory);
-                for(Action actionI :  actions) 
-                    macro.addAction(actionI);                  
-                
-                macro.setIconName(r.getString("icon"));
-                macro.setValid(r.getInt("incomplete") == 0 ? true : false);
-                macro.setMacroColor(r.getString("color"));
-                macro.setExecutionFailurePolicy(r.getString("errorpolicy"));
-                macros.add(macro);
-            }
+            while (r.next()) 
+                macros.add(buildMacro(r, componentFactory, deviceDb));
+
+        } catch (SQLException ex) {
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+        return macros;
+    }
+    
+    /**
+     * Return the macros of the user with the specified ids
+     * 
+     * @param idUser id of the user
+     * @param ids ids of the macros
+     * @param componentFactory component factory of the user
+     * @return list of macros
+     * @throws SQLException
+     */
+    public List<MacroInterface> getUserMacros(int idUser, List<Integer> ids, ComponentFactory componentFactory) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        List<MacroInterface> macros = new ArrayList<MacroInterface>();
+        DeviceDBManager deviceDb = new DeviceDBManager();
+        
+        if (ids.isEmpty())
+            return macros;
+        
+        try {
+            c = db.connect();
+            s = c.prepareStatement("SELECT * FROM macro WHERE macro.iduser = ? AND macro.id = ANY(?)");
+            s.setInt(1, idUser);
+            s.setArray(2, c.createArrayOf("integer", ids.toArray()));
+            r = s.executeQuery();
+
+            while (r.next()) 
+                macros.add(buildMacro(r, componentFactory, deviceDb));
 
         } catch (SQLException ex) {
             db.disconnect(c, s, r);
@@ -611,6 +787,365 @@ public class EngineDBManager {
         return macros;
     }
     
+    /**
+     * Create a macro from the current row of a result set on the macro table
+     * 
+     * @param r result set positioned on the macro row
+     * @param componentFactory component factory of the user
+     * @param deviceDb device db manager
+     * @return the macro
+     * @throws SQLException
+     */
+    private MacroInterface buildMacro(ResultSet r, ComponentFactory componentFactory, DeviceDBManager deviceDb) throws SQLException {
+        // create a new macro from the information saved in the db
+        MacroInterface macro = db.factory.newMacro(r.getString("name"), r.getInt("id"));
+                  
+        // create a trigger from the information saved in the db
+        Trigger trigger = componentFactory.newTrigger(getTrigger(r.getInt("idtrigger")), 
+                                                      r.getString("triggerjson"), 
+                                                      macro, 
+                                                      deviceDb.getDevice(r.getInt("iddevice")).getId());
+        // set the trigger
+        macro.setTrigger(trigger);
+        
+        // create a action/actions (of macro:id) from the information saved in the db
+        List<Action> actions = getActions(r.getInt("id"), componentFactory);
+        for(Action actionI :  actions) 
+            macro.addAction(actionI);                  
+        
+        macro.setIconName(r.getString("icon"));
+        macro.setValid(r.getInt("incomplete") == 0 ? true : false);
+        macro.setMacroColor(r.getString("color"));
+        macro.setExecutionFailurePolicy(r.getString("errorpolicy"));
+        return macro;
+    }
+    
+    /**
+     * Create the tables used to track the revisions of the users' macro collections, if they don't exist.
+     * The catalog is checked before every change, so the statements run on PostgreSQL 9.1
+     * 
+     * @throws SQLException
+     */
+    public void createMacroChangeLog() throws SQLException {
+        Connection c = null;
+        Statement s = null;
+        
+        try {
+            c = db.connect();
+            s = c.createStatement();
+            s.execute("CREATE TABLE IF NOT EXISTS macro_revision(" +
+                          "iduser integer PRIMARY KEY REFERENCES users(id) ON DELETE CASCADE, " +
+                          "revision bigint NOT NULL)");
+            // last revision removed from the change log of the user
+            if (!exists(s, "SELECT 1 FROM information_schema.columns " +
+                           "WHERE table_schema = current_schema() AND table_name = 'macro_revision' AND column_name = 'pruned'"))
+                s.execute("ALTER TABLE macro_revision ADD COLUMN pruned bigint NOT NULL DEFAULT 0");
+            s.execute("CREATE TABLE IF NOT EXISTS macro_changelog(" +
+                          "iduser integer NOT NULL REFERENCES users(id) ON DELETE CASCADE, " +
+                          "revision bigint NOT NULL, " +
+                          "idmacro integer NOT NULL, " +
+                          "operation varchar(10) NOT NULL)");
+            if (!exists(s, "SELECT 1 FROM pg_class WHERE relkind = 'i' AND relname = 'macro_changelog_user_revision' " +
+                           "AND pg_table_is_visible(oid)"))
+                s.execute("CREATE INDEX macro_changelog_user_revision ON macro_changelog(iduser, revision)");
+            
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+            db.disconnect(c, s);
+            throw ex;
+        }
+        db.disconnect(c, s);
+    }
+    
+    private static boolean exists(Statement s, String query) throws SQLException {
+        ResultSet r = s.executeQuery(query);
+        try {
+            return r.next();
+        } finally {
+            r.close();
+        }
+    }
+    
+    /**
+     * Return the current revision of the macro collection of the user
+     * 
+     * @param idUser id of the user
+     * @return revision, 0 if the user never changed a macro
+     * @throws SQLException
+     */
+    public long getMacroRevision(int idUser) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        long revision = 0;
+        
+        try {
+            c = db.connect();
+            s = c.prepareStatement("SELECT revision FROM macro_revision WHERE iduser = ?");
+            s.setInt(1, idUser);
+            r = s.executeQuery();
+            
+            if (r.next())
+                revision = r.getLong("revision");
+            
+        } catch (SQLException ex) {
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+        return revision;
+    }
+    
+    /**
+     * Return the last revision removed from the change log of the user
+     * 
+     * @param idUser id of the user
+     * @return pruned revision, 0 if the change log is complete
+     * @throws SQLException
+     */
+    private long getPrunedRevision(int idUser) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        long pruned = 0;
+        
+        try {
+            c = db.connect();
+            s = c.prepareStatement("SELECT pruned FROM macro_revision WHERE iduser = ?");
+            s.setInt(1, idUser);
+            r = s.executeQuery();
+            
+            if (r.next())
+                pruned = r.getLong("pruned");
+            
+        } catch (SQLException ex) {
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+        return pruned;
+    }
+    
+    /**
+     * Return the changes of the macro collection of the user done after the revision since.
+     * If since is negative, newer than the current revision or older than the revisions
+     * kept in the change log, a full snapshot is returned
+     * 
+     * @param idUser id of the user
+     * @param since last revision known by the client
+     * @param componentFactory component factory of the user
+     * @return the change set
+     * @throws SQLException
+     */
+    public MacroChangeSet getMacroChanges(int idUser, long since, ComponentFactory componentFactory) throws SQLException {
+        // read the revision first: a change committed meanwhile is sent again on the next sync, never lost
+        long revision = getMacroRevision(idUser);
+        
+        if (since < 0 || since > revision || since < getPrunedRevision(idUser))
+            return getMacroSnapshot(idUser, revision, componentFactory);
+        
+        MacroChangeSet changes = new MacroChangeSet(revision, false);
+        if (since == revision)
+            return changes;
+        
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        Map<Integer, SyncOperation> lastOperations = new HashMap<Integer, SyncOperation>();
+        
+        try {
+            c = db.connect();
+            // the last operation done on every macro changed after since
+            String query = "SELECT DISTINCT ON (idmacro) idmacro, operation " +
+                           "FROM macro_changelog " +
+                           "WHERE iduser = ? AND revision > ? " +
+                           "ORDER BY idmacro, revision DESC";
+            s = c.prepareStatement(query);
+            s.setInt(1, idUser);
+            s.setLong(2, since);
+            r = s.executeQuery();
+            
+            while (r.next())
+                lastOperations.put(r.getInt("idmacro"), SyncOperation.valueOf(r.getString("operation")));
+            
+        } catch (SQLException ex) {
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+        
+        // the changes read may have been pruned meanwhile
+        if (since < getPrunedRevision(idUser))
+            return getMacroSnapshot(idUser, revision, componentFactory);
+        
+        List<Integer> updatedIds = new ArrayList<Integer>();
+        for (Map.Entry<Integer, SyncOperation> entry : lastOperations.entrySet()) {
+            if (entry.getValue() == SyncOperation.DELETE)
+                changes.getDeletedMacroIds().add(entry.getKey());
+            else
+                updatedIds.add(entry.getKey());
+        }
+        
+        List<MacroInterface> updated = getUserMacros(idUser, updatedIds, componentFactory);
+        changes.getUpdatedMacros().addAll(updated);
+        
+        // a macro deleted after its last logged change is reported as deleted
+        for (Integer id : updatedIds) {
+            boolean found = false;
+            for (MacroInterface macro : updated) {
+                if (macro.getId() == id) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                changes.getDeletedMacroIds().add(id);
+        }
+        
+        return changes;
+    }
+    
+    private MacroChangeSet getMacroSnapshot(int idUser, long revision, ComponentFactory componentFactory) throws SQLException {
+        MacroChangeSet snapshot = new MacroChangeSet(revision, true);
+        snapshot.getUpdatedMacros().addAll(getUserMacro(idUser, componentFactory));
+        return snapshot;
+    }
+    
+    /**
+     * Return all the macros of the user with the revision they refer to, both read
+     * in the same transaction, so the list is never older than the revision
+     * 
+     * @param idUser id of the user
+     * @param componentFactory component factory of the user
+     * @return full snapshot of the macro collection
+     * @throws SQLException
+     */
+    public MacroChangeSet getMacroSnapshot(int idUser, ComponentFactory componentFactory) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        DeviceDBManager deviceDb = new DeviceDBManager();
+        MacroChangeSet snapshot;
+        
+        try {
+            c = db.connect();
+            c.setAutoCommit(false);
+            c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            
+            s = c.prepareStatement("SELECT revision FROM macro_revision WHERE iduser = ?");
+            s.setInt(1, idUser);
+            r = s.executeQuery();
+            snapshot = new MacroChangeSet(r.next() ? r.getLong("revision") : 0, true);
+            r.close();
+            s.close();
+            
+            s = c.prepareStatement("SELECT * FROM macro WHERE macro.iduser = ?");
+            s.setInt(1, idUser);
+            r = s.executeQuery();
+            
+            while (r.next()) 
+                snapshot.getUpdatedMacros().add(buildMacro(r, componentFactory, deviceDb));
+            
+            c.commit();
+            
+        } catch (SQLException ex) {
+            db.disconnect(c, s, r);
+            throw ex;
+        }
+        db.disconnect(c, s, r);
+        return snapshot;
+    }
+    
+    /**
+     * Increment the revision of the macro collection of the user and log the change
+     * in the change log, using the connection (and so the transaction) of the caller.
+     * Every MACRO_CHANGELOG_PRUNE_EVERY revisions, the changes older than the retained
+     * revisions are removed
+     * 
+     * @param c connection of the current transaction
+     * @param idUser id of the user
+     * @param idMacro id of the changed macro
+     * @param operation operation done on the macro
+     * @return the new revision
+     * @throws SQLException
+     */
+    private long logMacroChange(Connection c, int idUser, int idMacro, SyncOperation operation) throws SQLException {
+        PreparedStatement s = null;
+        long revision;
+        
+        try {
+            // the row lock on macro_revision serializes the writes of the same user
+            revision = incrementMacroRevision(c, idUser);
+            if (revision < 0) {
+                // first change of the user: a transaction lock on the user serializes the insert
+                // with the first change done meanwhile, which the update then finds
+                s = c.prepareStatement("SELECT pg_advisory_xact_lock(?, ?)");
+                s.setInt(1, WebServiceConsts.MACRO_REVISION_LOCK_CLASS);
+                s.setInt(2, idUser);
+                s.executeQuery().close();
+                s.close();
+                
+                revision = incrementMacroRevision(c, idUser);
+                if (revision < 0) {
+                    s = c.prepareStatement("INSERT INTO macro_revision(iduser, revision) VALUES (?, 1)");
+                    s.setInt(1, idUser);
+                    s.execute();
+                    s.close();
+                    revision = 1;
+                }
+            }
+            
+            s = c.prepareStatement("INSERT INTO macro_changelog(iduser, revision, idmacro, operation) VALUES (?, ?, ?, ?)");
+            s.setInt(1, idUser);
+            s.setLong(2, revision);
+            s.setInt(3, idMacro);
+            s.setString(4, operation.name());
+            s.execute();
+            s.close();
+            
+            long pruned = revision - WebServiceConsts.MACRO_CHANGELOG_RETAINED_REVISIONS;
+            if (pruned > 0 && revision % WebServiceConsts.MACRO_CHANGELOG_PRUNE_EVERY == 0) {
+                s = c.prepareStatement("DELETE FROM macro_changelog WHERE iduser = ? AND revision <= ?");
+                s.setInt(1, idUser);
+                s.setLong(2, pruned);
+                s.execute();
+                s.close();
+                
+                s = c.prepareStatement("UPDATE macro_revision SET pruned = ? WHERE iduser = ?");
+                s.setLong(1, pruned);
+                s.setInt(2, idUser);
+                s.execute();
+                s.close();
+            }
+            
+        } catch (SQLException ex) {
+            if (s != null)
+                s.close();
+            throw ex;
+        }
+        return revision;
+    }
+    
+    /**
+     * Increment the revision of the user, if the user has one
+     * 
+     * @return the new revision, -1 if the user has no revision yet
+     */
+    private static long incrementMacroRevision(Connection c, int idUser) throws SQLException {
+        PreparedStatement s = c.prepareStatement("UPDATE macro_revision SET revision = revision + 1 WHERE iduser = ? RETURNING revision");
+        try {
+            s.setInt(1, idUser);
+            ResultSet r = s.executeQuery();
+            try {
+                return r.next() ? r.getLong("revision") : -1;
+            } finally {
+                r.close();
+            }
+        } finally {
+            s.close();
+        }
+    }
+    
     /**
      * Control if exist a macro by id
      * 
@@ -651,21 +1186,71 @@ public class EngineDBManager {
     public void deleteUserMacro(int idMacro) throws SQLException {
         Connection c = null;
         PreparedStatement s = null;
+        ResultSet r = null;
+        int idUser = -1;
         
         try {
             c = db.connect();
+            s = c.prepareStatement("SELECT iduser FROM macro WHERE id = ?");
+            s.setInt(1, idMacro);
+            r = s.executeQuery();
+            
+            if (r.next())
+                idUser = r.getInt("iduser");
+            
+        } catch (SQLException e) {
+            db.disconnect(c, s, r);
+            throw e;
+        }
+        db.disconnect(c, s, r);
+        
+        // macro not found, nothing to delete
+        if (idUser == -1)
+            return;
+        
+        deleteUserMacro(idUser, idMacro);
+    }
+    
+    /**
+     * Delete from the db a macro of the user
+     * 
+     * @param idUser id of the user
+     * @param idMacro id of the macro
+     * @throws SQLException
+     */
+    public void deleteUserMacro(int idUser, int idMacro) throws SQLException {
+        Connection c = null;
+        PreparedStatement s = null;
+        
+        try {
+            c = db.connect();
+            c.setAutoCommit(false);
                       
-            s = c.prepareStatement("DELETE FROM actionmacrolist WHERE idmacro = ?");       
+            // the actions of a macro of another user are left untouched
+            s = c.prepareStatement("DELETE FROM actionmacrolist WHERE idmacro = (SELECT id FROM macro WHERE id = ? AND iduser = ?)");       
             s.setInt(1, idMacro);
+            s.setInt(2, idUser);
             s.execute();
             
             s = null;
             
-            s = c.prepareStatement("DELETE FROM macro WHERE id = ?");
+            s = c.prepareStatement("DELETE FROM macro WHERE id = ? AND iduser = ?");
             s.setInt(1, idMacro);
-            s.execute();
+            s.setInt(2, idUser);
+            
+            // log the change only if the macro was really deleted
+            long revision = -1;
+            if (s.executeUpdate() > 0)
+                revision = logMacroChange(c, idUser, idMacro, SyncOperation.DELETE);
+            
+            c.commit();
+            if (revision > 0)
+                macroCache.invalidate(idUser, revision);
 
         } catch (SQLException e) {
+            e.printStackTrace();
+            if (c != null)
+                c.rollback();
             db.disconnect(c, s);
             throw e;
         }
@@ -706,14 +1291,16 @@ public class EngineDBManager {
         if(checkMacro(macro.getId())) 
             return updateMacro(idUser, macro);
         
-        
+        // the components of a lazy macro are instantiated before the transaction,
+        // a ComponentNotFoundException leaves the db untouched
+        Trigger trigger = macro.getTrigger();
+        List<Action> actions = macro.getActions();
         
         try {
             c = db.connect();
             c.setAutoCommit(false);
-            List<Action> actions = macro.getActions();
-            int idTrigger = getTrigger(macro.getTrigger().getName(), macro.getTrigger().getMinVersion(), macro.getTrigger().getFormalParameters());   
-            int idDevice =  macro.getTrigger().getExecutionDevice().getId();
+            int idTrigger = getTrigger(trigger.getName(), trigger.getMinVersion(), trigger.getFormalParameters());   
+            int idDevice =  trigger.getExecutionDevice().getId();
             int counter = 0;
             
             String query = "INSERT INTO macro(name, iduser, triggerjson, iddevice, idtrigger, icon, color, incomplete, errorpolicy)" +
@@ -722,7 +1309,7 @@ public class EngineDBManager {
             s = c.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             s.setString(1, macro.getName());
             s.setInt(2, idUser);
-            s.setString(3, macro.getTrigger().getActualParameters());
+            s.setString(3, trigger.getActualParameters());
             s.setInt(4, idDevice);
             s.setInt(5, idTrigger);
             s.setString(6, macro.getIconName());
@@ -751,14 +1338,24 @@ public class EngineDBManager {
                 r = s.getGeneratedKeys();
                 r.next();
             } 
+            
+            long revision = logMacroChange(c, idUser, idMacro, SyncOperation.ADD);
                 
             c.commit();
+            macroCache.invalidate(idUser, revision);
             db.disconnect(c, s, r);
             
         } catch(SQLException ex) {
             ex.printStackTrace();
-            c.rollback();
+            if (c != null)
+                c.rollback();
             db.disconnect(c, s, r);
+        } catch(RuntimeException ex) {
+            // a malformed macro, nothing is saved
+            if (c != null)
+                c.rollback();
+            db.disconnect(c, s, r);
+            throw ex;
         }
  
         return idMacro;
@@ -776,8 +1373,15 @@ public class EngineDBManager {
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
+        
+        // the components of a lazy macro are instantiated before the transaction,
+        // a ComponentNotFoundException leaves the db untouched
+        Trigger trigger = macro.getTrigger();
+        List<Action> actions = macro.getActions();
+        
         try {
             c = db.connect();
+            c.setAutoCommit(false);
 
             // delete macro actions
             String query3 = "DELETE FROM actionmacrolist WHERE idmacro = ?";
@@ -787,10 +1391,8 @@ public class EngineDBManager {
             
             s = null;
             
-            c.setAutoCommit(false);
-            List<Action> actions = macro.getActions();
-            int idTrigger = getTrigger(macro.getTrigger().getName(), macro.getTrigger().getMinVersion(), macro.getTrigger().getFormalParameters()); 
-            int idDevice = macro.getTrigger().getExecutionDevice().getId();
+            int idTrigger = getTrigger(trigger.getName(), trigger.getMinVersion(), trigger.getFormalParameters()); 
+            int idDevice = trigger.getExecutionDevice().getId();
             
             String query = "UPDATE macro " +
                            "SET name=?, iduser=?, triggerjson=?, iddevice=?, idtrigger=?, icon=?, color=?, incomplete=?, errorpolicy=? " + 
@@ -799,7 +1401,7 @@ public class EngineDBManager {
             s = c.prepareStatement(query);
             s.setString(1, macro.getName());
             s.setInt(2, idUser);
-            s.setString(3, macro.getTrigger().getActualParameters());
+            s.setString(3, trigger.getActualParameters());
             s.setInt(4, idDevice);
             s.setInt(5, idTrigger);
             s.setString(6, macro.getIconName());
@@ -828,14 +1430,17 @@ public class EngineDBManager {
                 r.next();
             } 
 
+            long revision = logMacroChange(c, idUser, macro.getId(), SyncOperation.UPDATE);
             
             c.commit();
+            macroCache.invalidate(idUser, revision);
             db.disconnect(c, s);  
                
         } catch(Exception e) {
             // in case of error, rollback the changes and disconnect
             e.printStackTrace();
-            c.rollback();
+            if (c != null)
+                c.rollback();
             db.disconnect(c, s);
             throw e;
         }
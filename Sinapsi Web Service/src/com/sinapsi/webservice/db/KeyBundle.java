@@ -0,0 +1,117 @@
+package com.sinapsi.webservice.db;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import javax.crypto.SecretKey;
+
+import com.bgp.decryption.Decrypt;
+
+/**
+ * Decoded keys of a device of the user, as saved in the keys table.
+ * A key not yet saved in the db is null
+ *
+ */
+public class KeyBundle {
+    private final PublicKey userPublicKey;
+    private final SecretKey userSessionKey;
+    private final PublicKey serverPublicKey;
+    private final PrivateKey serverPrivateKey;
+    private final SecretKey serverSessionKey;
+    private final SecretKey serverUncryptedSessionKey;
+    private volatile SecretKey userUncryptedSessionKey;
+
+    /**
+     * Ctor
+     *
+     * @param userPublicKey public key generated by the client
+     * @param userSessionKey encrypted session key generated by the client
+     * @param serverPublicKey public key generated by the server
+     * @param serverPrivateKey private key generated by the server
+     * @param serverSessionKey encrypted session key generated by the server
+     * @param serverUncryptedSessionKey uncrypted session key generated by the server
+     */
+    public KeyBundle(PublicKey userPublicKey,
+                     SecretKey userSessionKey,
+                     PublicKey serverPublicKey,
+                     PrivateKey serverPrivateKey,
+                     SecretKey serverSessionKey,
+                     SecretKey serverUncryptedSessionKey) {
+        this.userPublicKey = userPublicKey;
+        this.userSessionKey = userSessionKey;
+        this.serverPublicKey = serverPublicKey;
+        this.serverPrivateKey = serverPrivateKey;
+        this.serverSessionKey = serverSessionKey;
+        this.serverUncryptedSessionKey = serverUncryptedSessionKey;
+    }
+
+    /**
+     * Return the public key generated by the client
+     *
+     * @return public key
+     */
+    public PublicKey getUserPublicKey() {
+        return userPublicKey;
+    }
+
+    /**
+     * Return the encrypted session key generated by the client
+     *
+     * @return session key
+     */
+    public SecretKey getUserSessionKey() {
+        return userSessionKey;
+    }
+
+    /**
+     * Return the public key generated by the server
+     *
+     * @return public key
+     */
+    public PublicKey getServerPublicKey() {
+        return serverPublicKey;
+    }
+
+    /**
+     * Return the private key generated by the server
+     *
+     * @return private key
+     */
+    public PrivateKey getServerPrivateKey() {
+        return serverPrivateKey;
+    }
+
+    /**
+     * Return the encrypted session key generated by the server
+     *
+     * @return session key
+     */
+    public SecretKey getServerSessionKey() {
+        return serverSessionKey;
+    }
+
+    /**
+     * Return the uncrypted session key generated by the server
+     *
+     * @return session key
+     */
+    public SecretKey getServerUncryptedSessionKey() {
+        return serverUncryptedSessionKey;
+    }
+
+    /**
+     * Return the uncrypted session key generated by the client. The key is
+     * decrypted with the server private key only the first time
+     *
+     * @return session key
+     * @throws Exception
+     */
+    public SecretKey getUserUncryptedSessionKey() throws Exception {
+        SecretKey key = userUncryptedSessionKey;
+        if (key == null) {
+            key = new Decrypt(serverPrivateKey, userSessionKey).getSessionKey();
+            userUncryptedSessionKey = key;
+        }
+        return key;
+    }
+}
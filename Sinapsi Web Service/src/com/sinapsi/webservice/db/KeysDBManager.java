@@ -6,6 +6,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.SecretKey;
 import javax.servlet.http.HttpServlet;
@@ -14,6 +22,7 @@ import com.bgp.keymanager.PrivateKeyManager;
 import com.bgp.keymanager.PublicKeyManager;
 import com.bgp.keymanager.SessionKeyManager;
 import com.sinapsi.webservice.engine.WebServiceLog;
+import com.sinapsi.webservice.system.WebServiceConsts;
 
 
 /**
@@ -21,8 +30,24 @@ import com.sinapsi.webservice.engine.WebServiceLog;
  *
  */
 public class KeysDBManager {
+	private static final ConcurrentMap<String, CachedBundle> bundles = new ConcurrentHashMap<String, CachedBundle>();
+	private static final AtomicLong clock = new AtomicLong(0);
 	private DatabaseController db;
 	
+	/**
+	 * Key bundle of a device, loaded once by the first thread asking for it while the
+	 * others wait on the same load. The version is bumped when the keys are updated
+	 */
+	private static class CachedBundle {
+	    private final FutureTask<KeyBundle> load;
+	    private volatile long version = 0;
+	    private volatile long lastUsed = clock.incrementAndGet();
+	    
+	    private CachedBundle(FutureTask<KeyBundle> load) {
+	        this.load = load;
+	    }
+	}
+	
 	/**
 	 * Default ctor
 	 */
@@ -81,6 +106,7 @@ public class KeysDBManager {
 	    	 throw e;
 	     }
 	     db.disconnect(c, s);
+	     invalidateKeyBundle(email, deviceName, deviceModel);
 	}
 	
 	/**
@@ -109,6 +135,7 @@ public class KeysDBManager {
              throw e;
          }
          db.disconnect(c, s);
+         invalidateKeyBundle(email, deviceName, deviceModel);
     }
     
 	/**
@@ -150,6 +177,7 @@ public class KeysDBManager {
 	    	 throw e;
 	     }
 	     db.disconnect(c, s);
+	     invalidateKeyBundle(email, deviceName, deviceModel);
 	}
 	
 	/**
@@ -160,26 +188,7 @@ public class KeysDBManager {
 	 * @throws Exception
 	 */
 	public PublicKey getUserPublicKey(String email, String deviceName, String deviceModel) throws Exception {
-		 Connection c = null;
-	     PreparedStatement s = null;
-	     ResultSet r = null;
-	     String publicKey = null;
-	     try {
-	    	 c = db.connect();
-	         s = c.prepareStatement("SELECT user_publickey FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?");
-	         s.setString(1, email);
-	         s.setString(2, deviceName);
-	         s.setString(3, deviceModel);
-	         r = s.executeQuery();
-	         if (r.next()) {
-	            publicKey = new String(r.getString("user_publickey"));
-	         }
-	     } catch (SQLException ex) {
-	         db.disconnect(c, s, r);
-	         throw ex;
-	     }
-	     db.disconnect(c, s, r);
-	     return PublicKeyManager.convertToKey(publicKey);
+		return getKeyBundle(email, deviceName, deviceModel).getUserPublicKey();
 	}
 	
 	/**
@@ -190,26 +199,7 @@ public class KeysDBManager {
 	 * @throws Exception
 	 */
 	public PublicKey getServerPublicKey(String email, String deviceName, String deviceModel) throws Exception {
-		 Connection c = null;
-	     PreparedStatement s = null;
-	     ResultSet r = null;
-	     String publicKey = null;
-	     try {
-	    	 c = db.connect();
-	         s = c.prepareStatement("SELECT server_publickey FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?");
-	         s.setString(1, email);
-	         s.setString(2, deviceName);
-             s.setString(3, deviceModel);
-	         r = s.executeQuery();
-	         if (r.next()) {
-	            publicKey = r.getString("server_publickey");
-	         }
-	     } catch (SQLException ex) {
-	         db.disconnect(c, s, r);
-	         throw ex;
-	     }
-	     db.disconnect(c, s, r);
-	     return PublicKeyManager.convertToKey(publicKey);
+		return getKeyBundle(email, deviceName, deviceModel).getServerPublicKey();
 	}
 	
 	/**
@@ -220,26 +210,7 @@ public class KeysDBManager {
 	 * @throws Exception
 	 */
 	public PrivateKey getServerPrivateKey(String email, String deviceName, String deviceModel) throws Exception {
-		 Connection c = null;
-	     PreparedStatement s = null;
-	     ResultSet r = null;
-	     String privateKey = null;
-	     try {
-	    	 c = db.connect();
-	         s = c.prepareStatement("SELECT server_privatekey FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?");
-	         s.setString(1, email);
-	         s.setString(2, deviceName);
-             s.setString(3, deviceModel);
-	         r = s.executeQuery();
-	         if (r.next()) {
-	            privateKey = r.getString("server_privatekey");
-	         }
-	     } catch (SQLException ex) {
-	         db.disconnect(c, s, r);
-	         throw ex;
-	     }
-	     db.disconnect(c, s, r);
-	     return PrivateKeyManager.convertToKey(privateKey);
+		return getKeyBundle(email, deviceName, deviceModel).getServerPrivateKey();
 	}
 	
 	/**
@@ -250,26 +221,7 @@ public class KeysDBManager {
 	 * @throws Exception
 	 */
 	public SecretKey getUserSessionKey(String email, String deviceName, String deviceModel) throws Exception {
-		 Connection c = null;
-	     PreparedStatement s = null;
-	     ResultSet r = null;
-	     String sessionKey = null;
-	     try {
-	    	 c = db.connect();
-	         s = c.prepareStatement("SELECT user_sessionkey FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?");
-	         s.setString(1, email);
-	         s.setString(2, deviceName);
-             s.setString(3, deviceModel);
-	         r = s.executeQuery();
-	         if (r.next()) {
-	            sessionKey = r.getString("user_sessionkey");
-	         }
-	     } catch (SQLException ex) {
-	         db.disconnect(c, s, r);
-	         throw ex;
-	     }
-	     db.disconnect(c, s, r);
-	     return SessionKeyManager.convertToKey(sessionKey);
+		return getKeyBundle(email, deviceName, deviceModel).getUserSessionKey();
 	}
 	
 	/**
@@ -280,26 +232,7 @@ public class KeysDBManager {
 	 * @throws Exception
 	 */
 	public SecretKey getServerSessionKey(String email, String deviceName, String deviceModel) throws Exception {
-		 Connection c = null;
-	     PreparedStatement s = null;
-	     ResultSet r = null;
-	     String sessionKey = null;
-	     try {
-	    	 c = db.connect();
-	         s = c.prepareStatement("SELECT server_sessionkey FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?");
-	         s.setString(1, email);
-	         s.setString(2, deviceName);
-             s.setString(3, deviceModel);
-	         r = s.executeQuery();
-	         if (r.next()) {
-	            sessionKey = r.getString("server_sessionkey");
-	         }
-	     } catch (SQLException ex) {
-	         db.disconnect(c, s, r);
-	         throw ex;
-	     }
-	     db.disconnect(c, s, r);
-	     return SessionKeyManager.convertToKey(sessionKey);
+		return getKeyBundle(email, deviceName, deviceModel).getServerSessionKey();
 	}
 
 	/**
@@ -307,30 +240,159 @@ public class KeysDBManager {
      * 
      * @param email email of the user associated to the session key in the db
      * @return Secret key object
-	 * @throws SQLException 
      * @throws Exception
      */
-    public SecretKey getServerUncryptedSessionKey(String email, String deviceName, String deviceModel) throws SQLException {
+    public SecretKey getServerUncryptedSessionKey(String email, String deviceName, String deviceModel) throws Exception {
+        return getKeyBundle(email, deviceName, deviceModel).getServerUncryptedSessionKey();
+    }
+    
+    /**
+     * Return all the decoded keys of a device of the user. The keys are cached
+     * in memory, so only the first call after a key update queries the db.
+     * Concurrent calls for the same device share the same load, the other devices
+     * are never blocked
+     * 
+     * @param email email of the user
+     * @param deviceName name of the device
+     * @param deviceModel model of the device
+     * @return key bundle
+     * @throws Exception
+     */
+    public KeyBundle getKeyBundle(final String email, final String deviceName, final String deviceModel) throws Exception {
+        String id = bundleId(email, deviceName, deviceModel);
+        
+        while (true) {
+            CachedBundle cached = bundles.get(id);
+            if (cached == null) {
+                CachedBundle created = new CachedBundle(new FutureTask<KeyBundle>(new Callable<KeyBundle>() {
+                    @Override
+                    public KeyBundle call() throws Exception {
+                        return loadKeyBundle(email, deviceName, deviceModel);
+                    }
+                }));
+                cached = bundles.putIfAbsent(id, created);
+                if (cached == null) {
+                    cached = created;
+                    evict();
+                    // the load starts after the bundle is visible, so an update done meanwhile invalidates it
+                    cached.load.run();
+                }
+            }
+            
+            long version = cached.version;
+            KeyBundle bundle;
+            try {
+                bundle = cached.load.get();
+            } catch (ExecutionException e) {
+                // the next call retries the load
+                bundles.remove(id, cached);
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            
+            // the keys changed while loading, load them again
+            if (cached.version != version || bundles.get(id) != cached)
+                continue;
+            cached.lastUsed = clock.incrementAndGet();
+            return bundle;
+        }
+    }
+    
+    /**
+     * Remove from the cache the keys of a device of the user
+     * 
+     * @param email email of the user
+     * @param deviceName name of the device
+     * @param deviceModel model of the device
+     */
+    public void invalidateKeyBundle(String email, String deviceName, String deviceModel) {
+        CachedBundle cached = bundles.remove(bundleId(email, deviceName, deviceModel));
+        if (cached != null)
+            cached.version++;
+    }
+    
+    /**
+     * Remove the least recently used bundles when the cache is full
+     */
+    private static void evict() {
+        int size = bundles.size();
+        if (size <= WebServiceConsts.KEY_BUNDLE_CACHE_MAX_ENTRIES)
+            return;
+        
+        // an eighth of the entries is removed at once, so the sort is not done for every load.
+        // The use times are copied first, they change while sorting
+        long[] used = new long[size];
+        int count = 0;
+        for (CachedBundle cached : bundles.values()) {
+            if (count == used.length)
+                break;
+            used[count++] = cached.lastUsed;
+        }
+        Arrays.sort(used, 0, count);
+        int toRemove = Math.min(count, size - WebServiceConsts.KEY_BUNDLE_CACHE_MAX_ENTRIES + WebServiceConsts.KEY_BUNDLE_CACHE_MAX_ENTRIES / 8);
+        if (toRemove == 0)
+            return;
+        long threshold = used[toRemove - 1];
+        
+        for (Map.Entry<String, CachedBundle> entry : bundles.entrySet()) {
+            if (entry.getValue().lastUsed <= threshold)
+                bundles.remove(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Read from the db all the keys of a device of the user
+     * 
+     * @param email email of the user
+     * @param deviceName name of the device
+     * @param deviceModel model of the device
+     * @return key bundle
+     * @throws Exception
+     */
+    private KeyBundle loadKeyBundle(String email, String deviceName, String deviceModel) throws Exception {
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
-        String sessionKey = null;
+        String userPublicKey = null;
+        String userSessionKey = null;
+        String serverPublicKey = null;
+        String serverPrivateKey = null;
+        String serverSessionKey = null;
+        String serverUncryptedSessionKey = null;
+        
         try {
             c = db.connect();
-            s = c.prepareStatement("SELECT server_uncryptedsessionkey FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?");
+            String query = "SELECT user_publickey, user_sessionkey, server_publickey, server_privatekey, server_sessionkey, server_uncryptedsessionkey " +
+                           "FROM keys WHERE user_email = ? AND device_name = ? AND device_model = ?";
+            s = c.prepareStatement(query);
             s.setString(1, email);
             s.setString(2, deviceName);
             s.setString(3, deviceModel);
             r = s.executeQuery();
             if (r.next()) {
-               sessionKey = r.getString("server_uncryptedsessionkey");
+                userPublicKey = r.getString("user_publickey");
+                userSessionKey = r.getString("user_sessionkey");
+                serverPublicKey = r.getString("server_publickey");
+                serverPrivateKey = r.getString("server_privatekey");
+                serverSessionKey = r.getString("server_sessionkey");
+                serverUncryptedSessionKey = r.getString("server_uncryptedsessionkey");
             }
         } catch (SQLException ex) {
             db.disconnect(c, s, r);
             throw ex;
         }
         db.disconnect(c, s, r);
-        return SessionKeyManager.convertToKey(sessionKey);
+        
+        return new KeyBundle(userPublicKey == null ? null : PublicKeyManager.convertToKey(userPublicKey),
+                             userSessionKey == null ? null : SessionKeyManager.convertToKey(userSessionKey),
+                             serverPublicKey == null ? null : PublicKeyManager.convertToKey(serverPublicKey),
+                             serverPrivateKey == null ? null : PrivateKeyManager.convertToKey(serverPrivateKey),
+                             serverSessionKey == null ? null : SessionKeyManager.convertToKey(serverSessionKey),
+                             serverUncryptedSessionKey == null ? null : SessionKeyManager.convertToKey(serverUncryptedSessionKey));
+    }
+    
+    private static String bundleId(String email, String deviceName, String deviceModel) {
+        return email + '\n' + deviceName + '\n' + deviceModel;
     }
     
     /**
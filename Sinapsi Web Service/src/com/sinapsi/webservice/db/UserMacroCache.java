@@ -0,0 +1,163 @@
+package com.sinapsi.webservice.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU cache of the serialized macro list of the users, with the revision
+ * of the macro collection the list refers to. The memory budget is bounded:
+ * when the cached lists exceed it, the least recently used ones are evicted.
+ * Every write on the macros of a user must invalidate the user's entry with the
+ * new revision: the entry is replaced by a marker of that revision, kept in the
+ * same LRU, so a list read before the write is never cached after it.
+ * A list replaces an entry only if it has a newer or the same revision
+ *
+ */
+public class UserMacroCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, CachedMacros> entries = new LinkedHashMap<Integer, CachedMacros>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Serialized macro list of a user
+     */
+    public static class CachedMacros {
+        // rough memory taken by an entry besides its json, and by an invalidation marker
+        private static final long ENTRY_BYTES = 64;
+
+        private final long revision;
+        private final String json;
+
+        private CachedMacros(long revision, String json) {
+            this.revision = revision;
+            this.json = json;
+        }
+
+        /**
+         * Return the revision of the macro collection
+         *
+         * @return revision
+         */
+        public long getRevision() {
+            return revision;
+        }
+
+        /**
+         * Return the json of the macro list
+         *
+         * @return json
+         */
+        public String getJson() {
+            return json;
+        }
+
+        private boolean isInvalidated() {
+            return json == null;
+        }
+
+        private long size() {
+            // java strings take two bytes per char
+            return ENTRY_BYTES + (json == null ? 0 : json.length() * 2L);
+        }
+    }
+
+    /**
+     * Ctor
+     *
+     * @param maxBytes memory budget of the cache
+     */
+    public UserMacroCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the cached macro list of the user
+     *
+     * @param idUser id of the user
+     * @return cached macros, null if not in cache
+     */
+    public synchronized CachedMacros get(int idUser) {
+        CachedMacros cached = entries.get(idUser);
+        if (cached == null || cached.isInvalidated()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached;
+    }
+
+    /**
+     * Add to the cache the macro list of the user, unless the cache has a newer revision
+     *
+     * @param idUser id of the user
+     * @param revision revision of the macro collection, read in the same transaction as the list
+     * @param json json of the macro list
+     * @return cached macros
+     */
+    public synchronized CachedMacros put(int idUser, long revision, String json) {
+        CachedMacros cached = new CachedMacros(revision, json);
+        if (cached.size() <= maxBytes)
+            replace(idUser, cached);
+        return cached;
+    }
+
+    /**
+     * Remove from the cache the macro list of the user, and refuse the lists older than the revision
+     *
+     * @param idUser id of the user
+     * @param revision revision of the macro collection after the write
+     */
+    public synchronized void invalidate(int idUser, long revision) {
+        replace(idUser, new CachedMacros(revision, null));
+    }
+
+    private void replace(int idUser, CachedMacros cached) {
+        // a list read before a write never replaces the write's marker or a newer list.
+        // At the same revision only a list replaces a marker: it was read after the write
+        CachedMacros old = entries.get(idUser);
+        if (old != null && (old.getRevision() > cached.getRevision() || 
+                            (old.getRevision() == cached.getRevision() && !(old.isInvalidated() && !cached.isInvalidated()))))
+            return;
+
+        entries.put(idUser, cached);
+        if (old != null)
+            bytes -= old.size();
+        bytes += cached.size();
+
+        // evict the least recently used lists
+        Iterator<CachedMacros> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Return the memory used by the cached lists
+     *
+     * @return bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Return the number of reads served by the cache
+     *
+     * @return hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of reads not served by the cache
+     *
+     * @return misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
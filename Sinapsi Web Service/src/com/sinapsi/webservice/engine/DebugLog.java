@@ -0,0 +1,209 @@
+package com.sinapsi.webservice.engine;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.sinapsi.webservice.system.WebServiceConsts;
+
+/**
+ * Debug log of the payloads exchanged with the clients. Every category has its own level
+ * and sampling rate, and the payloads are truncated, so the diagnostics don't write the
+ * whole macro collection on disk at every sync. The users and devices being debugged
+ * are always logged with the payload, without sampling.
+ * The debugged users and devices are read at startup from the system properties
+ * sinapsi.debug.users and sinapsi.debug.devices (comma separated), and can be changed
+ * at runtime by the admins with the /debug_log page, like the levels and sampling rates
+ *
+ */
+public class DebugLog {
+
+    /**
+     * Detail of a debug log line
+     */
+    public enum Level {
+        /**
+         * Nothing is logged
+         */
+        OFF,
+
+        /**
+         * Only what happened and the size of the payload
+         */
+        SUMMARY,
+
+        /**
+         * Also the payload, truncated
+         */
+        PAYLOAD
+    }
+
+    /**
+     * Category of the debug log, with its level and sampling rate
+     */
+    public enum Category {
+        MACRO(WebServiceLog.FILE_OUT, WebServiceConsts.DEBUG_MACRO_LEVEL, WebServiceConsts.DEBUG_MACRO_SAMPLE_RATE),
+        WEBSOCKET(WebServiceLog.WEBSOCKET_FILE_OUT, WebServiceConsts.DEBUG_WEBSOCKET_LEVEL, WebServiceConsts.DEBUG_WEBSOCKET_SAMPLE_RATE);
+
+        private final WebServiceLog log;
+        private volatile Level level;
+        private volatile double sampleRate;
+
+        private Category(String logType, Level level, double sampleRate) {
+            this.log = new WebServiceLog(logType);
+            this.level = level;
+            this.sampleRate = sampleRate;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public void setLevel(Level level) {
+            this.level = level;
+        }
+
+        /**
+         * Getter of the fraction of the events logged, from 0 to 1
+         *
+         * @return the sampling rate
+         */
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    private static final Set<String> debuggedUsers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final Set<Integer> debuggedDevices = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    static {
+        for (String email : splitProperty("sinapsi.debug.users"))
+            debuggedUsers.add(email);
+        for (String idDevice : splitProperty("sinapsi.debug.devices")) {
+            try {
+                debuggedDevices.add(Integer.parseInt(idDevice));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Tell if an event would be logged. Use it to avoid building a costly payload
+     *
+     * @param category category of the event
+     * @param email email of the user, can be null
+     * @param idDevice id of the device, can be null
+     * @return true if the event is logged
+     */
+    public static boolean isEnabled(Category category, String email, Integer idDevice) {
+        return isDebugged(email, idDevice) || category.level != Level.OFF;
+    }
+
+    /**
+     * Log an event with its payload, if the category level and the sampling allow it
+     *
+     * @param category category of the event
+     * @param email email of the user, can be null
+     * @param idDevice id of the device, can be null
+     * @param event what happened
+     * @param payload the payload, can be null
+     */
+    public static void log(Category category, String email, Integer idDevice, String event, String payload) {
+        Level level;
+        if (isDebugged(email, idDevice)) {
+            level = Level.PAYLOAD;
+        } else {
+            level = category.level;
+            if (level == Level.OFF)
+                return;
+            double rate = category.sampleRate;
+            if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)
+                return;
+        }
+
+        StringBuilder sb = new StringBuilder(128);
+        sb.append('[').append(category).append("] ").append(event);
+        if (email != null)
+            sb.append(" user=").append(email);
+        if (idDevice != null)
+            sb.append(" device=").append(idDevice);
+        if (payload != null) {
+            sb.append(" size=").append(payload.length());
+            if (level == Level.PAYLOAD)
+                sb.append(' ').append(truncate(payload, WebServiceConsts.DEBUG_PAYLOAD_MAX_CHARS));
+        }
+        category.log.log(category.log.getTime(), sb.toString());
+    }
+
+    /**
+     * Log every event of the user, with the payload
+     *
+     * @param email email of the user
+     * @param enabled true to debug the user
+     */
+    public static void setUserDebugged(String email, boolean enabled) {
+        if (enabled)
+            debuggedUsers.add(email);
+        else
+            debuggedUsers.remove(email);
+    }
+
+    /**
+     * Log every event of the device, with the payload
+     *
+     * @param idDevice id of the device
+     * @param enabled true to debug the device
+     */
+    public static void setDeviceDebugged(int idDevice, boolean enabled) {
+        if (enabled)
+            debuggedDevices.add(idDevice);
+        else
+            debuggedDevices.remove(idDevice);
+    }
+
+    /**
+     * Return the users being debugged
+     *
+     * @return emails of the users, sorted
+     */
+    public static Set<String> getDebuggedUsers() {
+        return new TreeSet<String>(debuggedUsers);
+    }
+
+    /**
+     * Return the devices being debugged
+     *
+     * @return ids of the devices, sorted
+     */
+    public static Set<Integer> getDebuggedDevices() {
+        return new TreeSet<Integer>(debuggedDevices);
+    }
+
+    private static boolean isDebugged(String email, Integer idDevice) {
+        return (email != null && debuggedUsers.contains(email)) ||
+               (idDevice != null && debuggedDevices.contains(idDevice));
+    }
+
+    private static String truncate(String payload, int maxChars) {
+        if (payload.length() <= maxChars)
+            return payload;
+        return payload.substring(0, maxChars) + "...(" + (payload.length() - maxChars) + " more chars)";
+    }
+
+    private static String[] splitProperty(String name) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty())
+            return new String[0];
+        String[] values = value.split(",");
+        for (int i = 0; i < values.length; ++i)
+            values[i] = values[i].trim();
+        return values;
+    }
+}
@@ -0,0 +1,298 @@
+package com.sinapsi.webservice.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sinapsi.webservice.system.WebServiceConsts;
+
+/**
+ * Shared asynchronous appender of a log. The callers only put the text in a lock-free
+ * queue, a single writer thread drains the queues of all the appenders in batches,
+ * with one flush per batch. A file log is rolled when the day changes, and when the
+ * file of the day gets too big it's renamed with a progressive number.
+ * When a queue is full the new text is dropped, the callers never wait.
+ * When a file can't be written the error is reported once, and the appender
+ * retries after a pause, keeping the texts queued meanwhile
+ *
+ */
+public class LogAppender {
+    private static final ConcurrentMap<String, LogAppender> appenders = new ConcurrentHashMap<String, LogAppender>();
+    private static Thread writerThread;
+    private static volatile boolean running;
+
+    private final String filePrefix;
+    private final OutputStream stream;
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    // used only by the writer thread
+    private final DateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private Writer out;
+    private String day;
+    private long bytes;
+    private boolean failing;
+    private long retryAt;
+
+    private LogAppender(String filePrefix, OutputStream stream) {
+        this.filePrefix = filePrefix;
+        this.stream = stream;
+    }
+
+    /**
+     * Return the shared appender writing on the daily files with the prefix
+     *
+     * @param filePrefix path of the files without the date, like /var/log/sinapsi/web_service.
+     * @return the appender
+     */
+    public static LogAppender forFile(String filePrefix) {
+        return get(filePrefix, new LogAppender(filePrefix, null));
+    }
+
+    /**
+     * Return the shared appender writing on the stream, like the standard output
+     *
+     * @param name name of the stream
+     * @param stream the stream
+     * @return the appender
+     */
+    public static LogAppender forStream(String name, OutputStream stream) {
+        return get(name, new LogAppender(null, stream));
+    }
+
+    private static LogAppender get(String name, LogAppender created) {
+        LogAppender appender = appenders.get(name);
+        if (appender == null) {
+            appender = appenders.putIfAbsent(name, created);
+            if (appender == null)
+                appender = created;
+        }
+        startWriter();
+        return appender;
+    }
+
+    /**
+     * Add the text to the log. The text is written later by the writer thread
+     *
+     * @param text the text, with its line separators
+     */
+    public void append(String text) {
+        if (queued.incrementAndGet() > WebServiceConsts.LOG_QUEUE_CAPACITY) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(text);
+    }
+
+    /**
+     * Return the number of texts dropped because the queue was full
+     *
+     * @return dropped texts
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Return the number of texts dropped by all the appenders
+     *
+     * @return dropped texts
+     */
+    public static long getTotalDropped() {
+        long total = 0;
+        for (LogAppender appender : appenders.values())
+            total += appender.dropped.get();
+        return total;
+    }
+
+    /**
+     * Write the queued texts of all the appenders, close the files and stop the writer thread
+     */
+    public static void shutdown() {
+        Thread thread;
+        synchronized (LogAppender.class) {
+            running = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread == null)
+            return;
+
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writerThread != null)
+            return;
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long period = TimeUnit.MILLISECONDS.toNanos(WebServiceConsts.LOG_FLUSH_MILLIS);
+                while (running) {
+                    drainAll();
+                    LockSupport.parkNanos(period);
+                }
+                // the last texts, then the files are closed
+                drainAll();
+                for (LogAppender appender : appenders.values())
+                    appender.close();
+            }
+        }, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private static void drainAll() {
+        String today = null;
+        for (LogAppender appender : appenders.values()) {
+            if (appender.queue.isEmpty())
+                continue;
+            if (today == null)
+                today = appender.dayFormat.format(new Date());
+            appender.drain(today);
+        }
+    }
+
+    /**
+     * Write all the queued texts with a single flush
+     */
+    private void drain(String today) {
+        if (failing && System.nanoTime() - retryAt < 0)
+            return;
+        try {
+            String text;
+            while ((text = queue.peek()) != null) {
+                open(today);
+                queue.poll();
+                queued.decrementAndGet();
+                out.write(text);
+                if (filePrefix != null) {
+                    // the size of the file, not the number of chars
+                    bytes += utf8Length(text);
+                    if (bytes >= WebServiceConsts.LOG_MAX_FILE_BYTES)
+                        roll();
+                }
+            }
+            if (out != null)
+                out.flush();
+            if (failing) {
+                failing = false;
+                System.err.println("Log " + (filePrefix != null ? filePrefix : "stream") + " writable again");
+            }
+        } catch (IOException e) {
+            // reported once, then retried after a pause
+            if (!failing) {
+                failing = true;
+                System.err.println("Can't write the log " + (filePrefix != null ? filePrefix : "stream") + ": " + e + ", retrying every " + 
+                                   WebServiceConsts.LOG_RETRY_MILLIS + " ms");
+            }
+            retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WebServiceConsts.LOG_RETRY_MILLIS);
+            close();
+        }
+    }
+
+    /**
+     * Return the number of bytes of the text encoded in UTF-8
+     */
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char ch = text.charAt(i);
+            if (ch < 0x80) {
+                length += 1;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                ++i;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Open the file of the day, closing the one of the previous day
+     */
+    private void open(String today) throws IOException {
+        if (out != null && (filePrefix == null || today.equals(day)))
+            return;
+        close();
+
+        if (filePrefix == null) {
+            out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            return;
+        }
+
+        File file = new File(filePrefix + today + ".log");
+        // the log folder may not exist yet, like on the first deploy
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("Can't create the folder " + dir);
+        file.createNewFile();
+        file.setWritable(true, false);
+        file.setReadable(true, false);
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8),
+                                 WebServiceConsts.LOG_BUFFER_CHARS);
+        day = today;
+        bytes = file.length();
+    }
+
+    /**
+     * Rename the full file of the day with the first free progressive number,
+     * the next text opens a new file
+     */
+    private void roll() throws IOException {
+        String rolledDay = day;
+        close();
+        File current = new File(filePrefix + rolledDay + ".log");
+        for (int i = 1; ; ++i) {
+            File rolled = new File(filePrefix + rolledDay + "." + i + ".log");
+            if (!rolled.exists()) {
+                if (!current.renameTo(rolled))
+                    throw new IOException("Can't roll " + current);
+                return;
+            }
+        }
+    }
+
+    private void close() {
+        if (out == null)
+            return;
+        try {
+            // the standard streams stay open
+            if (filePrefix == null)
+                out.flush();
+            else
+                out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+        day = null;
+    }
+}
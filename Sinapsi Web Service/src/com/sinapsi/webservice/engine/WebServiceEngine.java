@@ -1,6 +1,5 @@
 package com.sinapsi.webservice.engine;
 
-import com.google.gson.Gson;
 import com.sinapsi.engine.ComponentFactory;
 import com.sinapsi.engine.MacroEngine;
 import com.sinapsi.engine.SinapsiVersions;
@@ -19,18 +18,18 @@ import com.sinapsi.model.FactoryModelInterface;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
 import com.sinapsi.model.impl.FactoryModel;
+import com.sinapsi.model.impl.Macro;
 import com.sinapsi.webservice.db.DeviceDBManager;
 import com.sinapsi.webservice.db.EngineDBManager;
 import com.sinapsi.webservice.engine.components.ActionSendEmail;
 import com.sinapsi.webservice.engine.components.TriggerEmailReceived;
 import com.sinapsi.webservice.engine.system.EmailAdapter;
 import com.sinapsi.webservice.websocket.Server;
-import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
-import com.sinapsi.webshared.wsproto.WebSocketMessage;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Web Service engine
@@ -45,6 +44,10 @@ public class WebServiceEngine {
     private Server wsserver;
     private WebServiceLog actionlog = new WebServiceLog(WebServiceLog.ACTION_LOG_FILE);
     
+    // executions continued on the cloud or sent to the devices, for the metrics
+    private final AtomicLong continuationsExecuted = new AtomicLong(0);
+    private final AtomicLong continuationsForwarded = new AtomicLong(0);
+    
     public static final String DEFAULT_WEB_SERVICE_DEVICE_NAME = "Cloud";
     public static final String DEFAULT_WEB_SERVICE_DEVICE_MODEL = "Sinapsi";
     public static final String DEFAULT_WEB_SERVICE_DEVICE_TYPE = "Web";
@@ -115,6 +118,7 @@ public class WebServiceEngine {
         WebExecutionInterface webExecutionInterface = new WebExecutionInterface() {
             @Override
             public void continueExecutionOnDevice(ExecutionInterface ei, DeviceInterface dev) {
+                continuationsForwarded.incrementAndGet();
             	 
                 RemoteExecutionDescriptor red = new RemoteExecutionDescriptor(
                         ei.getMacro().getId(),
@@ -122,10 +126,10 @@ public class WebServiceEngine {
                         ei.getExecutionStackIndexes());
 
                 //call the websocket server passing the red object, device target and sender device
-                Gson gson = new Gson();
-                
-                String redMessage = gson.toJson(red);
-                wsserver.send(dev.getId(), gson.toJson(new WebSocketMessage(SinapsiMessageTypes.REMOTE_EXECUTION_DESCRIPTOR, redMessage)));                            
+                if(Macro.ENQUEUE_CONTINUE_REQUEST.equals(ei.getMacro().getExecutionFailurePolicy()))
+                    wsserver.enqueueRemoteExecution(dev.getId(), red);
+                else
+                    wsserver.sendRemoteExecution(dev.getId(), red);
             }
         };
 
@@ -217,4 +221,43 @@ public class WebServiceEngine {
     public MacroEngine getEngineForUser(UserInterface u) {
         return engines.get(u.getId());
     }
+
+    /**
+     * Continue on the cloud a macro started on a device
+     * 
+     * @param u user
+     * @param red the state of the execution
+     * @throws MissingMacroException
+     */
+    public void continueMacro(UserInterface u, RemoteExecutionDescriptor red) throws MacroEngine.MissingMacroException {
+        continuationsExecuted.incrementAndGet();
+        getEngineForUser(u).continueMacro(red);
+    }
+
+    /**
+     * Return the number of the macro engines of the users
+     * 
+     * @return number of engines
+     */
+    public int getEngineCount() {
+        return engines.size();
+    }
+
+    /**
+     * Return the number of executions continued on the cloud
+     * 
+     * @return continued executions
+     */
+    public long getContinuationsExecuted() {
+        return continuationsExecuted.get();
+    }
+
+    /**
+     * Return the number of executions sent to continue on a device
+     * 
+     * @return forwarded executions
+     */
+    public long getContinuationsForwarded() {
+        return continuationsForwarded.get();
+    }
 }
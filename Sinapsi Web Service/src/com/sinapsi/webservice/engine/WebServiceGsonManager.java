@@ -2,28 +2,47 @@ package com.sinapsi.webservice.engine;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.InstanceCreator;
+import com.google.gson.stream.JsonReader;
 import com.sinapsi.engine.ComponentFactory;
 import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
 import com.sinapsi.model.impl.Device;
-import com.sinapsi.model.impl.FactoryModel;
 import com.sinapsi.model.impl.Macro;
 import com.sinapsi.model.impl.User;
 import com.sinapsi.webshared.ComponentFactoryProvider;
+import com.sinapsi.webshared.MacroConsumer;
 import com.sinapsi.webshared.gson.DeviceInterfaceTypeAdapter;
 import com.sinapsi.webshared.gson.MacroTypeAdapter;
 import com.sinapsi.webshared.gson.UserInterfaceTypeAdapter;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Type;
 
 /**
- * Manager used to easily initialize Gson object on Sinapsi Web Service
+ * Manager of the Gson object of Sinapsi Web Service. A single Gson with all the
+ * type adapters is shared by the whole process, so the reflective adapters are built
+ * only once. The macros are read with the component factory of their user, bound to
+ * the thread only for the time of the deserialization
  */
 public class WebServiceGsonManager {
 
-	
+	// component factory of the user whose macros are being read by the thread
+	private static final ThreadLocal<ComponentFactory> boundComponentFactory = new ThreadLocal<ComponentFactory>();
+
+	private static final MacroTypeAdapter macroTypeAdapter = new MacroTypeAdapter(new ComponentFactoryProvider() {
+		@Override
+		public ComponentFactory getComponentFactory() {
+			ComponentFactory componentFactory = boundComponentFactory.get();
+			if (componentFactory == null)
+				throw new IllegalStateException("Macros must be read with fromJsonForUser or readMacrosForUser");
+			return componentFactory;
+		}
+	});
+
+	private static final Gson gson = createGson();
+
 	private WebServiceEngine webServiceEngine;
 
 
@@ -33,26 +52,49 @@ public class WebServiceGsonManager {
 	}
 
 	/**
-	 * This will generate a gson object with all the required type adapters
+	 * Return the shared gson object, with all the required type adapters.
+	 * To read macros use fromJsonForUser
+	 *
+	 * @return the gson object
+	 */
+	public static Gson getGson() {
+		return gson;
+	}
+
+	/**
+	 * Read the json with the shared gson object, creating the components of the macros
+	 * with the component factory of the user
 	 *
 	 * @param userId the user id
-	 * @return a gson object
+	 * @param json the json
+	 * @param type type of the object
+	 * @return the object
 	 */
-	public Gson getGsonForUser(final int userId) {
-
-		ComponentFactoryProvider cfProvider = new ComponentFactoryProvider() {
-			@Override
-			public ComponentFactory getComponentFactory() {
-				return webServiceEngine.getComponentFactoryForUser(userId);
-			}
-		};
-
-		Gson gson = defaultSinapsiGsonBuilder()	
-				.registerTypeAdapter(MacroInterface.class, new MacroTypeAdapter(cfProvider))
-				.registerTypeAdapter(Macro.class, new MacroTypeAdapter(cfProvider))
-				.create();
+	public <T> T fromJsonForUser(int userId, String json, Type type) {
+		ComponentFactory previous = bind(userId);
+		try {
+			return gson.fromJson(json, type);
+		} finally {
+			restore(previous);
+		}
+	}
 
-		return gson;
+	/**
+	 * Read a json array of macros of the user, passing every macro to the consumer
+	 * as soon as it's read, without building the list
+	 *
+	 * @param userId the user id
+	 * @param json reader of the json array
+	 * @param consumer the consumer of the macros
+	 * @throws IOException
+	 */
+	public void readMacrosForUser(int userId, Reader json, MacroConsumer consumer) throws IOException {
+		ComponentFactory previous = bind(userId);
+		try {
+			macroTypeAdapter.readMacros(new JsonReader(json), consumer);
+		} finally {
+			restore(previous);
+		}
 	}
 
 	public static GsonBuilder defaultSinapsiGsonBuilder(){
@@ -62,4 +104,24 @@ public class WebServiceGsonManager {
 			.registerTypeAdapter(User.class, new UserInterfaceTypeAdapter())
 			.registerTypeAdapter(UserInterface.class, new UserInterfaceTypeAdapter());
 	}
+
+	private ComponentFactory bind(int userId) {
+		ComponentFactory previous = boundComponentFactory.get();
+		boundComponentFactory.set(webServiceEngine.getComponentFactoryForUser(userId));
+		return previous;
+	}
+
+	private static void restore(ComponentFactory previous) {
+		if (previous == null)
+			boundComponentFactory.remove();
+		else
+			boundComponentFactory.set(previous);
+	}
+
+	private static Gson createGson() {
+		return defaultSinapsiGsonBuilder()
+				.registerTypeAdapter(MacroInterface.class, macroTypeAdapter)
+				.registerTypeAdapter(Macro.class, macroTypeAdapter)
+				.create();
+	}
 }
@@ -1,18 +1,12 @@
 package com.sinapsi.webservice.engine;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
- * Utility Log class for Web Service
+ * Utility Log class for Web Service. The instances are cheap, every log
+ * is written by a shared asynchronous appender
  * @author Aleph0
  *
  */
@@ -24,18 +18,23 @@ public class WebServiceLog {
     public static final String SERVLET_CONTEXT_FILE_OUT = "SERVLET_CONTEXT_FILE_OUT";
     public static final String ACTION_LOG_FILE = "ACTION_LOG_FILE";
     
-    private DateFormat dateFormatLog = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    private BufferedWriter logger;
+    private static final String LOG_DIR = "/var/log/sinapsi/";
+    
+    // SimpleDateFormat is not thread safe
+    private static final ThreadLocal<DateFormat> dateFormatLog = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        }
+    };
+    
+    private LogAppender logger;
     
     /**
      * Default ctor. it use standard output
      */
     public WebServiceLog() {
-        try {
-            logger = new BufferedWriter(openFile(STANDARD_OUT));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        logger = getAppender(STANDARD_OUT);
     }
     
     /**
@@ -44,11 +43,7 @@ public class WebServiceLog {
      * @param filename
      */
     public WebServiceLog(String type) {
-        try {
-            logger = new BufferedWriter(openFile(type));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        logger = getAppender(type);
     }
     
     /**
@@ -57,12 +52,7 @@ public class WebServiceLog {
      * @param msg message
      */
     public void log(String msg) {
-        try {
-            logger.write(msg);
-            logger.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        logger.append(msg);
     }
     
     /**
@@ -72,12 +62,7 @@ public class WebServiceLog {
      * @param msg message log
      */
     public void log(String tag, String msg) {
-        try {
-            logger.write(tag + "  " + msg + '\n');
-            logger.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        logger.append(tag + "  " + msg + '\n');
     }
     
     /**
@@ -86,7 +71,7 @@ public class WebServiceLog {
      * @return String
      */
     public String getTime() {
-        return dateFormatLog.format(new Date());
+        return dateFormatLog.get().format(new Date());
     }
     
     /**
@@ -95,70 +80,37 @@ public class WebServiceLog {
      * @param type
      */
     public void setWriter(String type) {
-        try {
-            logger = null;
-            logger = new BufferedWriter(openFile(type));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        logger = getAppender(type);
     }
+    
     /**
-     * If filename is null use standard output for log
+     * Return the shared appender of the log type, the file ones are rolled daily
      * 
-     * @param filename output filename
-     * @return
-     * @throws IOException 
+     * @param type type of log
+     * @return the appender
      */
-    private static Writer openFile(String type) throws IOException {
+    private static LogAppender getAppender(String type) {
         switch (type) {
             case STANDARD_OUT:
-                return new OutputStreamWriter(System.out);
+                return LogAppender.forStream(STANDARD_OUT, System.out);
             
             case STANDARD_ERR_OUT:
-                return new OutputStreamWriter(System.err);
+                return LogAppender.forStream(STANDARD_ERR_OUT, System.err);
                 
-            case FILE_OUT: {
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                Date date = new Date();
-                File file = new File("/var/log/sinapsi/web_service." + dateFormat.format(date) + ".log");
-                file.createNewFile();
-                file.setWritable(true, false);
-                file.setReadable(true, false);
-                return new PrintWriter(new FileOutputStream(file, true));          
-            }
+            case FILE_OUT:
+                return LogAppender.forFile(LOG_DIR + "web_service.");
             
-            case WEBSOCKET_FILE_OUT: {
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                Date date = new Date();
-                File file = new File("/var/log/sinapsi/web_socket." + dateFormat.format(date) + ".log");
-                file.createNewFile();
-                file.setWritable(true, false);
-                file.setReadable(true, false);
-                return new PrintWriter(new FileOutputStream(file, true));          
-            }
+            case WEBSOCKET_FILE_OUT:
+                return LogAppender.forFile(LOG_DIR + "web_socket.");
                 
-            case SERVLET_CONTEXT_FILE_OUT: {
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                Date date = new Date();
-                File file = new File("/var/log/sinapsi/servlet_context." + dateFormat.format(date) + ".log");
-                file.createNewFile();
-                file.setWritable(true, false);
-                file.setReadable(true, false);
-                return new PrintWriter(new FileOutputStream(file, true));  
-            }
+            case SERVLET_CONTEXT_FILE_OUT:
+                return LogAppender.forFile(LOG_DIR + "servlet_context.");
             
-            case ACTION_LOG_FILE: {
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                Date date = new Date();
-                File file = new File("/var/log/sinapsi/action_log." + dateFormat.format(date) + ".log");
-                file.createNewFile();
-                file.setWritable(true, false);
-                file.setReadable(true, false);
-                return new PrintWriter(new FileOutputStream(file, true)); 
-            }
+            case ACTION_LOG_FILE:
+                return LogAppender.forFile(LOG_DIR + "action_log.");
                 
             default:
-                return new OutputStreamWriter(System.out);        
+                return LogAppender.forStream(STANDARD_OUT, System.out);
         } 
     }
 }
@@ -0,0 +1,255 @@
+package com.sinapsi.webservice.security;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.SecretKey;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.sinapsi.model.DeviceInterface;
+import com.sinapsi.webservice.db.DeviceDBManager;
+import com.sinapsi.webservice.db.KeyBundle;
+import com.sinapsi.webservice.db.KeysDBManager;
+import com.sinapsi.webservice.system.WebServiceConsts;
+
+/**
+ * Decrypt the body of the requests and encrypt the body of the responses
+ * of the encrypted servlets, so the servlets read and write plain json.
+ * The keys are taken from the email, name and model parameters of the request,
+ * or from the from_device parameter. The body of an async request is completed
+ * when the worker closes the response writer
+ *
+ */
+@WebFilter(urlPatterns = {"/macro", "/devices", "/available_components", "/remote_macro", "/bootstrap"}, asyncSupported = true)
+public class EncryptionFilter implements Filter {
+    private ServletContext context;
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        context = config.getServletContext();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!WebServiceConsts.ENCRYPTED_CONNECTION || !(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        KeyBundle keys = null;
+        try {
+            keys = getKeys(httpRequest);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // a plain response must never be sent to a device without keys
+        if (keys == null || keys.getUserSessionKey() == null || keys.getServerUncryptedSessionKey() == null) {
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        EncryptedResponse encryptedResponse = new EncryptedResponse(httpResponse, keys.getServerUncryptedSessionKey());
+        boolean async = false;
+        try {
+            chain.doFilter(new DecryptedRequest(httpRequest, keys), encryptedResponse);
+            async = httpRequest.isAsyncStarted();
+        } finally {
+            // a worker thread may still be writing the body
+            if (!async)
+                encryptedResponse.finish();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Return the keys of the device that sent the request
+     *
+     * @param request http servlet request
+     * @return key bundle, null if the device is unknown
+     * @throws Exception
+     */
+    private KeyBundle getKeys(HttpServletRequest request) throws Exception {
+        KeysDBManager keysManager = (KeysDBManager) context.getAttribute("keys_db");
+        String fromDevice = request.getParameter("from_device");
+
+        if (fromDevice != null) {
+            DeviceDBManager deviceManager = (DeviceDBManager) context.getAttribute("devices_db");
+            int idDevice = Integer.parseInt(fromDevice);
+            DeviceInterface device = deviceManager.getDevice(idDevice);
+            if (device == null)
+                return null;
+            return keysManager.getKeyBundle(deviceManager.getUserEmail(idDevice), device.getName(), device.getModel());
+        }
+
+        String email = request.getParameter("email");
+        String name = request.getParameter("name");
+        String model = request.getParameter("model");
+        if (email == null || name == null || model == null)
+            return null;
+        return keysManager.getKeyBundle(email, name, model);
+    }
+
+    /**
+     * Request with the body decrypted while it's read
+     */
+    private static class DecryptedRequest extends HttpServletRequestWrapper {
+        private final KeyBundle keys;
+        private ServletInputStream input;
+        private BufferedReader reader;
+
+        DecryptedRequest(HttpServletRequest request, KeyBundle keys) {
+            super(request);
+            this.keys = keys;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (input == null) {
+                SecretKey key;
+                try {
+                    key = keys.getUserUncryptedSessionKey();
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+
+                final InputStream plain = SessionCipher.decrypting(super.getInputStream(), key);
+                input = new ServletInputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        return plain.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return plain.read(b, off, len);
+                    }
+                };
+            }
+            return input;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null)
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+            return reader;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+    }
+
+    /**
+     * Response with the body encrypted while it's written. The encryption
+     * starts at the first write, so an empty body stays empty
+     */
+    private static class EncryptedResponse extends HttpServletResponseWrapper {
+        private final SecretKey key;
+        private OutputStream plain;
+        private ServletOutputStream output;
+        private PrintWriter writer;
+        private boolean finished = false;
+
+        EncryptedResponse(HttpServletResponse response, SecretKey key) {
+            super(response);
+            this.key = key;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (output == null) {
+                output = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        plain().write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        plain().write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if (plain != null)
+                            plain.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        finish();
+                    }
+                };
+            }
+            return output;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null)
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8));
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            // the length of the encrypted body is unknown
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null)
+                writer.flush();
+            super.flushBuffer();
+        }
+
+        /**
+         * Complete the encrypted body
+         *
+         * @throws IOException
+         */
+        synchronized void finish() throws IOException {
+            if (finished)
+                return;
+            finished = true;
+            if (writer != null)
+                writer.flush();
+            if (plain != null)
+                plain.close();
+        }
+
+        private OutputStream plain() throws IOException {
+            if (plain == null)
+                plain = SessionCipher.encrypting(super.getOutputStream(), key);
+            return plain;
+        }
+    }
+}
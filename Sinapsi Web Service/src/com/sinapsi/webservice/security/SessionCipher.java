@@ -0,0 +1,188 @@
+package com.sinapsi.webservice.security;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.binary.Base64OutputStream;
+
+/**
+ * Streaming version of the bgp session encryption. The wire format is the one
+ * of bgp Encrypt/Decrypt: base64(iv) + ":" + base64(AES-CBC(gzip(utf-8 text))),
+ * but the data goes through the cipher while it's read or written, without
+ * building the intermediate strings. The AES ciphers are reused by each thread
+ *
+ */
+public final class SessionCipher {
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int MAX_IV_LENGTH = 64;
+
+    private static final ThreadLocal<Cipher> decrypters = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return newCipher();
+        }
+    };
+
+    private static final ThreadLocal<Cipher> encrypters = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return newCipher();
+        }
+    };
+
+    private SessionCipher() {
+    }
+
+    /**
+     * Return a stream of the plain bytes of an encrypted message.
+     * The encrypted message can also be quoted as a json string
+     *
+     * @param in stream of the encrypted message
+     * @param key uncrypted session key of the sender
+     * @return plain stream
+     * @throws IOException
+     */
+    public static InputStream decrypting(InputStream in, SecretKey key) throws IOException {
+        InputStream encoded = new JsonStringInputStream(new BufferedInputStream(in));
+
+        // the iv is before the ':' separator
+        ByteArrayOutputStream iv = new ByteArrayOutputStream();
+        int c;
+        while ((c = encoded.read()) != ':') {
+            if (c == -1 || iv.size() > MAX_IV_LENGTH)
+                throw new IOException("Malformed encrypted message");
+            iv.write(c);
+        }
+
+        Cipher cipher = decrypters.get();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(Base64.decodeBase64(iv.toByteArray())));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        return new GZIPInputStream(new CipherInputStream(new Base64InputStream(encoded, false), cipher));
+    }
+
+    /**
+     * Return a stream that encrypts the bytes written in it. The encrypted
+     * message is complete only when the returned stream is closed
+     *
+     * @param out stream of the encrypted message
+     * @param key uncrypted session key of the receiver
+     * @return plain stream
+     * @throws IOException
+     */
+    public static OutputStream encrypting(OutputStream out, SecretKey key) throws IOException {
+        Cipher cipher = encrypters.get();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+
+        out.write(Base64.encodeBase64(cipher.getIV()));
+        out.write(':');
+        return new GZIPOutputStream(new CipherOutputStream(new Base64OutputStream(out, true, 0, null), cipher));
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stream of the content of a json string literal. If the stream
+     * doesn't start with a quote, it's returned as it is
+     */
+    private static class JsonStringInputStream extends InputStream {
+        private final InputStream in;
+        private boolean started = false;
+        private boolean quoted = false;
+        private boolean ended = false;
+
+        JsonStringInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (ended)
+                return -1;
+
+            int c = in.read();
+            if (!started) {
+                while (c != -1 && Character.isWhitespace(c))
+                    c = in.read();
+                started = true;
+                quoted = c == '"';
+                if (quoted)
+                    c = in.read();
+            }
+            if (!quoted)
+                return c;
+
+            if (c == -1 || c == '"') {
+                ended = true;
+                return -1;
+            }
+            if (c != '\\')
+                return c;
+
+            c = in.read();
+            switch (c) {
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'u': {
+                    byte[] hex = new byte[4];
+                    for (int i = 0; i < hex.length; ++i) {
+                        int h = in.read();
+                        if (h == -1)
+                            throw new IOException("Malformed json string");
+                        hex[i] = (byte) h;
+                    }
+                    try {
+                        return Integer.parseInt(new String(hex, StandardCharsets.US_ASCII), 16) & 0xFF;
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Malformed json string");
+                    }
+                }
+                case -1:
+                    throw new IOException("Malformed json string");
+                default:
+                    // \" \\ and \/
+                    return c;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
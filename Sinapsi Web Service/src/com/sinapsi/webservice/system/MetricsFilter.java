@@ -0,0 +1,166 @@
+package com.sinapsi.webservice.system;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Record the latency, the status and the payload sizes of every request in the
+ * request metrics of the context. The latency of an async request is taken when
+ * the worker completes it, not when the container thread is released
+ *
+ */
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public class MetricsFilter implements Filter {
+    private RequestMetrics metrics;
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        metrics = (RequestMetrics) config.getServletContext().getAttribute("request_metrics");
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (metrics == null || !(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final CountingResponse countingResponse = new CountingResponse((HttpServletResponse) response);
+        boolean async = false;
+        try {
+            chain.doFilter(request, countingResponse);
+            async = httpRequest.isAsyncStarted();
+        } finally {
+            if (!async) {
+                countingResponse.flushWriter();
+                record(httpRequest, countingResponse, start);
+            }
+        }
+
+        if (async) {
+            // the request is completed by a worker thread
+            httpRequest.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    record(httpRequest, countingResponse, start);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private void record(HttpServletRequest request, CountingResponse response, long start) {
+        metrics.record(getEndpoint(request),
+                       System.nanoTime() - start,
+                       response.getStatus(),
+                       Math.max(0, request.getContentLength()),
+                       response.bytes);
+    }
+
+    /**
+     * Return the name of the endpoint of the request: the servlet path,
+     * with the static resources counted together
+     */
+    private static String getEndpoint(HttpServletRequest request) {
+        String path = request.getServletPath();
+        if (path == null || path.isEmpty())
+            return "/";
+        if (path.startsWith("/assets/"))
+            return "/assets";
+        return path;
+    }
+
+    /**
+     * Response that counts the bytes of the body
+     */
+    private static class CountingResponse extends HttpServletResponseWrapper {
+        private ServletOutputStream output;
+        private PrintWriter writer;
+        private volatile long bytes = 0;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (output == null) {
+                final ServletOutputStream wrapped = super.getOutputStream();
+                output = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        wrapped.write(b);
+                        ++bytes;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        wrapped.write(b, off, len);
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        wrapped.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        wrapped.close();
+                    }
+                };
+            }
+            return output;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null)
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushWriter();
+            super.flushBuffer();
+        }
+
+        private void flushWriter() {
+            if (writer != null)
+                writer.flush();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.sinapsi.webservice.system;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, status codes and payload sizes of the requests, per endpoint.
+ * The latencies are counted in a log-linear histogram in microseconds, eight buckets
+ * for every power of two, so a percentile is known with an error below 13% using
+ * a fixed amount of memory and without locks
+ *
+ */
+public class RequestMetrics {
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + 1;
+
+    /**
+     * Name of the endpoints beyond the maximum number
+     */
+    public static final String OTHER_ENDPOINT = "other";
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final int maxEndpoints;
+
+    /**
+     * Metrics of the requests to an endpoint
+     */
+    public static class Endpoint {
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray statuses = new AtomicLongArray(6);
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalMicros = new AtomicLong(0);
+        private final AtomicLong maxMicros = new AtomicLong(0);
+        private final AtomicLong bytesIn = new AtomicLong(0);
+        private final AtomicLong bytesOut = new AtomicLong(0);
+
+        private Endpoint(String name) {
+            this.name = name;
+        }
+
+        private void record(long micros, int status, long in, long out) {
+            buckets.incrementAndGet(bucketOf(micros));
+            statuses.incrementAndGet(Math.max(0, Math.min(5, status / 100)));
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            bytesIn.addAndGet(in);
+            bytesOut.addAndGet(out);
+
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros))
+                max = maxMicros.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Return the latency below which is the fraction of the requests
+         *
+         * @param fraction fraction of the requests, from 0 to 1, like 0.99
+         * @return the upper bound of the latency, in microseconds
+         */
+        public long getPercentile(double fraction) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0)
+                return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i), getMaxMicros());
+            }
+            return getMaxMicros();
+        }
+
+        /**
+         * Getter of the mean latency
+         *
+         * @return mean latency, in microseconds
+         */
+        public long getMeanMicros() {
+            long n = count.get();
+            return n == 0 ? 0 : totalMicros.get() / n;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros.get();
+        }
+
+        /**
+         * Return the number of responses with a status of the class
+         *
+         * @param statusClass class of the status, from 1 (1xx) to 5 (5xx)
+         * @return number of responses
+         */
+        public long getStatusCount(int statusClass) {
+            return statuses.get(statusClass);
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+    }
+
+    /**
+     * Ctor
+     *
+     * @param maxEndpoints maximum number of endpoints, the requests to the others are
+     *        counted together
+     */
+    public RequestMetrics(int maxEndpoints) {
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    /**
+     * Record a completed request
+     *
+     * @param endpoint name of the endpoint, like the servlet path
+     * @param nanos time from the request to the completion of the response
+     * @param status http status of the response
+     * @param bytesIn bytes of the request body
+     * @param bytesOut bytes of the response body
+     */
+    public void record(String endpoint, long nanos, int status, long bytesIn, long bytesOut) {
+        getEndpoint(endpoint).record(TimeUnit.NANOSECONDS.toMicros(nanos), status, bytesIn, bytesOut);
+    }
+
+    /**
+     * Return the metrics of all the endpoints, ordered by name
+     *
+     * @return the endpoints
+     */
+    public List<Endpoint> getEndpoints() {
+        List<Endpoint> result = new ArrayList<Endpoint>(endpoints.values());
+        Collections.sort(result, new Comparator<Endpoint>() {
+            @Override
+            public int compare(Endpoint a, Endpoint b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+        return result;
+    }
+
+    private Endpoint getEndpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint != null)
+            return endpoint;
+
+        // the unknown paths must not grow the map without limits
+        if (endpoints.size() >= maxEndpoints)
+            name = OTHER_ENDPOINT;
+        Endpoint created = new Endpoint(name);
+        endpoint = endpoints.putIfAbsent(name, created);
+        return endpoint != null ? endpoint : created;
+    }
+
+    /**
+     * Return the bucket of the latency: the values below SUB_BUCKETS have a bucket
+     * each, the others are split in SUB_BUCKETS buckets for every power of two
+     */
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) Math.max(0, micros);
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Return the greatest latency of the bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        if (bucket == BUCKETS - 1)
+            return Long.MAX_VALUE;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -1,9 +1,102 @@
 package com.sinapsi.webservice.system;
 
+import com.sinapsi.webservice.engine.DebugLog.Level;
+import com.sinapsi.webservice.websocket.OutboundQueue.OverflowPolicy;
+
 /**
  * Web Service consts class
  *
  */
 public class WebServiceConsts {
 	public static final boolean ENCRYPTED_CONNECTION = true;
+	
+	// memory budget of the per-user cache of the serialized macro lists
+	public static final long MACRO_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+	
+	// macro change log: revisions kept per user, and revisions between two prunings.
+	// A client older than the kept revisions gets a full snapshot
+	public static final long MACRO_CHANGELOG_RETAINED_REVISIONS = 1000;
+	public static final long MACRO_CHANGELOG_PRUNE_EVERY = 100;
+	// first key of the advisory lock taken when the first revision of a user is inserted
+	public static final int MACRO_REVISION_LOCK_CLASS = 0x534D52;
+	
+	// pool of pre-generated RSA key pairs used by the login handshake
+	public static final int KEY_PAIR_SIZE = 1024;
+	public static final int KEY_POOL_CAPACITY = 64;
+	public static final int KEY_POOL_LOW_WATER_MARK = 16;
+	public static final int KEY_POOL_REFILL_THREADS = 2;
+	
+	// decoded key bundles kept in memory, the least recently used ones are evicted
+	public static final int KEY_BUNDLE_CACHE_MAX_ENTRIES = 4096;
+	
+	// worker pools of the async servlets: the db pool is sized on the db connections,
+	// the cpu pool on the cores. A full queue makes the request fail with a 503
+	public static final int WORKER_DB_THREADS = 16;
+	public static final int WORKER_DB_QUEUE = 64;
+	public static final int WORKER_CPU_THREADS = Runtime.getRuntime().availableProcessors();
+	public static final int WORKER_CPU_QUEUE = 32;
+	public static final long WORKER_TIMEOUT_MILLIS = 30 * 1000;
+	
+	// request metrics: endpoints with their own latency histogram, the others are counted together
+	public static final int METRICS_MAX_ENDPOINTS = 64;
+	
+	// shared asynchronous log appenders: queued lines per log, flush period of the writer
+	// thread, size after which the file of the day is rolled and pause before writing again a failed file
+	public static final int LOG_QUEUE_CAPACITY = 64 * 1024;
+	public static final long LOG_FLUSH_MILLIS = 200;
+	public static final int LOG_BUFFER_CHARS = 64 * 1024;
+	public static final long LOG_MAX_FILE_BYTES = 64L * 1024 * 1024;
+	public static final long LOG_RETRY_MILLIS = 10 * 1000;
+	
+	// folder of the tomcat access logs counted by the dashboard
+	public static final String ACCESS_LOG_DIR = "/var/log/tomcat7";
+	
+	// log viewer of the dashboard: lines per page, one line offset indexed every stride lines,
+	// indexes kept in memory and bytes read at most by a live tail request
+	public static final int LOG_VIEWER_PAGE_LINES = 500;
+	public static final int LOG_VIEWER_INDEX_STRIDE = 1024;
+	public static final int LOG_VIEWER_MAX_INDEXES = 32;
+	public static final int LOG_VIEWER_READ_BUFFER = 64 * 1024;
+	public static final long LOG_VIEWER_TAIL_MAX_BYTES = 256 * 1024;
+	public static final long LOG_VIEWER_TAIL_POLL_MILLIS = 2000;
+	
+	// payload debug log: level and fraction of the events logged per category, the debugged
+	// users and devices are always logged with the payload. The payloads are truncated
+	public static final Level DEBUG_MACRO_LEVEL = Level.SUMMARY;
+	public static final double DEBUG_MACRO_SAMPLE_RATE = 0.01;
+	public static final Level DEBUG_WEBSOCKET_LEVEL = Level.SUMMARY;
+	public static final double DEBUG_WEBSOCKET_SAMPLE_RATE = 0.01;
+	public static final int DEBUG_PAYLOAD_MAX_CHARS = 2048;
+	
+	// debug output of the websocket library, very verbose
+	public static final boolean WS_LIBRARY_DEBUG = false;
+	
+	// outbound message queue of each websocket connection
+	public static final int WS_OUTBOUND_QUEUE_CAPACITY = 256;
+	public static final OverflowPolicy WS_OUTBOUND_OVERFLOW_POLICY = OverflowPolicy.COALESCE;
+	public static final int WS_DRAIN_THREADS = 2;
+	public static final long WS_DRAIN_RETRY_MILLIS = 50;
+	
+	// model update notifications carry the changed macros only up to this size
+	public static final int MODEL_UPDATE_MAX_INLINE_CHARS = 16 * 1024;
+	
+	// websocket heartbeat: every session is checked once per interval, gets a ping 
+	// when idle for half the interval and is closed after the idle timeout
+	public static final long WS_HEARTBEAT_INTERVAL_MILLIS = 30 * 1000;
+	public static final int WS_HEARTBEAT_WHEEL_SLOTS = 30;
+	public static final long WS_IDLE_TIMEOUT_MILLIS = 90 * 1000;
+	
+	// durable queue of the remote continuations for offline devices, the per-device
+	// cap is below the outbound queue capacity so a replay is never dropped.
+	// The folder is relative to catalina.base, the system property overrides it
+	public static final String WS_CONTINUATION_DIR = "sinapsi/continuations";
+	public static final String WS_CONTINUATION_DIR_PROPERTY = "sinapsi.continuation.dir";
+	public static final long WS_CONTINUATION_TTL_MILLIS = 24L * 60 * 60 * 1000;
+	public static final int WS_CONTINUATION_MAX_PER_DEVICE = 128;
+	public static final long WS_CONTINUATION_MAX_BYTES_PER_DEVICE = 1024 * 1024;
+	public static final long WS_CONTINUATION_SEGMENT_BYTES = 256 * 1024;
+	
+	// bearer token accepted by the admin pages (metrics, debug log) besides an admin session,
+	// unset to allow only the admins logged in to the dashboard
+	public static final String ADMIN_TOKEN_PROPERTY = "sinapsi.admin.token";
 }
@@ -1,5 +1,6 @@
 package com.sinapsi.webservice.system;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.Driver;
 import java.sql.DriverManager;
@@ -15,8 +16,12 @@ import com.sinapsi.webservice.db.EngineDBManager;
 import com.sinapsi.webservice.db.KeysDBManager;
 import com.sinapsi.webservice.db.UserDBManager;
 import com.sinapsi.webservice.engine.WebServiceEngine;
+import com.sinapsi.webservice.engine.LogAppender;
 import com.sinapsi.webservice.engine.WebServiceLog;
+import com.sinapsi.webservice.web.dashboard.AccessLogStats;
+import com.sinapsi.webservice.web.dashboard.LogViewer;
 import com.sinapsi.webservice.websocket.Server;
+import com.sinapsi.webshared.KeyPairPool;
 
 /**
  * Context Listener class.
@@ -33,6 +38,8 @@ public class WebServiceContexListener implements ServletContextListener {
     private EngineDBManager engineDbManager;
     private DeviceDBManager deviceDbManager;
     private Server wsserver;
+    private KeyPairPool keyPairPool;
+    private WorkerPools workers;
     private WebServiceLog sclog = new WebServiceLog(WebServiceLog.SERVLET_CONTEXT_FILE_OUT);
    
     /**
@@ -41,16 +48,24 @@ public class WebServiceContexListener implements ServletContextListener {
     @Override
     public void contextDestroyed(ServletContextEvent arg0) {
         // stop the web socket thread
-        try {
-            sclog.log(sclog.getTime(), "Stopping web socket thread");
-            wsserver.stop();
-           
-            sclog.log(sclog.getTime(), "Thread successfully stopped.");
-            
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+        // nothing was started if the deployment failed early
+        if (wsserver != null) {
+            try {
+                sclog.log(sclog.getTime(), "Stopping web socket thread");
+                wsserver.stop();
+               
+                sclog.log(sclog.getTime(), "Thread successfully stopped.");
+                
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
         }
         
+        if (keyPairPool != null)
+            keyPairPool.shutdown();
+        if (workers != null)
+            workers.shutdown();
+        
         // This manually deregisters JDBC driver, which prevents Tomcat 7 from complaining about memory leaks wrto this class
         Enumeration<Driver> drivers = DriverManager.getDrivers();
         while (drivers.hasMoreElements()) {
@@ -62,6 +77,9 @@ public class WebServiceContexListener implements ServletContextListener {
                 sclog.log(sclog.getTime(), "Error deregistering driver");
             }
         }
+        
+        // write the last logs and close the log files
+        LogAppender.shutdown();
     }
 
     /**
@@ -85,6 +103,48 @@ public class WebServiceContexListener implements ServletContextListener {
         context.setAttribute("engines_db", engineDbManager);
         context.setAttribute("devices_db", deviceDbManager);  
         
+        // load the trigger/action catalog before anything asks for it
+        try {
+            engineDbManager.loadComponentCatalog();
+            sclog.log(sclog.getTime(), "Component catalog loaded");
+        } catch (SQLException e3) {
+            sclog.log(sclog.getTime(), "Error loading the component catalog: " + e3.getMessage());
+            e3.printStackTrace();
+        }
+        
+        // the macro writes need the change log: without it the web service can't start
+        try {
+            engineDbManager.createMacroChangeLog();
+            sclog.log(sclog.getTime(), "Macro change log ready");
+        } catch (SQLException e3) {
+            sclog.log(sclog.getTime(), "Error creating the macro change log: " + e3.getMessage());
+            throw new IllegalStateException("Cannot create the macro change log schema", e3);
+        }
+        
+        // start generating the key pairs for the login handshakes
+        keyPairPool = new KeyPairPool(WebServiceConsts.KEY_PAIR_SIZE, 
+                                      WebServiceConsts.KEY_POOL_CAPACITY, 
+                                      WebServiceConsts.KEY_POOL_LOW_WATER_MARK, 
+                                      WebServiceConsts.KEY_POOL_REFILL_THREADS);
+        context.setAttribute("key_pool", keyPairPool);
+        
+        // worker threads of the async servlets
+        workers = new WorkerPools(WebServiceConsts.WORKER_DB_THREADS, 
+                                  WebServiceConsts.WORKER_DB_QUEUE, 
+                                  WebServiceConsts.WORKER_CPU_THREADS, 
+                                  WebServiceConsts.WORKER_CPU_QUEUE, 
+                                  WebServiceConsts.WORKER_TIMEOUT_MILLIS);
+        context.setAttribute("workers", workers);
+        
+        // latency and payload sizes of the requests, recorded by the metrics filter
+        context.setAttribute("request_metrics", new RequestMetrics(WebServiceConsts.METRICS_MAX_ENDPOINTS));
+        
+        // line counts of the access logs shown by the dashboard
+        context.setAttribute("access_log_stats", new AccessLogStats(new File(WebServiceConsts.ACCESS_LOG_DIR)));
+        
+        // line indexes of the logs browsed by the dashboard
+        context.setAttribute("log_viewer", new LogViewer());
+        
        // start  web socket server thread
         try {
             wsserver = new Server(8887);
@@ -0,0 +1,226 @@
+package com.sinapsi.webservice.system;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Bounded worker pools running the heavy servlets out of the container threads.
+ * The request is put in async mode and processed by the pool of its kind of work,
+ * so a burst of slow requests can't take all the connector threads.
+ * When the pool and its queue are full the request gets a 503 at once.
+ * A request is claimed either by its worker or by its timeout: a request timed out
+ * while queued gets a 503 and is never processed, and a running one is completed
+ * only by its worker. The timeouts run on a timer thread, not on the container threads
+ *
+ */
+public class WorkerPools {
+
+    /**
+     * Kind of work of a request
+     */
+    public enum Pool {
+        /**
+         * Work waiting mostly on the database
+         */
+        DB,
+
+        /**
+         * Work using mostly the cpu, like the engine execution
+         */
+        CPU
+    }
+
+    /**
+     * Work done by a worker thread for a request
+     */
+    public interface Work {
+        /**
+         * Process the request. The response is completed when the method returns
+         *
+         * @param request http servlet request
+         * @param response http servlet response
+         * @throws Exception
+         */
+        public void run(HttpServletRequest request, HttpServletResponse response) throws Exception;
+    }
+
+    private final ThreadPoolExecutor dbPool;
+    private final ThreadPoolExecutor cpuPool;
+    private final ScheduledThreadPoolExecutor timer;
+    private final long timeoutMillis;
+
+    /**
+     * Ctor
+     *
+     * @param dbThreads number of threads for the database work
+     * @param dbQueue max number of requests waiting for a database thread
+     * @param cpuThreads number of threads for the cpu work
+     * @param cpuQueue max number of requests waiting for a cpu thread
+     * @param timeoutMillis time after which a request still queued gets a 503
+     */
+    public WorkerPools(int dbThreads, int dbQueue, int cpuThreads, int cpuQueue, long timeoutMillis) {
+        this.dbPool = newPool("db-worker-", dbThreads, dbQueue);
+        this.cpuPool = newPool("cpu-worker-", cpuThreads, cpuQueue);
+        this.timer = new ScheduledThreadPoolExecutor(1, newThreadFactory("worker-timeout-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Process a request on a worker thread
+     *
+     * @param pool kind of work of the request
+     * @param request http servlet request
+     * @param response http servlet response
+     * @param work the work to do
+     * @throws IOException
+     */
+    public void dispatch(Pool pool, HttpServletRequest request, HttpServletResponse response, final Work work) throws IOException {
+        final AsyncContext async = request.startAsync(request, response);
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        // the worker or the timer completes the request, the container never times it out
+        async.setTimeout(0);
+
+        final ScheduledFuture<?> timeout;
+        try {
+            timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // claimed by the worker, which completes the request
+                    if (!claimed.compareAndSet(false, true))
+                        return;
+
+                    // still queued, the work will be skipped
+                    HttpServletResponse response = (HttpServletResponse) async.getResponse();
+                    try {
+                        if (!response.isCommitted()) {
+                            response.setHeader("Retry-After", "1");
+                            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        }
+                    } catch (IOException | IllegalStateException e) {
+                        // the client is gone
+                    }
+                    complete(async, null);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            async.complete();
+            return;
+        }
+
+        try {
+            (pool == Pool.DB ? dbPool : cpuPool).execute(new Runnable() {
+                @Override
+                public void run() {
+                    // the client already got a 503, a work like a push must not be applied anyway
+                    if (!claimed.compareAndSet(false, true))
+                        return;
+                    timeout.cancel(false);
+
+                    HttpServletResponse response = null;
+                    try {
+                        HttpServletRequest request = (HttpServletRequest) async.getRequest();
+                        response = (HttpServletResponse) async.getResponse();
+                        work.run(request, response);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        try {
+                            if (response != null && !response.isCommitted())
+                                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        } catch (IOException | IllegalStateException e1) {
+                            // the client is gone
+                        }
+                    } finally {
+                        complete(async, response);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // overloaded, the client should retry later
+            timeout.cancel(false);
+            if (!claimed.compareAndSet(false, true))
+                return;
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            async.complete();
+        }
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public void shutdown() {
+        dbPool.shutdownNow();
+        cpuPool.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Return the number of requests waiting for a worker thread
+     *
+     * @param pool kind of work
+     * @return queued requests
+     */
+    public int getQueued(Pool pool) {
+        return (pool == Pool.DB ? dbPool : cpuPool).getQueue().size();
+    }
+
+    /**
+     * Close the body of the response, so a wrapped response can complete it, and complete the request
+     */
+    private static void complete(AsyncContext async, HttpServletResponse response) {
+        if (response != null) {
+            try {
+                response.getWriter().close();
+            } catch (IllegalStateException | IOException e) {
+                // the servlet used the output stream, or the request timed out
+                try {
+                    response.getOutputStream().close();
+                } catch (IllegalStateException | IOException e1) {
+                    // nothing more to close
+                }
+            }
+        }
+        try {
+            async.complete();
+        } catch (IllegalStateException e) {
+            // already completed
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads, int queue) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                         new ArrayBlockingQueue<Runnable>(queue),
+                                                         newThreadFactory(name),
+                                                         new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
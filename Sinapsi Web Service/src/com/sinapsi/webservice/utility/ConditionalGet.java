@@ -0,0 +1,41 @@
+package com.sinapsi.webservice.utility;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Utility class that handles the conditional get requests with strong validators
+ *
+ */
+public class ConditionalGet {
+
+	/**
+	 * Set the validator of the response and tell if the client already has the same body.
+	 * In that case the response is a 304 without body, so the servlet doesn't have
+	 * to serialize the data (and the encryption filter has nothing to encrypt)
+	 *
+	 * @param request http servlet request
+	 * @param response http servlet response
+	 * @param validator strong validator of the body, unquoted
+	 * @return true if the response is not modified and the servlet must not write the body
+	 */
+	public static boolean notModified(HttpServletRequest request, HttpServletResponse response, String validator) {
+		String etag = "\"" + validator + "\"";
+		response.setHeader("ETag", etag);
+		// the body depends on the user, and must be validated before every use
+		response.setHeader("Cache-Control", "private, no-cache");
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch == null)
+			return false;
+
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*") || tag.equals(etag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
+			}
+		}
+		return false;
+	}
+}
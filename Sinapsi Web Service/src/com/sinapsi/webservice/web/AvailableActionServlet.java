@@ -42,7 +42,7 @@ public class AvailableActionServlet extends HttpServlet {
         KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
 
         int idDevice = Integer.parseInt(request.getParameter("device"));
 
@@ -81,7 +81,7 @@ public class AvailableActionServlet extends HttpServlet {
         KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");   
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
 
         int idDevice = Integer.parseInt(request.getParameter("device"));
        
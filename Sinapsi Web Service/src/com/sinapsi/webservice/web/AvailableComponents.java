@@ -11,8 +11,6 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.bgp.decryption.Decrypt;
-import com.bgp.encryption.Encrypt;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.sinapsi.model.DeviceInterface;
@@ -23,15 +21,15 @@ import com.sinapsi.model.impl.TriggerDescriptor;
 import com.sinapsi.utils.Pair;
 import com.sinapsi.webservice.db.DeviceDBManager;
 import com.sinapsi.webservice.db.EngineDBManager;
-import com.sinapsi.webservice.db.KeysDBManager;
 import com.sinapsi.webservice.engine.WebServiceGsonManager;
-import com.sinapsi.webservice.system.WebServiceConsts;
+import com.sinapsi.webservice.system.WorkerPools;
 import com.sinapsi.webservice.utility.BodyReader;
+import com.sinapsi.webservice.utility.ConditionalGet;
 
 /**
  * Get/Set available components for a specific device
  */
-@WebServlet("/available_components")
+@WebServlet(urlPatterns = "/available_components", asyncSupported = true)
 public class AvailableComponents extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
@@ -39,12 +37,30 @@ public class AvailableComponents extends HttpServlet {
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	    // processed by a worker thread, the container thread is released at once
+	    WorkerPools workers = (WorkerPools) getServletContext().getAttribute("workers");
+	    workers.dispatch(WorkerPools.Pool.DB, request, response, new WorkerPools.Work() {
+	        @Override
+	        public void run(HttpServletRequest request, HttpServletResponse response) throws Exception {
+	            getAvailableComponents(request, response);
+	        }
+	    });
+	}
+	
+	/**
+	 * Send the available components of all the devices of the user, or a 304
+	 * if they didn't change since the version the client has
+	 * 
+	 * @param request http servlet request
+	 * @param response http servlet response
+	 * @throws IOException
+	 */
+	private void getAvailableComponents(HttpServletRequest request, HttpServletResponse response) throws IOException {
 	    response.setContentType("application/json");
 	    PrintWriter out = response.getWriter();
 	    DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
 	    EngineDBManager engineManager = (EngineDBManager) getServletContext().getAttribute("engines_db");
-	    KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
-	    Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+	    Gson gson = WebServiceGsonManager.getGson();
 	    
 	    
 	        
@@ -53,14 +69,13 @@ public class AvailableComponents extends HttpServlet {
 	    String model = request.getParameter("model");
 	    
 	    try {
-	        Encrypt encrypter;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                encrypter = new Encrypt(keysManager.getUserPublicKey(email, name, model),
-                                        keysManager.getServerUncryptedSessionKey(email, name, model));
-            
             AvailabilityMap data = new AvailabilityMap();
             
             try {
+                // the client already has the same components, nothing to serialize and send
+                if(ConditionalGet.notModified(request, response, engineManager.getAvailabilityValidator(email)))
+                    return;
+                
                 List<DeviceInterface> devicesUser = deviceManager.getUserDevices(email);
                 
                 for(DeviceInterface device : devicesUser) {
@@ -72,10 +87,7 @@ public class AvailableComponents extends HttpServlet {
                             );
                 }
                 
-                if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    out.print(encrypter.encrypt(gson.toJson(data)));
-                else
-                    out.print(gson.toJson(data));
+                out.print(gson.toJson(data));
                 out.flush();
                 
             } catch(SQLException e) {
@@ -84,10 +96,7 @@ public class AvailableComponents extends HttpServlet {
                 data.setErrorDescription("Error during getting available components");
                 
                 
-                if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    out.print(encrypter.encrypt(gson.toJson(data)));
-                else
-                    out.print(gson.toJson(data));
+                out.print(gson.toJson(data));
             }
            
 	    } catch(Exception e) {	        
@@ -99,39 +108,38 @@ public class AvailableComponents extends HttpServlet {
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	    // processed by a worker thread, the container thread is released at once
+	    WorkerPools workers = (WorkerPools) getServletContext().getAttribute("workers");
+	    workers.dispatch(WorkerPools.Pool.DB, request, response, new WorkerPools.Work() {
+	        @Override
+	        public void run(HttpServletRequest request, HttpServletResponse response) throws Exception {
+	            setAvailableComponents(request, response);
+	        }
+	    });
+	}
+	
+	/**
+	 * Save the available components of the device
+	 * 
+	 * @param request http servlet request
+	 * @param response http servlet response
+	 * @throws IOException
+	 */
+	private void setAvailableComponents(HttpServletRequest request, HttpServletResponse response) throws IOException {
 	    response.setContentType("application/json");
         PrintWriter out = response.getWriter();
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
         EngineDBManager engineManager = (EngineDBManager) getServletContext().getAttribute("engines_db");
-        KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
         
         String email = request.getParameter("email");
         String name = request.getParameter("name");
         String model = request.getParameter("model");
 
-        // read the encrypted body
-        String cryptedJsonbody = BodyReader.read(request);
-        String cryptedString = gson.fromJson(cryptedJsonbody, new TypeToken<String>() {}.getType());
+        // read the body, decrypted by the encryption filter
+        String jsonBody = BodyReader.read(request);
         
         try {
-            Encrypt encrypter;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                encrypter = new Encrypt(keysManager.getUserPublicKey(email, name, model),
-                                        keysManager.getServerUncryptedSessionKey(email, name, model));            
-            
-            // create the decrypter
-            Decrypt decrypter;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                decrypter = new Decrypt(keysManager.getServerPrivateKey(email, name, model), 
-                                        keysManager.getUserSessionKey(email, name, model));
-            // decrypt the jsoned body
-            String jsonBody;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                 jsonBody = decrypter.decrypt(cryptedString);
-            else
-                 jsonBody = cryptedJsonbody;
-            
             Pair<List<TriggerDescriptor>,List<ActionDescriptor>> newData = gson.fromJson(jsonBody, 
                     new TypeToken<Pair<List<TriggerDescriptor>, List<ActionDescriptor>>>() {}.getType());
             
@@ -154,17 +162,10 @@ public class AvailableComponents extends HttpServlet {
                 errorDescription = "Error during add available actions";
             }
             
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                if(errorOccured)
-                    out.print(encrypter.encrypt(gson.toJson(new CommunicationInfo(errorDescription, true))));
-                else
-                    out.print(encrypter.encrypt(gson.toJson(new CommunicationInfo())));
-            
+            if(errorOccured)
+                out.print(gson.toJson(new CommunicationInfo(errorDescription, true)));
             else
-                if(errorOccured)
-                    out.print(gson.toJson(new CommunicationInfo(errorDescription, true)));
-                else
-                    out.print(gson.toJson(new CommunicationInfo()));
+                out.print(gson.toJson(new CommunicationInfo()));
             
             out.flush();
         } catch (Exception e) {
@@ -43,7 +43,7 @@ public class AvailableTriggerServlet extends HttpServlet {
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
         
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create(); 
+        Gson gson = WebServiceGsonManager.getGson(); 
         int idDevice = Integer.parseInt(request.getParameter("device"));
 
         try {
@@ -82,7 +82,7 @@ public class AvailableTriggerServlet extends HttpServlet {
         KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
         
         int idDevice = Integer.parseInt(request.getParameter("device"));
         
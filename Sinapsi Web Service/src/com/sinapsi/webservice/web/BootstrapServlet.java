@@ -0,0 +1,155 @@
+package com.sinapsi.webservice.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.sinapsi.model.DeviceInterface;
+import com.sinapsi.model.UserInterface;
+import com.sinapsi.model.impl.ActionDescriptor;
+import com.sinapsi.model.impl.AvailabilityMap;
+import com.sinapsi.model.impl.BootstrapData;
+import com.sinapsi.model.impl.Device;
+import com.sinapsi.model.impl.TriggerDescriptor;
+import com.sinapsi.utils.Pair;
+import com.sinapsi.webservice.db.DeviceDBManager;
+import com.sinapsi.webservice.db.EngineDBManager;
+import com.sinapsi.webservice.engine.WebServiceGsonManager;
+import com.sinapsi.webservice.system.WorkerPools;
+import com.sinapsi.webservice.utility.BodyReader;
+
+/**
+ * Bootstrap of a device. In a single request the device is registered, its available
+ * components are saved, and the device record, the available components of all the
+ * user's devices and the macro changes since the revision known by the client are returned.
+ * The clients shipped with Sinapsi build their engine from the device record, so they still
+ * register the device before knowing their components and don't use this request yet
+ *
+ */
+@WebServlet(urlPatterns = "/bootstrap", asyncSupported = true)
+public class BootstrapServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
+     */
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        // processed by a worker thread, the container thread is released at once
+        WorkerPools workers = (WorkerPools) getServletContext().getAttribute("workers");
+        workers.dispatch(WorkerPools.Pool.DB, request, response, new WorkerPools.Work() {
+            @Override
+            public void run(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                bootstrap(request, response);
+            }
+        });
+    }
+
+    /**
+     * Register the device, save its available components and send back the bootstrap data.
+     * The response is a 400 if the parameters or the component lists are malformed
+     *
+     * @param request http servlet request
+     * @param response http servlet response
+     * @throws Exception
+     */
+    private void bootstrap(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String email = request.getParameter("email");
+        String name = request.getParameter("name");
+        String model = request.getParameter("model");
+        String type = request.getParameter("type");
+        String since = request.getParameter("since");
+        int version;
+        long sinceRevision = -1;
+        try {
+            version = Integer.parseInt(request.getParameter("version"));
+            if (since != null)
+                sinceRevision = Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed version or since revision");
+            return;
+        }
+
+        // read the body, decrypted by the encryption filter
+        String jsonBody = BodyReader.read(request);
+        Gson gson = WebServiceGsonManager.getGson();
+        Pair<List<TriggerDescriptor>, List<ActionDescriptor>> components;
+        try {
+            components = gson.fromJson(jsonBody,
+                    new TypeToken<Pair<List<TriggerDescriptor>, List<ActionDescriptor>>>() {}.getType());
+        } catch (JsonParseException e) {
+            components = null;
+        }
+        if (components == null || components.getFirst() == null || components.getSecond() == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed component lists");
+            return;
+        }
+
+        response.setContentType("application/json");
+        PrintWriter out = response.getWriter();
+        DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
+        EngineDBManager engineManager = (EngineDBManager) getServletContext().getAttribute("engines_db");
+
+        try {
+            UserInterface user = deviceManager.getUserByEmail(email);
+            if (user == null) {
+                BootstrapData data = new BootstrapData();
+                data.errorOccured(true);
+                data.setErrorDescription("Unknown user");
+                out.print(gson.toJson(data));
+                out.flush();
+                return;
+            }
+
+            // register the device if it's new
+            Device device;
+            if (!deviceManager.checkDevice(name, model, user.getId())) {
+                device = (Device) deviceManager.newDevice(name, model, type, user.getId(), version);
+                deviceManager.macroNotSynced(email, name, model, true);
+            } else {
+                device = (Device) deviceManager.getDevice(name, model, user.getId());
+            }
+
+            // save the available components of the device
+            engineManager.addAvailableTriggers(device.getId(), components.getFirst());
+            engineManager.addAvailableActions(device.getId(), components.getSecond());
+
+            // available components of all the devices of the user
+            AvailabilityMap availability = new AvailabilityMap();
+            for (DeviceInterface userDevice : deviceManager.getUserDevices(email)) {
+                userDevice.getUser().setPassword(""); //hiding salted password
+                availability.put(userDevice,
+                                 engineManager.getAvailableTriggers(userDevice.getId()),
+                                 engineManager.getAvailableActions(userDevice.getId()));
+            }
+
+            // the macro changes, already serialized by the macro cache
+            String macroChanges = MacroServlet.getMacroChangesJson(getServletContext(),
+                                                                   user,
+                                                                   sinceRevision);
+            // sync macro for the current device, not for the devices of other users with the same name
+            deviceManager.macroNotSynced(device.getId(), false);
+
+            String data = gson.toJson(new BootstrapData(device, availability, null));
+            out.print(MacroServlet.addJsonMember(data, "macroChanges", macroChanges));
+            out.flush();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            BootstrapData data = new BootstrapData();
+            data.errorOccured(true);
+            data.setErrorDescription("Error during the bootstrap of the device");
+            out.print(gson.toJson(data));
+            out.flush();
+        }
+    }
+}
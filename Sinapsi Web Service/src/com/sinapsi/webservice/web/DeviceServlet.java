@@ -11,17 +11,13 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.bgp.decryption.Decrypt;
-import com.bgp.encryption.Encrypt;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.impl.Device;
 import com.sinapsi.model.impl.User;
 import com.sinapsi.webservice.db.DeviceDBManager;
-import com.sinapsi.webservice.db.KeysDBManager;
 import com.sinapsi.webservice.engine.WebServiceGsonManager;
-import com.sinapsi.webservice.system.WebServiceConsts;
 import com.sinapsi.webservice.utility.BodyReader;
 
 /**
@@ -41,7 +37,7 @@ public class DeviceServlet extends HttpServlet {
         PrintWriter out = response.getWriter();
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
         String action = request.getParameter("action");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
 
         // get connected device request
         if (action.equals("get")) {
@@ -50,32 +46,18 @@ public class DeviceServlet extends HttpServlet {
             String deviceModel = request.getParameter("model");
 
             try {
-                // create the keys manger and the encrypter
-                KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
-                
-                Encrypt encrypter;
-                if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    encrypter = new Encrypt(keysManager.getUserPublicKey(email, deviceName, deviceModel),
-                                            keysManager.getServerUncryptedSessionKey(email, deviceName, deviceModel));
-                
                 User user = (User) deviceManager.getUserByEmail(email);
                 List<DeviceInterface> devices;
 
                 if (user != null) {
                     devices = deviceManager.getUserDevices(email);
-                    if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    	out.print(encrypter.encrypt(gson.toJson(devices)));
-                    else
-                    	out.print(gson.toJson(devices));
+                    out.print(gson.toJson(devices));
                     out.flush();
                 
                 // user doesn't exist, return empty array of json
                 } else {
                     devices = new ArrayList<DeviceInterface>();
-                    if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    	out.print(encrypter.encrypt(gson.toJson(devices)));
-                    else
-                    	out.print(gson.toJson(devices));
+                    out.print(gson.toJson(devices));
                     
                     out.flush();
                 }
@@ -95,8 +77,7 @@ public class DeviceServlet extends HttpServlet {
         String action = request.getParameter("action");
         PrintWriter out = response.getWriter();
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
-        KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
 
         // add device request
         if (action.equals("add")) {
@@ -107,30 +88,10 @@ public class DeviceServlet extends HttpServlet {
             String type = request.getParameter("type");
             int version = Integer.parseInt(request.getParameter("version"));
             
-            // read the encrypted body
-            String cryptedJsonbody = BodyReader.read(request);
-            String cryptedString = gson.fromJson(cryptedJsonbody, new TypeToken<String>() {}.getType());
+            // read the body, decrypted by the encryption filter
+            String jsonBody = BodyReader.read(request);
             
             try {
-                // create the encrypter
-            	Encrypt encrypter;
-            	if(WebServiceConsts.ENCRYPTED_CONNECTION)
-            		encrypter = new Encrypt(keysManager.getUserPublicKey(email, name, model),
-                							keysManager.getServerUncryptedSessionKey(email, name, model));
-                // create the decrypter
-            	Decrypt decrypter;
-            	if(WebServiceConsts.ENCRYPTED_CONNECTION)
-            		decrypter = new Decrypt(keysManager.getServerPrivateKey(email, name, model), 
-                                            keysManager.getUserSessionKey(email, name, model));
-                // decrypt the jsoned body
-                //String jsonBody = decrypter.decrypt(encryptedJsonbody);
-                String jsonBody;
-                if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                	 jsonBody = decrypter.decrypt(cryptedString);
-                else
-                	 jsonBody = cryptedJsonbody;
-                
-                
                 // get the id string
                 String id = gson.fromJson(jsonBody, new TypeToken<String>() {}.getType());
                 int idUser = Integer.parseInt(id);
@@ -138,10 +99,7 @@ public class DeviceServlet extends HttpServlet {
                 // if the device is new then added to the db
                 if (!deviceManager.checkDevice(name, model, idUser)) {
                     Device device = (Device) deviceManager.newDevice(name,model, type, idUser, version);
-                    if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    	out.print(encrypter.encrypt(gson.toJson(device)));
-                    else 
-                    	out.print(gson.toJson(device));
+                    out.print(gson.toJson(device));
 
                     out.flush();
                     deviceManager.macroNotSynced(email, name, model, true);
@@ -149,10 +107,7 @@ public class DeviceServlet extends HttpServlet {
                 // device already exist, return it
                 } else {
                     DeviceInterface device = deviceManager.getDevice(name, model, idUser);
-                    if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    	out.print(encrypter.encrypt(gson.toJson(device)));
-                    else
-                    	out.print(gson.toJson(device));
+                    out.print(gson.toJson(device));
                     out.flush();
                 }
 
@@ -46,7 +46,7 @@ public class LoginServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
         PrintWriter out = response.getWriter();
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
         
         // objects that manipulate data in the db
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
@@ -1,97 +1,147 @@
 package com.sinapsi.webservice.web;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.bgp.decryption.Decrypt;
-import com.bgp.encryption.Encrypt;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import com.sinapsi.engine.ComponentNotFoundException;
 import com.sinapsi.engine.MacroEngine;
+import com.sinapsi.model.DeviceInterface;
 import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
+import com.sinapsi.model.impl.MacroChangeSet;
 import com.sinapsi.model.impl.SyncOperation;
 import com.sinapsi.utils.Pair;
 import com.sinapsi.webservice.db.DeviceDBManager;
 import com.sinapsi.webservice.db.EngineDBManager;
-import com.sinapsi.webservice.db.KeysDBManager;
+import com.sinapsi.webservice.db.UserMacroCache;
+import com.sinapsi.webservice.db.UserMacroCache.CachedMacros;
 import com.sinapsi.webservice.db.UserDBManager;
 import com.sinapsi.webservice.engine.WebServiceEngine;
 import com.sinapsi.webservice.engine.WebServiceGsonManager;
-import com.sinapsi.webservice.engine.WebServiceLog;
+import com.sinapsi.webservice.engine.DebugLog;
 import com.sinapsi.webservice.system.WebServiceConsts;
+import com.sinapsi.webservice.system.WorkerPools;
 import com.sinapsi.webservice.utility.BodyReader;
+import com.sinapsi.webservice.utility.ConditionalGet;
+import com.sinapsi.webservice.websocket.OutgoingMessage;
+import com.sinapsi.webservice.websocket.Server;
+import com.sinapsi.webshared.BinaryMacroCodec;
+import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
+import com.sinapsi.webshared.wsproto.WebSocketMessage;
 
 /**
  * Macro Managment
  * 
  */
-@WebServlet("/macro")
+@WebServlet(urlPatterns = "/macro", asyncSupported = true)
 public class MacroServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;   
-	private  WebServiceGsonManager gsonManager; 
-    PrintWriter out; 
 
 	/**
 	 * Get the list of macro from the server and return a list of macro and a boolean that tell the client 
-	 * that the current device is synced with the last changes
+	 * that the current device is synced with the last changes.
+	 * If the parameter since is present, return only the macro changes done after that revision.
+	 * The response is a 304 if the client already has the data of the current revision, and a 400
+	 * if since is not a number. On a plain connection the macros are sent with the binary encoding if the client accepts it
 	 * 
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
 		EngineDBManager engineManager = (EngineDBManager) getServletContext().getAttribute("engines_db"); 
 		WebServiceEngine engine = (WebServiceEngine) getServletContext().getAttribute("engine");
 	    UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
 	    DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");  
-	    WebServiceEngine webServiceEngine = (WebServiceEngine) getServletContext().getAttribute("engine");
 	    
-	    gsonManager = new WebServiceGsonManager(webServiceEngine);
-	    
-	    response.setContentType("application/json");
-	    out = response.getWriter();
+	    // the encrypted body carries text, so the binary encoding is used only on plain connections
+	    boolean binary = !WebServiceConsts.ENCRYPTED_CONNECTION && BinaryMacroCodec.isAccepted(request.getHeader("Accept"));
+	    String encoding = binary ? "-b" : "";
+	    response.setContentType(binary ? BinaryMacroCodec.CONTENT_TYPE : "application/json");
+	    response.setHeader("Vary", "Accept");
                     
         String email = request.getParameter("email");
         String deviceName = request.getParameter("name");
         String deviceModel = request.getParameter("model");        
+        String since = request.getParameter("since");
+        long sinceRevision = -1;
+        if(since != null) {
+            try {
+                sinceRevision = Long.parseLong(since);
+            } catch(NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed since revision");
+                return;
+            }
+        }
         
         try {
-            // create the encrypter
-        	Encrypt encrypter;
-        	if(WebServiceConsts.ENCRYPTED_CONNECTION)
-        		encrypter = new Encrypt(keysManager.getUserPublicKey(email, deviceName, deviceModel),
-        		                        keysManager.getServerUncryptedSessionKey(email, deviceName, deviceModel));
-        	
         	UserInterface user = userManager.getUserByEmail(email);
         	
-            // get the list of macro from the db
-            List<MacroInterface> macros = engineManager.getUserMacro(user.getId(), engine.getComponentFactoryForUser(user.getId()));
-            
-            WebServiceLog log = new WebServiceLog(WebServiceLog.FILE_OUT);
+            Gson gson = WebServiceGsonManager.getGson();
+            String data;
             
-            // get the value of sync before the update
-            boolean oldSyncValue = deviceManager.getMacroSyncValue(deviceName, deviceModel);
-            // sync macro for the current device
-            deviceManager.macroNotSynced(deviceName, deviceModel, false);
+            // get the serialized list of macro from the cache, or from the db on miss.
+            // The validators are built from the revision of the body actually sent
+            CachedMacros cached = getCachedMacros(getServletContext(), user);
             
-            String data= gsonManager.getGsonForUser(user.getId())
-                                   .toJson(new Pair<Boolean, List<MacroInterface>>(oldSyncValue, macros));
-            log.log(data);
+            if(since != null) {
+                // only the changes done after the revision known by the client, null for a snapshot of the cached list
+                MacroChangeSet changes = getMacroChanges(getServletContext(), user, sinceRevision, cached);
+                long revision = changes != null ? changes.getRevision() : cached.getRevision();
+                
+                // the client already has these changes, nothing changes
+                if(ConditionalGet.notModified(request, response, "r" + revision + "-" + sinceRevision + encoding))
+                    return;
+                
+                // sync macro for the current device
+                deviceManager.macroNotSynced(deviceName, deviceModel, false);
+                
+                if(binary) {
+                    writeMacroChangesBinary(getServletContext(), user, cached, changes, response.getOutputStream());
+                    DebugLog.log(DebugLog.Category.MACRO, email, null, "sent binary macro changes", null);
+                    return;
+                }
+                data = getMacroChangesJson(cached, changes);
+                
+            } else {
+                // get the value of sync before the update
+                boolean oldSyncValue = deviceManager.getMacroSyncValue(deviceName, deviceModel);
+                
+                // the client already has the macros of this revision, nothing changes
+                if(ConditionalGet.notModified(request, response, "r" + cached.getRevision() + (oldSyncValue ? "-n" : "-s") + encoding))
+                    return;
+                
+                // sync macro for the current device
+                deviceManager.macroNotSynced(deviceName, deviceModel, false);
+                
+                String envelope = gson.toJson(new Pair<Boolean, List<MacroInterface>>(oldSyncValue, null));
+                
+                if(binary) {
+                    writeCachedMacrosBinary(getServletContext(), user, cached, envelope, response.getOutputStream());
+                    DebugLog.log(DebugLog.Category.MACRO, email, null, "sent binary macros", envelope);
+                    return;
+                }
+                data = addJsonMember(envelope, "second", cached.getJson());
+            }
+            DebugLog.log(DebugLog.Category.MACRO, email, null, "sent macros", data);
             
-            // send the encrypted data
-            if(WebServiceConsts.ENCRYPTED_CONNECTION) 
-            	out.print(encrypter.encrypt(data));
-            else
-            	out.print(data);
+            // send the data, encrypted by the encryption filter
+            PrintWriter out = response.getWriter();
+            out.print(data);
             out.flush();
             
         } catch(Exception ex) {
@@ -106,46 +156,51 @@ public class MacroServlet extends HttpServlet {
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
+	    // processed by a worker thread, the container thread is released at once
+	    WorkerPools workers = (WorkerPools) getServletContext().getAttribute("workers");
+	    workers.dispatch(WorkerPools.Pool.DB, request, response, new WorkerPools.Work() {
+	        @Override
+	        public void run(HttpServletRequest request, HttpServletResponse response) throws Exception {
+	            applyChanges(request, response);
+	        }
+	    });
+	}
+	
+	/**
+	 * Save the changes of the macros in the db, update the engine and notify the other devices
+	 * 
+	 * @param request http servlet request
+	 * @param response http servlet response
+	 * @throws IOException
+	 */
+	private void applyChanges(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		EngineDBManager engineManager = (EngineDBManager) getServletContext().getAttribute("engines_db"); 
 		DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");  
 		UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
 		WebServiceEngine webServiceEngine = (WebServiceEngine) getServletContext().getAttribute("engine");
 	        
-	    gsonManager = new WebServiceGsonManager(webServiceEngine);
+	    WebServiceGsonManager gsonManager = new WebServiceGsonManager(webServiceEngine);
 	    response.setContentType("application/json");
-	    out = response.getWriter();
+	    PrintWriter out = response.getWriter();
                       
         String email = request.getParameter("email");
         String deviceName = request.getParameter("name");
         String deviceModel = request.getParameter("model");
         String action = request.getParameter("action");
         
-        // read the encrypted jsoned body
-        String cryptedJsonBody = BodyReader.read(request);
+        // read the jsoned body, decrypted by the encryption filter
+        String jsonBody = BodyReader.read(request);
         
         try {
             UserInterface user = userManager.getUserByEmail(email);
             
-            Gson userGson = gsonManager.getGsonForUser(user.getId());
-            
-            String cryptedString = userGson.fromJson(cryptedJsonBody, new TypeToken<String>() {}.getType());
+            Gson gson = WebServiceGsonManager.getGson();
                     
-            Encrypt encrypter = new Encrypt(keysManager.getUserPublicKey(email, deviceName, deviceModel),
-                                            keysManager.getServerUncryptedSessionKey(email, deviceName, deviceModel));
+            DebugLog.log(DebugLog.Category.MACRO, email, null, "received " + action, jsonBody);
             
-            Decrypt decrypter = new Decrypt(keysManager.getServerPrivateKey(email, deviceName, deviceModel),    
-                                            keysManager.getUserSessionKey(email, deviceName, deviceModel));
-            // decrypt the jsoned body
-            String jsonBody;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-            	jsonBody = decrypter.decrypt(cryptedString);
-            else
-            	jsonBody = cryptedJsonBody;
-                    
-            //DEBUG
-            WebServiceLog log = new WebServiceLog(WebServiceLog.FILE_OUT);
-            log.log("Received json ########\n" + jsonBody + "\n ################# \n");
+            // the change set pushed to the other devices starts from the revision before the changes
+            long baseRevision = engineManager.getMacroRevision(user.getId());
+            MacroChangeSet notification = null;
             
             // action to do: push a batch of changes, add a macro, update a macro and delete a macro
             switch (action) {
@@ -154,10 +209,21 @@ public class MacroServlet extends HttpServlet {
                 case "push": {
                     
                     // extract the list of cahnges to do from the json
-                    List<Pair<SyncOperation, MacroInterface>> changes = userGson.fromJson(jsonBody, new TypeToken<List<Pair<SyncOperation, MacroInterface>>>() {}.getType());
+                    List<Pair<SyncOperation, MacroInterface>> changes = gsonManager.fromJsonForUser(user.getId(), jsonBody, new TypeToken<List<Pair<SyncOperation, MacroInterface>>>() {}.getType());
+                    
+                    // a push with an unknown component is refused before the first write
+                    List<MacroInterface> added = new ArrayList<MacroInterface>();
+                    for(Pair<SyncOperation, MacroInterface> change : changes) {
+                        if(change.getFirst() != SyncOperation.DELETE)
+                            added.add(change.getSecond());
+                    }
+                    if(!checkComponents(added, response))
+                        return;
                     
                     // the result of computation is a list of pairs containing the sync operation and the id of macro
                     List<Pair<SyncOperation, Integer>> result = new ArrayList<Pair<SyncOperation,Integer>>();
+                    // the changes saved in the db, to be applied to the engine
+                    List<Pair<SyncOperation, MacroInterface>> saved = new ArrayList<Pair<SyncOperation,MacroInterface>>();
                     
                     // iterate the list of operation to do 
                     for(Pair<SyncOperation, MacroInterface> change : changes) {
@@ -166,70 +232,88 @@ public class MacroServlet extends HttpServlet {
                             case UPDATE: // update is do it by the add in case the id of macro already exixst in the db
                             case ADD:
                                 // add the macro in the db and add the returned id (of the macro) to the list result
-                                result.add(new Pair<SyncOperation, Integer>(SyncOperation.ADD, add(change.getSecond(), user)));
+                                int idMacro = add(change.getSecond(), user);
+                                result.add(new Pair<SyncOperation, Integer>(SyncOperation.ADD, idMacro));
+                                // the engine must know the macro with the id assigned by the db
+                                if(idMacro != -1) {
+                                    change.getSecond().setId(idMacro);
+                                    saved.add(change);
+                                }
                                 break;
                                 
                             case DELETE:
                                 // delete macro from the db and add a -1 id to the list of result
-                                deleteMacro(change.getSecond().getId(), user);
-                                result.add(new Pair<SyncOperation, Integer>(SyncOperation.DELETE, -1));
+                                if(deleteMacro(change.getSecond().getId(), user)) {
+                                    result.add(new Pair<SyncOperation, Integer>(SyncOperation.DELETE, -1));
+                                    saved.add(change);
+                                } else {
+                                    // rejected: the macro is still on the server
+                                    Pair<SyncOperation, Integer> rejected = new Pair<SyncOperation, Integer>(SyncOperation.DELETE, change.getSecond().getId());
+                                    rejected.errorOccured(true);
+                                    rejected.setErrorDescription("The macro could not be deleted");
+                                    result.add(rejected);
+                                }
                                 break;                                 
                         }
                     }
                     
                     // return the result
-                    if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    	out.print(encrypter.encrypt(userGson.toJson(result)));
-                    else
-                    	out.print(userGson.toJson(result));
+                    out.print(gson.toJson(result));
                     out.flush();
                     
-                    // update the macros in the engine
+                    // update only the changed macros in the engine
                     MacroEngine macroEngine =  webServiceEngine.getEngineForUser(user);
-                    macroEngine.clearMacros();
-                    macroEngine.addMacros(engineManager.getUserMacro(user.getId(), webServiceEngine.getComponentFactoryForUser(user.getId())));
+                    macroEngine.applyChanges(saved);
+                    
+                    notification = new MacroChangeSet(engineManager.getMacroRevision(user.getId()), false);
+                    // the changes are sent only if no other device changed the macros meanwhile, otherwise the devices pull them
+                    if(notification.getRevision() - baseRevision == saved.size()) {
+                        notification.setBaseRevision(baseRevision);
+                        for(Pair<SyncOperation, MacroInterface> change : saved) {
+                            if(change.getFirst() == SyncOperation.DELETE)
+                                notification.getDeletedMacroIds().add(change.getSecond().getId());
+                            else
+                                notification.getUpdatedMacros().add(change.getSecond());
+                        }
+                    }
                     
                 } break;
                 
                 case "add": {
                 	
                 	
-            		MacroInterface m = userGson.fromJson(jsonBody, MacroInterface.class);
+            		MacroInterface m = gsonManager.fromJsonForUser(user.getId(), jsonBody, MacroInterface.class);
+            		if(!checkComponents(Collections.singletonList(m), response))
+            		    return;
                 	
                     // add macro and send the id of the macro
-                	if(WebServiceConsts.ENCRYPTED_CONNECTION){
-                		
-                		out.print(encrypter.encrypt(userGson.toJson(add(m, user))));
-                	} else {
-                		out.print(userGson.toJson(add(m, user)));
-                	}
+                	out.print(gson.toJson(add(m, user)));
                 		
                     out.flush();                
                 } break;
                 
                 case "add_macros": {
                 	
-                	List<MacroInterface> macros = userGson.fromJson(jsonBody, new TypeToken<List<MacroInterface>>(){}.getType());
+                	List<MacroInterface> macros = gsonManager.fromJsonForUser(user.getId(), jsonBody, new TypeToken<List<MacroInterface>>(){}.getType());
+                	if(!checkComponents(macros, response))
+                	    return;
                 	
                     // add a list of macro and send the macro ids
-                	if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                		out.print(encrypter.encrypt(userGson.toJson(addMacros(macros, user))));
-                	else
-                		out.print(userGson.toJson(addMacros(macros, user)));
+                	out.print(gson.toJson(addMacros(macros, user)));
                     out.flush();                   
                 } break;
                 
                 case "delete": {
                     // delete macro
-                	MacroInterface m = userGson.fromJson(jsonBody, MacroInterface.class);
+                	MacroInterface m = gsonManager.fromJsonForUser(user.getId(), jsonBody, MacroInterface.class);
                 	
-                    deleteMacro(m.getId(), user);
+                    if(!deleteMacro(m.getId(), user)) {
+                        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "The macro could not be deleted");
+                        return;
+                    }
                     
                     //send -1 id
-                    if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                    	out.print(encrypter.encrypt(userGson.toJson(-1)));
-                    else
-                    	out.print(userGson.toJson(-1));
+                    out.print(gson.toJson(-1));
                     out.flush();
                 } break;
         
@@ -237,11 +321,213 @@ public class MacroServlet extends HttpServlet {
       
             // async macro on all devices of current user 
             deviceManager.macroNotSynced(email, deviceName, deviceModel, true);
+            
+            // the other actions push only the new revision, the devices pull the changes
+            if(notification == null)
+                notification = new MacroChangeSet(engineManager.getMacroRevision(user.getId()), false);
+            notifyDevices(user, deviceManager.getDevice(deviceName, deviceModel, user.getId()), notification);
         } catch(Exception ex) {
             ex.printStackTrace();
+            if(!response.isCommitted())
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }  
 	}
 	
+	/**
+	 * Instantiate the components of the received macros, before any of them is saved.
+	 * When a component is unknown the request is answered with a 400
+	 * 
+	 * @param macros the received macros
+	 * @param response http servlet response
+	 * @return true if all the components exist
+	 * @throws IOException
+	 */
+	private static boolean checkComponents(List<MacroInterface> macros, HttpServletResponse response) throws IOException {
+	    try {
+	        for(MacroInterface macro : macros) {
+	            macro.getTrigger();
+	            macro.getActions();
+	        }
+	        return true;
+	    } catch(ComponentNotFoundException e) {
+	        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+	        return false;
+	    }
+	}
+	
+	/**
+	 * Send the change set to the other connected devices of the user, in a model update notification.
+	 * When the serialized macros are too big, only the revision is sent and the devices pull the changes
+	 * 
+	 * @param user the user
+	 * @param sender the device that made the changes, can be null
+	 * @param changes the change set
+	 */
+	private void notifyDevices(UserInterface user, DeviceInterface sender, MacroChangeSet changes) {
+	    Server wsserver = (Server) getServletContext().getAttribute("wsserver");
+	    Gson gson = WebServiceGsonManager.getGson();
+	    
+	    String data = gson.toJson(changes);
+	    if(data.length() > WebServiceConsts.MODEL_UPDATE_MAX_INLINE_CHARS)
+	        data = gson.toJson(new MacroChangeSet(changes.getRevision(), false));
+	    
+	    wsserver.sendToUser(user.getEmail(), 
+	                        new OutgoingMessage(new WebSocketMessage(SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION, data), null, null), 
+	                        sender != null ? sender.getId() : null);
+	}
+	
+	/**
+	 * Return the serialized change set of the macros of the user done after the specified revision.
+	 * A full snapshot is built from the macro cache when the revision is unknown
+	 * 
+	 * @param context servlet context
+	 * @param user the user
+	 * @param sinceRevision the last revision known by the client, -1 for a full snapshot
+	 * @return serialized change set
+	 * @throws SQLException
+	 */
+	static String getMacroChangesJson(ServletContext context, UserInterface user, long sinceRevision) throws SQLException {
+	    CachedMacros cached = getCachedMacros(context, user);
+	    return getMacroChangesJson(cached, getMacroChanges(context, user, sinceRevision, cached));
+	}
+	
+	/**
+	 * Return the change set of the macros of the user done after the specified revision,
+	 * or null when it is the full snapshot of the cached list
+	 * 
+	 * @param context servlet context
+	 * @param user the user
+	 * @param sinceRevision the last revision known by the client, -1 for a full snapshot
+	 * @param cached the cached macros of the user
+	 * @return the change set, null for a snapshot of the cached list
+	 * @throws SQLException
+	 */
+	private static MacroChangeSet getMacroChanges(ServletContext context, UserInterface user, long sinceRevision, CachedMacros cached) throws SQLException {
+	    EngineDBManager engineManager = (EngineDBManager) context.getAttribute("engines_db");
+	    WebServiceEngine engine = (WebServiceEngine) context.getAttribute("engine");
+	    
+	    if(sinceRevision < 0)
+	        return null;
+	    
+	    // the client is up to date
+	    if(sinceRevision == cached.getRevision())
+	        return new MacroChangeSet(cached.getRevision(), false);
+	    
+	    // only the changes done after the revision known by the client, or a snapshot read from
+	    // the db when the client knows a revision the cached list doesn't have yet
+	    return engineManager.getMacroChanges(user.getId(), 
+	                                         sinceRevision, 
+	                                         engine.getComponentFactoryForUser(user.getId()));
+	}
+	
+	/**
+	 * Return the serialized change set
+	 * 
+	 * @param cached the cached macros of the user
+	 * @param changes the change set, null for a snapshot of the cached list
+	 * @return serialized change set
+	 */
+	private static String getMacroChangesJson(CachedMacros cached, MacroChangeSet changes) {
+	    Gson gson = WebServiceGsonManager.getGson();
+	    if(changes != null)
+	        return gson.toJson(changes);
+	    
+	    // full snapshot from the cached list
+	    JsonObject envelope = gson.toJsonTree(new MacroChangeSet(cached.getRevision(), true)).getAsJsonObject();
+	    envelope.remove("updatedMacros");
+	    return addJsonMember(envelope.toString(), "updatedMacros", cached.getJson());
+	}
+	
+	/**
+	 * Write the change set with the binary encoding. A full snapshot of the
+	 * cached list is transcoded one macro at a time
+	 * 
+	 * @param context servlet context
+	 * @param user the user
+	 * @param cached the cached macros of the user
+	 * @param changes the change set, null for a snapshot of the cached list
+	 * @param out the stream of the body
+	 * @throws IOException
+	 */
+	private static void writeMacroChangesBinary(ServletContext context, UserInterface user, CachedMacros cached, MacroChangeSet changes, OutputStream out) throws IOException {
+	    Gson gson = WebServiceGsonManager.getGson();
+	    
+	    if(changes == null) {
+	        // full snapshot from the cached list, the envelope has an empty list
+	        writeCachedMacrosBinary(context, user, cached, gson.toJson(new MacroChangeSet(cached.getRevision(), true)), out);
+	        return;
+	    }
+	    
+	    // the updated macros follow the envelope
+	    List<MacroInterface> updated = new ArrayList<MacroInterface>(changes.getUpdatedMacros());
+	    changes.getUpdatedMacros().clear();
+	    BinaryMacroCodec.Writer writer = new BinaryMacroCodec.Writer(out, gson.toJson(changes));
+	    for(MacroInterface macro : updated)
+	        writer.write(macro);
+	    writer.finish();
+	}
+	
+	/**
+	 * Write the cached list of macro of the user with the binary encoding, after the envelope.
+	 * The cached json is read one macro at a time, so the list is never built
+	 * 
+	 * @param context servlet context
+	 * @param user the user
+	 * @param cached the cached macros
+	 * @param envelope json of the object carrying the list
+	 * @param out the stream of the body
+	 * @throws IOException
+	 */
+	private static void writeCachedMacrosBinary(ServletContext context, UserInterface user, CachedMacros cached, String envelope, OutputStream out) throws IOException {
+	    WebServiceEngine engine = (WebServiceEngine) context.getAttribute("engine");
+	    BinaryMacroCodec.Writer writer = new BinaryMacroCodec.Writer(out, envelope);
+	    new WebServiceGsonManager(engine).readMacrosForUser(user.getId(), new StringReader(cached.getJson()), writer);
+	    writer.finish();
+	}
+	
+	/**
+	 * Return the serialized list of macro of the user from the macro cache. 
+	 * On miss, the list is loaded from the db and added to the cache
+	 * 
+	 * @param context servlet context
+	 * @param user the user
+	 * @return cached macros
+	 * @throws SQLException
+	 */
+	private static CachedMacros getCachedMacros(ServletContext context, UserInterface user) throws SQLException {
+	    EngineDBManager engineManager = (EngineDBManager) context.getAttribute("engines_db");
+	    WebServiceEngine engine = (WebServiceEngine) context.getAttribute("engine");
+	    UserMacroCache cache = engineManager.getMacroCache();
+	    
+	    CachedMacros cached = cache.get(user.getId());
+	    if(cached != null)
+	        return cached;
+	    
+	    // the list and its revision are read in the same transaction
+	    MacroChangeSet snapshot = engineManager.getMacroSnapshot(user.getId(), engine.getComponentFactoryForUser(user.getId()));
+	    String json = WebServiceGsonManager.getGson().toJson(snapshot.getUpdatedMacros(), new TypeToken<List<MacroInterface>>() {}.getType());
+	    return cache.put(user.getId(), snapshot.getRevision(), json);
+	}
+	
+	/**
+	 * Add a member with an already serialized value to a serialized json object
+	 * 
+	 * @param jsonObject the serialized json object
+	 * @param name name of the member
+	 * @param jsonValue the serialized value of the member
+	 * @return the serialized json object with the new member
+	 */
+	static String addJsonMember(String jsonObject, String name, String jsonValue) {
+	    StringBuilder sb = new StringBuilder(jsonObject.length() + name.length() + jsonValue.length() + 8);
+	    sb.append("{\"").append(name).append("\":").append(jsonValue);
+	    
+	    String members = jsonObject.substring(1).trim();
+	    if(!members.equals("}"))
+	        sb.append(',');
+	    sb.append(members);
+	    return sb.toString();
+	}
+	
 	/**
 	 * Add a macro to the db
 	 * @param jsonBody json body containing macro interface
@@ -287,16 +573,20 @@ public class MacroServlet extends HttpServlet {
 	
 	/**
 	 * Delete macro
-	 * @param jsonBody json body
+	 * @param id id of the macro
+	 * @param user the user
+	 * @return false if the macro could not be deleted
 	 */
-	private void deleteMacro(int id, UserInterface user) {
+	private boolean deleteMacro(int id, UserInterface user) {
 		EngineDBManager engineManager = (EngineDBManager) getServletContext().getAttribute("engines_db");  
 		
         // delete macro
         try {
-            engineManager.deleteUserMacro(id);
+            engineManager.deleteUserMacro(user.getId(), id);
+            return true;
         } catch (SQLException e) {
             e.printStackTrace();
+            return false;
         } 
 	}
 }
@@ -38,7 +38,7 @@ public class RegistrationServlet extends HttpServlet {
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
         response.setContentType("application/json");
         
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
         String email = request.getParameter("email");
         String pwd = request.getParameter("password");
 
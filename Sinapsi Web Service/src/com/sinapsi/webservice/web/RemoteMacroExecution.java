@@ -1,35 +1,34 @@
 package com.sinapsi.webservice.web;
 
 import java.io.IOException;
-
+import java.io.PrintWriter;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.bgp.decryption.Decrypt;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.sinapsi.engine.MacroEngine;
 import com.sinapsi.engine.execution.RemoteExecutionDescriptor;
 import com.sinapsi.model.DeviceInterface;
+import com.sinapsi.model.MacroInterface;
 import com.sinapsi.model.UserInterface;
+import com.sinapsi.model.impl.CommunicationInfo;
+import com.sinapsi.model.impl.Macro;
 import com.sinapsi.webservice.db.DeviceDBManager;
-import com.sinapsi.webservice.db.KeysDBManager;
 import com.sinapsi.webservice.engine.WebServiceEngine;
 import com.sinapsi.webservice.engine.WebServiceGsonManager;
-import com.sinapsi.webservice.system.WebServiceConsts;
+import com.sinapsi.webservice.system.WorkerPools;
 import com.sinapsi.webservice.utility.BodyReader;
 import com.sinapsi.webservice.websocket.Server;
-import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
-import com.sinapsi.webshared.wsproto.WebSocketMessage;
 
 /**
  * Remote execution macro system
  * 
  */
-@WebServlet("/remote_macro")
+@WebServlet(urlPatterns = "/remote_macro", asyncSupported = true)
 public class RemoteMacroExecution extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
@@ -44,51 +43,70 @@ public class RemoteMacroExecution extends HttpServlet {
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	    // processed by a worker thread, the container thread is released at once
+	    WorkerPools workers = (WorkerPools) getServletContext().getAttribute("workers");
+	    workers.dispatch(WorkerPools.Pool.CPU, request, response, new WorkerPools.Work() {
+	        @Override
+	        public void run(HttpServletRequest request, HttpServletResponse response) throws Exception {
+	            continueMacro(request, response);
+	        }
+	    });
+	}
+	
+	/**
+	 * Continue the macro on the cloud engine, or send it to the target device.
+	 * The target device must belong to the user of the calling device, else the response is a 403
+	 * 
+	 * @param request http servlet request
+	 * @param response http servlet response
+	 * @throws IOException
+	 */
+	private void continueMacro(HttpServletRequest request, HttpServletResponse response) throws IOException {
 	    response.setContentType("application/json");
-	    Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+	    PrintWriter out = response.getWriter();
+	    Gson gson = WebServiceGsonManager.getGson();
 	    int deviceTarget = Integer.parseInt(request.getParameter("to_device"));
 	    int fromDevice = Integer.parseInt(request.getParameter("from_device"));
 	    Server wsserver = (Server) getServletContext().getAttribute("wsserver");
 	    WebServiceEngine engine = (WebServiceEngine) getServletContext().getAttribute("engine");
 
-	    // read the encrypted jsoned body
-        String cryptedJsonBody = BodyReader.read(request);
-        String cryptedString = gson.fromJson(cryptedJsonBody, new TypeToken<String>() {}.getType());
+	    // read the jsoned body, decrypted by the encryption filter
+        String jsonBody = BodyReader.read(request);
         
-        KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
         DeviceDBManager deviceManager = (DeviceDBManager) getServletContext().getAttribute("devices_db");
        
         
         
         try {
-            DeviceInterface device = deviceManager.getDevice(fromDevice);
-            String email = deviceManager.getUserEmail(fromDevice);
+            RemoteExecutionDescriptor RED = gson.fromJson(jsonBody,new TypeToken<RemoteExecutionDescriptor>() {}.getType());
+            DeviceInterface target = deviceManager.getDevice(deviceTarget);
+            UserInterface user = deviceManager.getUserDevice(fromDevice);
             
-            Decrypt decrypter;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-                decrypter = new Decrypt(keysManager.getServerPrivateKey(email, device.getName(), device.getModel()), 
-                                        keysManager.getUserSessionKey(email, device.getName(), device.getModel()));
-            //decrypt the jsoned body
-            String jsonBody;
-            if(WebServiceConsts.ENCRYPTED_CONNECTION)
-            	jsonBody = decrypter.decrypt(cryptedString);
-            else
-            	jsonBody = cryptedJsonBody;
+            if(target == null || user == null) {
+                out.print(gson.toJson(new CommunicationInfo("Unknown device", true)));
+                out.flush();
+                return;
+            }
             
-            RemoteExecutionDescriptor RED = gson.fromJson(jsonBody,new TypeToken<RemoteExecutionDescriptor>() {}.getType());
+            // the calling device is authenticated by the encryption filter, the target
+            // comes from the request: a macro never reaches the devices of another user
+            if(target.getUser() == null || target.getUser().getId() != user.getId()) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, "The target device belongs to another user");
+                return;
+            }
             
-            if(deviceManager.getInfoDevice(deviceTarget).getKey().equals("Cloud") &&
-               deviceManager.getInfoDevice(deviceTarget).getValue().equals("Sinapsi")) {
-               
-               UserInterface user = deviceManager.getUserDevice(fromDevice);
-            	MacroEngine cloudMacroEngine = engine.getEngineForUser(user);
-
-            	cloudMacroEngine.continueMacro(RED);
+            MacroEngine userMacroEngine = engine.getEngineForUser(user);
+            
+            if(target.getName().equals("Cloud") && target.getModel().equals("Sinapsi")) {
+            	engine.continueMacro(user, RED);
             
-            } else {                
-                WebSocketMessage message = new WebSocketMessage(SinapsiMessageTypes.REMOTE_EXECUTION_DESCRIPTOR, gson.toJson(RED));
-                
-                wsserver.send(deviceTarget, gson.toJson(message));  
+            } else {
+                // the continuation waits for the target device if the macro asks for it
+                MacroInterface macro = userMacroEngine != null ? userMacroEngine.getMacro(RED.getIdMacro()) : null;
+                if(macro != null && Macro.ENQUEUE_CONTINUE_REQUEST.equals(macro.getExecutionFailurePolicy()))
+                    wsserver.enqueueRemoteExecution(deviceTarget, RED);
+                else
+                    wsserver.sendRemoteExecution(deviceTarget, RED);  
             }
             
         } catch(Exception e) {
@@ -2,6 +2,7 @@ package com.sinapsi.webservice.web;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.security.KeyPair;
 import java.security.PublicKey;
 
 import javax.servlet.ServletException;
@@ -11,7 +12,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.bgp.encryption.Encrypt;
-import com.bgp.generator.KeyGenerator;
 import com.bgp.keymanager.PrivateKeyManager;
 import com.bgp.keymanager.PublicKeyManager;
 import com.bgp.keymanager.SessionKeyManager;
@@ -23,6 +23,7 @@ import com.sinapsi.webservice.db.KeysDBManager;
 import com.sinapsi.webservice.db.UserDBManager;
 import com.sinapsi.webservice.engine.WebServiceGsonManager;
 import com.sinapsi.webservice.utility.BodyReader;
+import com.sinapsi.webshared.KeyPairPool;
 
 /**
  * Servlet called when a user want to login
@@ -46,12 +47,11 @@ public class RequestLoginSevlet extends HttpServlet {
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         PrintWriter out = response.getWriter();
         response.setContentType("application/json");
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
+        Gson gson = WebServiceGsonManager.getGson();
         KeysDBManager keysManager = (KeysDBManager) getServletContext().getAttribute("keys_db");
         UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
     
-        // generate local public/private keys
-        KeyGenerator generator = new KeyGenerator(1024, "RSA");
+        KeyPairPool keyPairPool = (KeyPairPool) getServletContext().getAttribute("key_pool");
 
         try {    
             String email = request.getParameter("email");
@@ -81,6 +81,9 @@ public class RequestLoginSevlet extends HttpServlet {
                 return;
             }
             
+            // take local public/private keys from the pool of pre-generated key pairs
+            KeyPair keyPair = keyPairPool.take();
+            
             byte[] byteKey = gson.fromJson(BodyReader.read(request), new TypeToken<byte[]>(){}.getType());
             PublicKey clientPublicKey = PublicKeyManager.convertToKey(byteKey);
             
@@ -88,10 +91,10 @@ public class RequestLoginSevlet extends HttpServlet {
             Encrypt encrypt = new Encrypt(clientPublicKey);
             
             // save local private key, generated by the key generator
-            String localPrivateKey = PrivateKeyManager.convertToString(generator.getPrivateKey());
+            String localPrivateKey = PrivateKeyManager.convertToString(keyPair.getPrivate());
             
             // save local public key, generated by the key generator
-            String localPublicKey = PublicKeyManager.convertToString(generator.getPublicKey());
+            String localPublicKey = PublicKeyManager.convertToString(keyPair.getPublic());
             
             // save local encrypted session key, generated by the encrypter
             String localSessionKey = SessionKeyManager.convertToString(encrypt.getEncryptedSessionKey());
@@ -106,7 +109,7 @@ public class RequestLoginSevlet extends HttpServlet {
             keysManager.updateServerKeys(email, deviceName, deviceModel, localPublicKey, localPrivateKey, localSessionKey, localUncryptedSessionKey);
 
             // send local public key and session key to the client
-            out.print(gson.toJson(new Pair<byte[], byte[]>(PublicKeyManager.convertToByte(generator.getPublicKey()), 
+            out.print(gson.toJson(new Pair<byte[], byte[]>(PublicKeyManager.convertToByte(keyPair.getPublic()), 
                                                            SessionKeyManager.convertToByte(encrypt.getEncryptedSessionKey()))));
             out.flush();
 
@@ -0,0 +1,132 @@
+package com.sinapsi.webservice.web.dashboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import com.sinapsi.utils.Pair;
+
+/**
+ * Index of the number of requests in the daily access logs of tomcat, used by the dashboard.
+ * The line count of every file is kept with its size and modification time, so a file
+ * is read again only when it changes, and a grown file (the one of the current day)
+ * is read only from the end of the already counted part
+ *
+ */
+public class AccessLogStats {
+    private static final String PREFIX = "localhost_access_log.";
+    private static final String SUFFIX = ".txt";
+
+    private final File folder;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Line count of a log file
+     */
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final long newlines;
+
+        private Entry(long size, long lastModified, long newlines) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.newlines = newlines;
+        }
+
+        /**
+         * Return the number of lines, a non empty file without newlines has one line
+         */
+        private long getLines() {
+            return newlines == 0 && size > 0 ? 1 : newlines;
+        }
+    }
+
+    /**
+     * Ctor
+     *
+     * @param folder folder of the access logs
+     */
+    public AccessLogStats(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Return the number of requests of every day, ordered by date
+     *
+     * @return pairs of the day in milliseconds and the number of requests
+     */
+    public synchronized Vector<Pair<String, String>> getDailyRequests() {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        TreeMap<Long, Long> days = new TreeMap<Long, Long>();
+        Map<String, Entry> seen = new HashMap<String, Entry>();
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || !name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+                    continue;
+
+                try {
+                    long day = dateFormat.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length())).getTime();
+                    Entry entry = refresh(file);
+                    seen.put(file.getPath(), entry);
+                    days.put(day, entry.getLines());
+                } catch (ParseException | IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // the deleted files are forgotten
+        entries.keySet().retainAll(seen.keySet());
+
+        Vector<Pair<String, String>> result = new Vector<Pair<String, String>>(days.size());
+        for (Map.Entry<Long, Long> day : days.entrySet())
+            result.add(new Pair<String, String>(day.getKey().toString(), day.getValue().toString()));
+        return result;
+    }
+
+    /**
+     * Return the number of requests of the day
+     *
+     * @param day the day, in the yyyy-MM-dd format
+     * @return number of requests, 0 if there is no log of the day
+     * @throws IOException
+     */
+    public synchronized long getRequests(String day) throws IOException {
+        File file = new File(folder, PREFIX + day + SUFFIX);
+        if (!file.isFile())
+            return 0;
+        return refresh(file).getLines();
+    }
+
+    /**
+     * Return the updated line count of the file, counting only the part not counted yet
+     */
+    private Entry refresh(File file) throws IOException {
+        String path = file.getPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(path);
+
+        if (entry != null && entry.size == size && entry.lastModified == lastModified)
+            return entry;
+
+        if (entry != null && size > entry.size)
+            // the log grew, only the tail is new
+            entry = new Entry(size, lastModified, entry.newlines + NewlineScanner.count(file, entry.size, size));
+        else
+            entry = new Entry(size, lastModified, NewlineScanner.count(file, 0, size));
+
+        entries.put(path, entry);
+        return entry;
+    }
+}
@@ -0,0 +1,69 @@
+package com.sinapsi.webservice.web.dashboard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import com.sinapsi.model.UserInterface;
+import com.sinapsi.webservice.db.UserDBManager;
+import com.sinapsi.webservice.system.WebServiceConsts;
+
+/**
+ * Access check of the admin pages that are not part of the dashboard, like the metrics.
+ * A request is allowed if its session was logged in by an admin with the password,
+ * or if it carries the monitoring token configured with the system property
+ * sinapsi.admin.token. Neither the peer address nor the user cookie are trusted
+ *
+ */
+final class AdminAccess {
+
+    /**
+     * Session attribute with the email of the user logged in with the password
+     */
+    static final String AUTHENTICATED_USER = "authenticated_user";
+
+    private AdminAccess() {
+    }
+
+    /**
+     * Tell if the request comes from an admin or from the monitoring
+     *
+     * @param request http servlet request
+     * @param context servlet context
+     * @return true if the request is allowed
+     */
+    static boolean isAllowed(HttpServletRequest request, ServletContext context) {
+        if (hasToken(request))
+            return true;
+
+        HttpSession session = request.getSession(false);
+        Object email = session != null ? session.getAttribute(AUTHENTICATED_USER) : null;
+        if (!(email instanceof String))
+            return false;
+
+        // the role is read again, an admin may have been demoted after the login
+        try {
+            UserDBManager userManager = (UserDBManager) context.getAttribute("users_db");
+            UserInterface user = userManager.getUserByEmail((String) email);
+            return user != null && "admin".equals(user.getRole());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean hasToken(HttpServletRequest request) {
+        String token = System.getProperty(WebServiceConsts.ADMIN_TOKEN_PROPERTY);
+        String header = request.getHeader("Authorization");
+        if (token == null || token.isEmpty() || header == null || !header.startsWith("Bearer "))
+            return false;
+
+        // compared in constant time
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                                     header.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8));
+    }
+}
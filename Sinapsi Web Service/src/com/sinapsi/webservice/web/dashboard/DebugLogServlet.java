@@ -0,0 +1,97 @@
+package com.sinapsi.webservice.web.dashboard;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.sinapsi.webservice.engine.DebugLog;
+
+/**
+ * Runtime settings of the debug log, with the same access check as the metrics.
+ * A get returns the level and sampling rate of every category and the users and
+ * devices being debugged, in text format. A post changes them:
+ * category and level and/or sample_rate set a category, user or device with
+ * enabled add or remove a user or a device being debugged.
+ * The response is a 400 if a parameter is malformed
+ *
+ */
+@WebServlet("/debug_log")
+public class DebugLogServlet extends HttpServlet {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+    *      response)
+    */
+   protected void doGet(HttpServletRequest request, HttpServletResponse response)
+         throws ServletException, IOException {
+      if (!AdminAccess.isAllowed(request, getServletContext())) {
+         response.sendError(HttpServletResponse.SC_FORBIDDEN);
+         return;
+      }
+
+      response.setContentType("text/plain");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+      PrintWriter out = response.getWriter();
+
+      for (DebugLog.Category category : DebugLog.Category.values())
+         out.println("category " + category + " level=" + category.getLevel() + " sample_rate=" + category.getSampleRate());
+      for (String email : DebugLog.getDebuggedUsers())
+         out.println("user " + email);
+      for (Integer idDevice : DebugLog.getDebuggedDevices())
+         out.println("device " + idDevice);
+      out.flush();
+   }
+
+   /**
+    * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse
+    *      response)
+    */
+   protected void doPost(HttpServletRequest request, HttpServletResponse response)
+         throws ServletException, IOException {
+      if (!AdminAccess.isAllowed(request, getServletContext())) {
+         response.sendError(HttpServletResponse.SC_FORBIDDEN);
+         return;
+      }
+
+      String category = request.getParameter("category");
+      String user = request.getParameter("user");
+      String device = request.getParameter("device");
+      boolean enabled = Boolean.parseBoolean(request.getParameter("enabled"));
+
+      try {
+         // everything is parsed before the first change, a malformed request changes nothing
+         Integer idDevice = device != null ? Integer.valueOf(device.trim()) : null;
+         if (category != null) {
+            DebugLog.Category c = DebugLog.Category.valueOf(category.toUpperCase());
+            String level = request.getParameter("level");
+            String sampleRate = request.getParameter("sample_rate");
+            double rate = sampleRate != null ? Double.parseDouble(sampleRate) : c.getSampleRate();
+            if (!(rate >= 0 && rate <= 1)) {
+               response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The sample rate must be between 0 and 1");
+               return;
+            }
+            if (level != null)
+               c.setLevel(DebugLog.Level.valueOf(level.toUpperCase()));
+            c.setSampleRate(rate);
+         }
+         if (user != null && !user.trim().isEmpty())
+            DebugLog.setUserDebugged(user.trim(), enabled);
+         if (idDevice != null)
+            DebugLog.setDeviceDebugged(idDevice, enabled);
+
+      } catch (IllegalArgumentException e) {
+         // unknown category or level, or a malformed number
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+         return;
+      }
+
+      doGet(request, response);
+   }
+}
@@ -0,0 +1,369 @@
+package com.sinapsi.webservice.web.dashboard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sinapsi.webservice.system.WebServiceConsts;
+
+/**
+ * Viewer of the log files shown by the dashboard. For every file a sparse index keeps
+ * the offset of one line every LOG_VIEWER_INDEX_STRIDE lines, so any page is read with
+ * positioned reads starting from the nearest indexed line, and the index of a grown
+ * file is extended scanning only the new bytes.
+ * The files are opened only for the time of a read, nothing is kept open between
+ * the requests, and the live tail is driven by the offset known by the client
+ *
+ */
+public class LogViewer {
+    // the least recently used indexes are forgotten
+    private final Map<String, Index> indexes = new LinkedHashMap<String, Index>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Index> eldest) {
+            return size() > WebServiceConsts.LOG_VIEWER_MAX_INDEXES;
+        }
+    };
+
+    /**
+     * Sparse line index of a log file, never changed after its creation
+     */
+    private static class Index {
+        private final long size;
+        private final long lastModified;
+        private final long newlines;
+        private final long lastLineStart;
+        private final long[] offsets;
+        private final int count;
+
+        private Index(long size, long lastModified, long newlines, long lastLineStart, long[] offsets, int count) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.newlines = newlines;
+            this.lastLineStart = lastLineStart;
+            this.offsets = offsets;
+            this.count = count;
+        }
+
+        /**
+         * Return the number of lines, the last one can be without newline
+         */
+        private long getLines() {
+            return lastLineStart < size ? newlines + 1 : newlines;
+        }
+    }
+
+    /**
+     * Lines of a log file read by the viewer
+     */
+    public static class Page {
+        private final List<String> lines;
+        private final long firstLine;
+        private final long nextLine;
+        private final long totalLines;
+        private final long endOffset;
+
+        private Page(List<String> lines, long firstLine, long nextLine, long totalLines, long endOffset) {
+            this.lines = lines;
+            this.firstLine = firstLine;
+            this.nextLine = nextLine;
+            this.totalLines = totalLines;
+            this.endOffset = endOffset;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        /**
+         * Getter of the number of the first line read, starting from 0
+         *
+         * @return the first line
+         */
+        public long getFirstLine() {
+            return firstLine;
+        }
+
+        /**
+         * Getter of the number of the line after the last one read, where the next page starts
+         *
+         * @return the next line
+         */
+        public long getNextLine() {
+            return nextLine;
+        }
+
+        public long getTotalLines() {
+            return totalLines;
+        }
+
+        /**
+         * Getter of the offset after the last complete line of the file, where the live tail starts
+         *
+         * @return the offset, in bytes
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    /**
+     * Return a page of the file. Without filter the page has the lines from firstLine,
+     * with a filter it has the first lines containing the text found from firstLine
+     *
+     * @param file the log file
+     * @param firstLine number of the first line, a negative value means the last page
+     * @param count maximum number of lines
+     * @param filter text that the lines must contain, null or empty for all the lines
+     * @return the page
+     * @throws IOException
+     */
+    public Page getPage(File file, long firstLine, int count, String filter) throws IOException {
+        Index index = refresh(file);
+        long totalLines = index.getLines();
+        boolean filtered = filter != null && !filter.isEmpty();
+
+        if (firstLine < 0)
+            firstLine = filtered ? 0 : Math.max(0, totalLines - count);
+        if (firstLine >= totalLines)
+            return new Page(new ArrayList<String>(0), totalLines, totalLines, totalLines, index.lastLineStart);
+
+        // start from the nearest indexed line
+        int slot = (int) Math.min(firstLine / WebServiceConsts.LOG_VIEWER_INDEX_STRIDE, index.count - 1);
+        long line = (long) slot * WebServiceConsts.LOG_VIEWER_INDEX_STRIDE;
+
+        List<String> lines = new ArrayList<String>(Math.min(count, 1024));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            LineReader reader = new LineReader(channel, index.offsets[slot], index.size);
+            while (line < firstLine && reader.skipLine())
+                ++line;
+
+            String text;
+            while (lines.size() < count && (text = reader.readLine()) != null) {
+                ++line;
+                if (!filtered || text.contains(filter))
+                    lines.add(text);
+            }
+        }
+        return new Page(lines, firstLine, line, totalLines, index.lastLineStart);
+    }
+
+    /**
+     * Return the complete lines written after the offset, for the live tail. When the
+     * client is too far behind only the last LOG_VIEWER_TAIL_MAX_BYTES are read, and
+     * when the file was truncated or rolled the tail starts again from the beginning
+     *
+     * @param file the log file
+     * @param offset offset after the last line known by the client
+     * @param filter text that the lines must contain, null or empty for all the lines
+     * @return the new lines, the end offset of the page is where the next tail starts
+     * @throws IOException
+     */
+    public Page tail(File file, long offset, String filter) throws IOException {
+        boolean filtered = filter != null && !filter.isEmpty();
+        List<String> lines = new ArrayList<String>();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (offset > size || offset < 0)
+                offset = 0;
+
+            boolean skipPartial = false;
+            if (size - offset > WebServiceConsts.LOG_VIEWER_TAIL_MAX_BYTES) {
+                offset = size - WebServiceConsts.LOG_VIEWER_TAIL_MAX_BYTES;
+                skipPartial = true;
+            }
+
+            LineReader reader = new LineReader(channel, offset, size);
+            if (skipPartial && reader.skipLine() && reader.isLineComplete())
+                offset = reader.getPosition();
+
+            // the last line is left to the next tail until its newline is written
+            String text;
+            while ((text = reader.readLine()) != null && reader.isLineComplete()) {
+                offset = reader.getPosition();
+                if (!filtered || text.contains(filter))
+                    lines.add(text);
+            }
+        }
+        return new Page(lines, -1, -1, -1, offset);
+    }
+
+    /**
+     * Return the updated index of the file, scanning only the part not indexed yet
+     */
+    private Index refresh(File file) throws IOException {
+        String path = file.getPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Index index;
+        synchronized (indexes) {
+            index = indexes.get(path);
+        }
+        if (index != null && index.size == size && index.lastModified == lastModified)
+            return index;
+
+        if (index != null && size > index.size)
+            // the log grew, only the tail is new
+            index = extend(file, index, size, lastModified);
+        else
+            index = extend(file, new Index(0, 0, 0, 0, new long[] { 0 }, 1), size, lastModified);
+
+        synchronized (indexes) {
+            indexes.put(path, index);
+        }
+        return index;
+    }
+
+    /**
+     * Extend the index with the lines from its size to the new size
+     */
+    private static Index extend(File file, Index index, long size, long lastModified) throws IOException {
+        IndexBuilder builder = new IndexBuilder(index);
+        NewlineScanner.scan(file, index.size, size, builder);
+        return new Index(size, lastModified, builder.newlines, builder.lastLineStart, builder.offsets, builder.count);
+    }
+
+    /**
+     * Collector of the offsets of the indexed lines, starting from an index
+     */
+    private static class IndexBuilder implements NewlineScanner.Listener {
+        private final long stride = WebServiceConsts.LOG_VIEWER_INDEX_STRIDE;
+        private long newlines;
+        private long lastLineStart;
+        private long[] offsets;
+        private int count;
+
+        private IndexBuilder(Index index) {
+            newlines = index.newlines;
+            lastLineStart = index.lastLineStart;
+            offsets = Arrays.copyOf(index.offsets, Math.max(index.offsets.length, index.count + 1));
+            count = index.count;
+        }
+
+        @Override
+        public void onNewline(long offset) {
+            ++newlines;
+            lastLineStart = offset + 1;
+            if (newlines % stride == 0) {
+                if (count == offsets.length)
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = lastLineStart;
+            }
+        }
+    }
+
+    /**
+     * Reader of the lines of a part of a file with positioned reads, the bytes of a line
+     * are decoded only when the line is returned
+     */
+    private static class LineReader {
+        private final FileChannel channel;
+        private final long limit;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WebServiceConsts.LOG_VIEWER_READ_BUFFER);
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private long filePosition;
+        private long position;
+        private boolean lineComplete;
+        private boolean eof;
+
+        private LineReader(FileChannel channel, long position, long limit) {
+            this.channel = channel;
+            this.filePosition = position;
+            this.position = position;
+            this.limit = limit;
+            buffer.limit(0);
+        }
+
+        /**
+         * Return the next line without the line separator, null at the end of the part
+         */
+        private String readLine() throws IOException {
+            line.reset();
+            if (!scan(true))
+                return null;
+            int length = line.size();
+            byte[] bytes = line.toByteArray();
+            if (length > 0 && bytes[length - 1] == '\r')
+                --length;
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Skip the next line, return false at the end of the part
+         */
+        private boolean skipLine() throws IOException {
+            return scan(false);
+        }
+
+        /**
+         * Tell if the last line read ended with a newline
+         */
+        private boolean isLineComplete() {
+            return lineComplete;
+        }
+
+        /**
+         * Return the offset after the last line read
+         */
+        private long getPosition() {
+            return position;
+        }
+
+        private boolean scan(boolean keep) throws IOException {
+            if (position >= limit || eof)
+                return false;
+            lineComplete = false;
+            long lineStart = position;
+            while (position < limit) {
+                if (!buffer.hasRemaining() && !fill()) {
+                    // the file is shorter than expected, it was truncated
+                    eof = true;
+                    return position > lineStart;
+                }
+                int start = buffer.position();
+                int end = buffer.limit();
+                int i = start;
+                while (i < end && buffer.get(i) != '\n')
+                    ++i;
+                if (keep)
+                    line.write(buffer.array(), start, i - start);
+                if (i < end) {
+                    buffer.position(i + 1);
+                    position += i + 1 - start;
+                    lineComplete = true;
+                    return true;
+                }
+                buffer.position(end);
+                position += end - start;
+            }
+            return true;
+        }
+
+        private boolean fill() throws IOException {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), limit - filePosition));
+            int read = buffer.limit() == 0 ? -1 : channel.read(buffer, filePosition);
+            if (read <= 0) {
+                buffer.limit(0);
+                return false;
+            }
+            filePosition += read;
+            buffer.flip();
+            return true;
+        }
+    }
+}
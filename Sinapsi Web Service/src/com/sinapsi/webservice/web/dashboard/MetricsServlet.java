@@ -0,0 +1,136 @@
+package com.sinapsi.webservice.web.dashboard;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.sinapsi.webservice.db.DatabaseController;
+import com.sinapsi.webservice.db.EngineDBManager;
+import com.sinapsi.webservice.db.UserMacroCache;
+import com.sinapsi.webservice.engine.LogAppender;
+import com.sinapsi.webservice.engine.WebServiceEngine;
+import com.sinapsi.webservice.system.RequestMetrics;
+import com.sinapsi.webservice.system.WorkerPools;
+import com.sinapsi.webservice.websocket.Server;
+import com.sinapsi.webshared.KeyPairPool;
+
+/**
+ * Runtime metrics of the web service, in text format: the latency percentiles,
+ * status codes and payload sizes of every endpoint, followed by the counters of
+ * the db connections, the websocket sessions, the engines and the internal queues.
+ * Readable by the admins logged in to the dashboard and by the monitoring with the admin token
+ *
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Percentiles of the latency of every endpoint
+    */
+   public static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+   /**
+    * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+    *      response)
+    */
+   protected void doGet(HttpServletRequest request, HttpServletResponse response)
+         throws ServletException, IOException {
+      if (!AdminAccess.isAllowed(request, getServletContext())) {
+         response.sendError(HttpServletResponse.SC_FORBIDDEN);
+         return;
+      }
+
+      response.setContentType("text/plain");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+      PrintWriter out = response.getWriter();
+
+      RequestMetrics metrics = (RequestMetrics) getServletContext().getAttribute("request_metrics");
+      if (metrics != null) {
+         for (RequestMetrics.Endpoint endpoint : metrics.getEndpoints()) {
+            String label = "endpoint=\"" + endpoint.getName() + "\"";
+            out.println("sinapsi_http_requests_total{" + label + "} " + endpoint.getCount());
+            for (double percentile : PERCENTILES)
+               out.println("sinapsi_http_latency_us{" + label + ",quantile=\"" + percentile + "\"} "
+                     + endpoint.getPercentile(percentile));
+            out.println("sinapsi_http_latency_us_mean{" + label + "} " + endpoint.getMeanMicros());
+            out.println("sinapsi_http_latency_us_max{" + label + "} " + endpoint.getMaxMicros());
+            for (int status = 1; status <= 5; ++status)
+               out.println("sinapsi_http_responses_total{" + label + ",status=\"" + status + "xx\"} "
+                     + endpoint.getStatusCount(status));
+            out.println("sinapsi_http_bytes_in_total{" + label + "} " + endpoint.getBytesIn());
+            out.println("sinapsi_http_bytes_out_total{" + label + "} " + endpoint.getBytesOut());
+         }
+      }
+
+      for (Map.Entry<String, Number> gauge : getGauges(getServletContext()).entrySet())
+         out.println(gauge.getKey() + " " + gauge.getValue());
+      out.flush();
+   }
+
+   /**
+    * Return the counters of the db connections, of the websocket server, of the
+    * engines and of the internal queues, by name
+    *
+    * @param context servlet context
+    * @return the counters, in a stable order
+    */
+   public static Map<String, Number> getGauges(ServletContext context) {
+      Map<String, Number> gauges = new LinkedHashMap<String, Number>();
+
+      gauges.put("sinapsi_db_connections_opened_total", DatabaseController.getOpenedConnections());
+      gauges.put("sinapsi_db_connections_open", DatabaseController.getOpenConnections());
+      gauges.put("sinapsi_db_connections_failed_total", DatabaseController.getFailedConnections());
+      gauges.put("sinapsi_db_connect_us_total", DatabaseController.getConnectNanos() / 1000);
+
+      Server wsserver = (Server) context.getAttribute("wsserver");
+      if (wsserver != null) {
+         gauges.put("sinapsi_ws_sessions", wsserver.getSessionCount());
+         gauges.put("sinapsi_ws_queued_messages", wsserver.getQueuedMessages());
+         gauges.put("sinapsi_ws_dropped_messages", wsserver.getDroppedMessages());
+         gauges.put("sinapsi_ws_evictions_total", wsserver.getEvictions());
+         gauges.put("sinapsi_ws_pending_continuations", wsserver.getPendingContinuations());
+      }
+
+      WebServiceEngine engine = (WebServiceEngine) context.getAttribute("engine");
+      if (engine != null) {
+         gauges.put("sinapsi_engine_users", engine.getEngineCount());
+         gauges.put("sinapsi_engine_continuations_executed_total", engine.getContinuationsExecuted());
+         gauges.put("sinapsi_engine_continuations_forwarded_total", engine.getContinuationsForwarded());
+      }
+
+      WorkerPools workers = (WorkerPools) context.getAttribute("workers");
+      if (workers != null) {
+         gauges.put("sinapsi_workers_queued{pool=\"db\"}", workers.getQueued(WorkerPools.Pool.DB));
+         gauges.put("sinapsi_workers_queued{pool=\"cpu\"}", workers.getQueued(WorkerPools.Pool.CPU));
+      }
+
+      KeyPairPool keyPool = (KeyPairPool) context.getAttribute("key_pool");
+      if (keyPool != null) {
+         gauges.put("sinapsi_key_pool_available", keyPool.getAvailable());
+         gauges.put("sinapsi_key_pool_taken_total", keyPool.getTakenCount());
+         gauges.put("sinapsi_key_pool_exhausted_total", keyPool.getExhaustedCount());
+         gauges.put("sinapsi_key_pool_generated_total", keyPool.getGeneratedCount());
+      }
+
+      EngineDBManager engineManager = (EngineDBManager) context.getAttribute("engines_db");
+      if (engineManager != null) {
+         UserMacroCache cache = engineManager.getMacroCache();
+         gauges.put("sinapsi_macro_cache_bytes", cache.getBytes());
+         gauges.put("sinapsi_macro_cache_hits_total", cache.getHits());
+         gauges.put("sinapsi_macro_cache_misses_total", cache.getMisses());
+      }
+
+      gauges.put("sinapsi_log_dropped_total", LogAppender.getTotalDropped());
+      return gauges;
+   }
+}
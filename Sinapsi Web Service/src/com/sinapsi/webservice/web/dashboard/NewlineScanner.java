@@ -0,0 +1,95 @@
+package com.sinapsi.webservice.web.dashboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Scan of the newlines of a part of a log file, mapped in memory, used by the access
+ * log stats and by the log viewer. The bytes are checked eight at a time: a byte of
+ * (word ^ NEWLINES) is zero where the word has a newline, and the zero bytes are found
+ * without carries between the bytes, so the words without newlines are skipped and
+ * the newlines of a word can be counted with a single bitCount
+ *
+ */
+final class NewlineScanner {
+    private static final long MAP_CHUNK_BYTES = 64L * 1024 * 1024;
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * Receiver of the position of every newline found by the scan
+     */
+    interface Listener {
+        void onNewline(long offset);
+    }
+
+    private NewlineScanner() {
+    }
+
+    /**
+     * Count the newlines of a part of the file
+     *
+     * @param file the file
+     * @param from offset of the first byte
+     * @param to offset after the last byte
+     * @return number of newlines
+     * @throws IOException
+     */
+    static long count(File file, long from, long to) throws IOException {
+        return scan(file, from, to, null);
+    }
+
+    /**
+     * Pass the offset of every newline of a part of the file to the listener, in order
+     *
+     * @param file the file
+     * @param from offset of the first byte
+     * @param to offset after the last byte
+     * @param listener the listener, null to only count the newlines
+     * @return number of newlines
+     * @throws IOException
+     */
+    static long scan(File file, long from, long to, Listener listener) throws IOException {
+        long count = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            for (long position = from; position < to; position += MAP_CHUNK_BYTES) {
+                long length = Math.min(MAP_CHUNK_BYTES, to - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                buffer.order(ByteOrder.nativeOrder());
+
+                while (buffer.remaining() >= 8) {
+                    int start = buffer.position();
+                    long x = buffer.getLong() ^ NEWLINES;
+                    long zeros = ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+                    if (zeros == 0)
+                        continue;
+                    if (listener == null) {
+                        count += Long.bitCount(zeros);
+                        continue;
+                    }
+                    for (int i = start; i < start + 8; ++i) {
+                        if (buffer.get(i) == '\n') {
+                            ++count;
+                            listener.onNewline(position + i);
+                        }
+                    }
+                }
+                while (buffer.hasRemaining()) {
+                    int i = buffer.position();
+                    if (buffer.get() == '\n') {
+                        ++count;
+                        if (listener != null)
+                            listener.onNewline(position + i);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
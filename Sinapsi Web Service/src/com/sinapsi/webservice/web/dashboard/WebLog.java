@@ -1,10 +1,8 @@
 package com.sinapsi.webservice.web.dashboard;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -18,12 +16,17 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import com.sinapsi.model.UserInterface;
-import com.sinapsi.utils.Pair;
 import com.sinapsi.webservice.db.UserDBManager;
+import com.sinapsi.webservice.system.WebServiceConsts;
 
 /**
- * Servlet implementation class WebLog
+ * Servlet implementation class WebLog.
+ * Show a page of a log file read through the log viewer, or with the tail parameter
+ * return as json the lines written after an offset, for the live tail of the page
  */
 @WebServlet("/web_log")
 public class WebLog extends HttpServlet {
@@ -42,7 +45,6 @@ public class WebLog extends HttpServlet {
     * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse
     *      response)
     */
-   @SuppressWarnings("unchecked")
    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
       UserDBManager userManager = (UserDBManager) getServletContext().getAttribute("users_db");
       HttpSession session = request.getSession();
@@ -83,203 +85,89 @@ public class WebLog extends HttpServlet {
          e1.printStackTrace();
       }
 
-      switch (type) {
-         case "tomcat":
-            try {
-               DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-               Date date = new Date();
-               String dayliLog = "/var/log/tomcat7/localhost_access_log."
-                     + dateFormat.format(date) + ".txt";
-
-               // filter enabled
-               if (dateFilter != "" && dateFilter != null) {
-                  // check if exist the file
-                  File f = new File("/var/log/tomcat7/localhost_access_log."
-                        + dateFilter + ".txt");
-
-                  if (f.exists()) {
-                     dayliLog = "/var/log/tomcat7/localhost_access_log."
-                           + dateFilter + ".txt";
-                  } else {
-                     dayliLog = "/var/log/sinapsi/empty_file.log";
-                  }
+      LogViewer viewer = (LogViewer) getServletContext().getAttribute("log_viewer");
+      File file = getLogFile(type, dateFilter);
+      if (file == null || viewer == null) {
+         response.sendError(HttpServletResponse.SC_NOT_FOUND);
+         return;
+      }
+      if (!file.isFile())
+         file = new File("/var/log/sinapsi/empty_file.log");
 
-               }
+      String textFilter = request.getParameter("grep");
+      String tail = request.getParameter("tail");
 
-               FileInputStream fstram = new FileInputStream(new File(dayliLog));
-               Pair<BufferedReader, String> brrs = (Pair<BufferedReader, String>) session
-                     .getAttribute("log_buffer");
-               BufferedReader brr = null;
-               if (brrs != null)
-                  brr = brrs.getFirst();
+      try {
+         // live tail: only the lines written after the offset known by the page
+         if (tail != null) {
+            LogViewer.Page page = viewer.tail(file, Long.parseLong(tail), textFilter);
+            JsonObject json = new JsonObject();
+            json.addProperty("offset", page.getEndOffset());
+            JsonArray lines = new JsonArray();
+            for (String line : page.getLines())
+               lines.add(new JsonPrimitive(line));
+            json.add("lines", lines);
+
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            PrintWriter out = response.getWriter();
+            out.print(json.toString());
+            out.flush();
+            return;
+         }
 
-               if (brr == null)
-                  brr = new BufferedReader(new InputStreamReader(fstram));
-               
-               session.setAttribute("log_buffer",new Pair<BufferedReader, String>(brr, "tomcat"));
-               request.getRequestDispatcher("log.jsp").forward(request,response);
+         String line = request.getParameter("line");
+         LogViewer.Page page = viewer.getPage(file,
+                                              line != null && !line.isEmpty() ? Long.parseLong(line) : -1,
+                                              WebServiceConsts.LOG_VIEWER_PAGE_LINES,
+                                              textFilter);
+         request.setAttribute("log_page", page);
+         request.setAttribute("log_type", type);
+         request.setAttribute("log_date", dateFilter);
+         request.setAttribute("log_grep", textFilter);
+         request.getRequestDispatcher("log.jsp").forward(request, response);
+
+      } catch (NumberFormatException e) {
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      } catch (IOException e) {
+         e.printStackTrace();
+         response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+   }
 
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
-            break;
+   /**
+    * Return the log file of the type, for the daily logs the file of the date
+    * or of the current day
+    *
+    * @param type type of the log
+    * @param date date of the daily log, in the yyyy-MM-dd format, can be null or empty
+    * @return the log file, null if the type is unknown
+    */
+   private File getLogFile(String type, String date) {
+      if (date == null || date.isEmpty()) {
+         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+         date = dateFormat.format(new Date());
+      } else if (!date.matches("\\d{4}-\\d{2}-\\d{2}")) {
+         // the date is part of the path
+         return new File("/var/log/sinapsi/empty_file.log");
+      }
 
+      switch (type != null ? type : "") {
+         case "tomcat":
+            return new File("/var/log/tomcat7/localhost_access_log." + date + ".txt");
          case "catalina":
-            try {
-               FileInputStream fstram = new FileInputStream(new File(
-                     "/var/log/tomcat7/catalina.out"));
-               Pair<BufferedReader, String> brrs = (Pair<BufferedReader, String>) session
-                     .getAttribute("log_buffer");
-               BufferedReader brr = null;
-               if (brrs != null)
-                  brr = brrs.getFirst();
-
-               if (brr == null)
-                  brr = new BufferedReader(new InputStreamReader(fstram));
-
-               session.setAttribute("log_buffer",new Pair<BufferedReader, String>(brr, "catalina"));
-               request.getRequestDispatcher("log.jsp").forward(request,response);
-
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
-            break;
-
+            return new File("/var/log/tomcat7/catalina.out");
          case "db":
-            try {
-               FileInputStream fstram = new FileInputStream(new File(
-                     "/var/log/postgresql/postgresql-9.1-main.log"));
-               Pair<BufferedReader, String> brrs = (Pair<BufferedReader, String>) session
-                     .getAttribute("log_buffer");
-               BufferedReader brr = null;
-               if (brrs != null)
-                  brr = brrs.getFirst();
-
-               if (brr == null)
-                  brr = new BufferedReader(new InputStreamReader(fstram));
-
-               session.setAttribute("log_buffer", new Pair<BufferedReader, String>(brr, "db"));
-               request.getRequestDispatcher("log.jsp").forward(request,response);
-
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
-            break;
-
+            return new File("/var/log/postgresql/postgresql-9.1-main.log");
          case "ws":
-            try {
-               DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-               Date date = new Date();
-               String dayliLog = "/var/log/sinapsi/web_socket."
-                     + dateFormat.format(date) + ".log";
-
-               // filter enabled
-               if (dateFilter != "") {
-                  // check if exist the file
-                  File f = new File("/var/log/sinapsi/web_socket." + dateFilter
-                        + ".log");
-
-                  if (f.exists()) {
-                     dayliLog = "/var/log/sinapsi/web_socket." + dateFilter
-                           + ".log";
-                  } else {
-                     dayliLog = "/var/log/sinapsi/empty_file.log";
-                  }
-               }
-
-               FileInputStream fstram = new FileInputStream(new File(dayliLog));
-               Pair<BufferedReader, String> brrs = (Pair<BufferedReader, String>) session
-                     .getAttribute("log_buffer");
-               BufferedReader brr = null;
-               if (brrs != null)
-                  brr = brrs.getFirst();
-
-               if (brr == null)
-                  brr = new BufferedReader(new InputStreamReader(fstram));
-
-               session.setAttribute("log_buffer", new Pair<BufferedReader, String>(brr, "ws"));
-               request.getRequestDispatcher("log.jsp").forward(request,response);
-
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
-            break;
-
+            return new File("/var/log/sinapsi/web_socket." + date + ".log");
          case "webs":
-            try {
-               DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-               Date date = new Date();
-               String dayliLog = "/var/log/sinapsi/web_service."
-                     + dateFormat.format(date) + ".log";
-
-               // filter enabled
-               if (dateFilter != "") {
-                  // check if exist the file
-                  File f = new File("/var/log/sinapsi/web_service."
-                        + dateFilter + ".log");
-
-                  if (f.exists()) {
-                     dayliLog = "/var/log/sinapsi/web_service." + dateFilter
-                           + ".log";
-                  } else {
-                     dayliLog = "/var/log/sinapsi/empty_file.log";
-                  }
-               }
-
-               FileInputStream fstram = new FileInputStream(new File(dayliLog));
-               Pair<BufferedReader, String> brrs = (Pair<BufferedReader, String>) session
-                     .getAttribute("log_buffer");
-               BufferedReader brr = null;
-               if (brrs != null)
-                  brr = brrs.getFirst();
-
-               if (brr == null)
-                  brr = new BufferedReader(new InputStreamReader(fstram));
-
-               session.setAttribute("log_buffer", new Pair<BufferedReader, String>(brr, "webs"));
-               request.getRequestDispatcher("log.jsp").forward(request, response);
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
-            break;
-
+            return new File("/var/log/sinapsi/web_service." + date + ".log");
          case "actionlog":
-            try {
-               DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-               Date date = new Date();
-               String dayliLog = "/var/log/sinapsi/action_log."
-                     + dateFormat.format(date) + ".log";
-
-               // filter enabled
-               if (dateFilter != "") {
-                  // check if exist the file
-                  File f = new File("/var/log/sinapsi/action_log." + dateFilter
-                        + ".log");
-
-                  if (f.exists()) {
-                     dayliLog = "/var/log/sinapsi/action_log." + dateFilter
-                           + ".log";
-                  } else {
-                     dayliLog = "/var/log/sinapsi/empty_file.log";
-                  }
-               }
-
-               FileInputStream fstram = new FileInputStream(new File(dayliLog));
-               Pair<BufferedReader, String> brrs = (Pair<BufferedReader, String>) session
-                     .getAttribute("log_buffer");
-               BufferedReader brr = null;
-               if (brrs != null)
-                  brr = brrs.getFirst();
-
-               if (brr == null)
-                  brr = new BufferedReader(new InputStreamReader(fstram));
-
-               session.setAttribute("log_buffer", new Pair<BufferedReader, String>(brr, "actionlog"));
-               request.getRequestDispatcher("log.jsp").forward(request,response);
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
-            break;
+            return new File("/var/log/sinapsi/action_log." + date + ".log");
+         default:
+            return null;
       }
    }
 
@@ -47,7 +47,11 @@ public class WebLogin extends HttpServlet {
                    
                     cookie.setMaxAge(60*60);
                     response.addCookie(cookie);
+                    // a new session, so an id known before the login is not authenticated
+                    session.invalidate();
+                    session = request.getSession(true);
                     session.setAttribute("role", user.getRole());
+                    session.setAttribute(AdminAccess.AUTHENTICATED_USER, email);
                     response.sendRedirect("dashboard");
                 } else {
                     request.getRequestDispatcher("error.html").forward(request, response);
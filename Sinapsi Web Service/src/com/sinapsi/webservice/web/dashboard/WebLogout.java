@@ -8,6 +8,7 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 /**
  * Servlet implementation class WebLogout
@@ -41,6 +42,9 @@ public class WebLogout extends HttpServlet {
             loginCookie.setMaxAge(0);
             response.addCookie(loginCookie);
         }
+        HttpSession session = request.getSession(false);
+        if(session != null)
+            session.invalidate();
         response.sendRedirect("login.html");
 	}
 
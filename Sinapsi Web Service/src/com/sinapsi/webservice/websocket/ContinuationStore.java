@@ -0,0 +1,451 @@
+package com.sinapsi.webservice.websocket;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sinapsi.engine.execution.RemoteExecutionDescriptor;
+import com.sinapsi.webservice.engine.WebServiceGsonManager;
+
+/**
+ * Durable store of the remote continuations waiting for an offline device.
+ * Every device has a directory of append-only segment files, and an in-memory
+ * index of the pending records, rebuilt from the segments at startup.
+ * A record is acknowledged when the device confirms it with a continuation ack
+ * carrying its continuation id, so a record lost with a dropped connection is sent
+ * again when the device reconnects: the sequence number of the last acknowledged
+ * record is saved in the cursor file of the device, and the segments holding only
+ * acknowledged records are deleted.
+ * Records older than the ttl are skipped, and when a device exceeds the caps
+ * its oldest records are dropped. When the directory can't be used the store
+ * stays unavailable and nothing is stored
+ *
+ */
+public class ContinuationStore {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+
+    // length, sequence number, expiration time
+    private static final int RECORD_HEADER_BYTES = 4 + 8 + 8;
+
+    private final File directory;
+    private final long ttlMillis;
+    private final int maxRecords;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final ConcurrentMap<Integer, DeviceLog> logs = new ConcurrentHashMap<Integer, DeviceLog>();
+    private volatile boolean available = false;
+
+    /**
+     * Ctor
+     *
+     * @param directory root directory of the store
+     * @param ttlMillis time after which a continuation is no longer delivered
+     * @param maxRecords max number of pending continuations of a device
+     * @param maxBytes max size of the pending continuations of a device
+     * @param segmentBytes size after which a new segment file is started
+     */
+    public ContinuationStore(File directory, long ttlMillis, int maxRecords, long maxBytes, long segmentBytes) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Rebuild the index of the pending continuations from the segment files.
+     * The store is available only after a successful load
+     *
+     * @throws IOException if the store directory can't be created or read
+     */
+    public void load() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create the continuation store: " + directory);
+
+        File[] devices = directory.listFiles();
+        if (devices == null)
+            throw new IOException("Can't read the continuation store: " + directory);
+
+        for (File dir : devices) {
+            int idDevice;
+            try {
+                idDevice = Integer.parseInt(dir.getName());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            DeviceLog log = new DeviceLog(dir);
+            synchronized (log) {
+                log.load();
+            }
+            logs.put(idDevice, log);
+        }
+        available = true;
+    }
+
+    /**
+     * Tells if the continuations can be stored
+     *
+     * @return true if the store has been loaded
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Append a continuation to the queue of a device. The stored descriptor
+     * gets a new continuation id, so the device can discard a second delivery
+     *
+     * @param idDevice id of the device
+     * @param red remote execution descriptor
+     * @return the stored descriptor, with its continuation id
+     * @throws IOException if the continuation can't be written, or the store is unavailable
+     */
+    public RemoteExecutionDescriptor append(int idDevice, RemoteExecutionDescriptor red) throws IOException {
+        if (!available)
+            throw new IOException("The continuation store is unavailable: " + directory);
+
+        RemoteExecutionDescriptor stored = new RemoteExecutionDescriptor(red.getIdMacro(), red.getLocalVariables(), red.getStack());
+        stored.setContinuationId(UUID.randomUUID().toString());
+
+        Gson gson = WebServiceGsonManager.getGson();
+        byte[] data = gson.toJson(stored).getBytes(UTF8);
+
+        DeviceLog log = logOf(idDevice);
+        synchronized (log) {
+            log.append(stored.getContinuationId(), data, System.currentTimeMillis() + ttlMillis);
+            return stored;
+        }
+    }
+
+    /**
+     * Return the pending continuations of a device, in order
+     *
+     * @param idDevice id of the device
+     * @return descriptors not yet acknowledged and not expired
+     */
+    public List<RemoteExecutionDescriptor> getPending(int idDevice) {
+        List<RemoteExecutionDescriptor> pending = new ArrayList<RemoteExecutionDescriptor>();
+        DeviceLog log = logs.get(idDevice);
+        if (log == null)
+            return pending;
+
+        Gson gson = WebServiceGsonManager.getGson();
+        synchronized (log) {
+            long now = System.currentTimeMillis();
+            for (Record record : log.records) {
+                if (record.acknowledged || record.expiresAt <= now)
+                    continue;
+                try {
+                    String json = new String(log.read(record), UTF8);
+                    pending.add(gson.fromJson(json, RemoteExecutionDescriptor.class));
+                } catch (IOException e) {
+                    // unreadable record, it will be dropped with the segment
+                    record.acknowledged = true;
+                }
+            }
+            log.compact();
+        }
+        return pending;
+    }
+
+    /**
+     * Mark a continuation as delivered, when the device acknowledges it
+     *
+     * @param idDevice id of the device
+     * @param continuationId continuation id of the descriptor
+     */
+    public void acknowledge(int idDevice, String continuationId) {
+        DeviceLog log = logs.get(idDevice);
+        if (log == null || continuationId == null)
+            return;
+
+        synchronized (log) {
+            for (Record record : log.records) {
+                if (continuationId.equals(record.continuationId)) {
+                    record.acknowledged = true;
+                    break;
+                }
+            }
+            log.compact();
+        }
+    }
+
+    /**
+     * Return the number of pending continuations of all the devices
+     *
+     * @return pending continuations
+     */
+    public long size() {
+        long size = 0;
+        for (DeviceLog log : logs.values()) {
+            synchronized (log) {
+                for (Record record : log.records) {
+                    if (!record.acknowledged)
+                        size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    private DeviceLog logOf(int idDevice) {
+        DeviceLog log = logs.get(idDevice);
+        if (log == null) {
+            log = new DeviceLog(new File(directory, Integer.toString(idDevice)));
+            DeviceLog old = logs.putIfAbsent(idDevice, log);
+            if (old != null)
+                log = old;
+        }
+        return log;
+    }
+
+    /**
+     * Position of a record in the segment files
+     */
+    private static class Record {
+        private final long sequence;
+        private final String continuationId;
+        private final long expiresAt;
+        private final File segment;
+        private final long offset;
+        private final int length;
+        private boolean acknowledged = false;
+
+        private Record(long sequence, String continuationId, long expiresAt, File segment, long offset, int length) {
+            this.sequence = sequence;
+            this.continuationId = continuationId;
+            this.expiresAt = expiresAt;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Segments, index and cursor of a device. Every method must be called
+     * holding the lock of the log
+     */
+    private class DeviceLog {
+        private final File dir;
+        private final ArrayDeque<Record> records = new ArrayDeque<Record>();
+        private long nextSequence = 1;
+        private long cursor = 0;
+        private File active;
+        private long activeLength;
+
+        private DeviceLog(File dir) {
+            this.dir = dir;
+        }
+
+        private void load() throws IOException {
+            cursor = readCursor();
+            nextSequence = cursor + 1;
+
+            File[] segments = dir.listFiles();
+            if (segments == null)
+                return;
+            Arrays.sort(segments);
+
+            for (File segment : segments) {
+                if (!segment.getName().endsWith(SEGMENT_SUFFIX))
+                    continue;
+
+                Gson gson = WebServiceGsonManager.getGson();
+                long offset = 0;
+                boolean pending = false;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+                try {
+                    while (true) {
+                        int length = in.readInt();
+                        long sequence = in.readLong();
+                        long expiresAt = in.readLong();
+                        byte[] data = new byte[length];
+                        in.readFully(data);
+
+                        if (sequence > cursor) {
+                            String continuationId = continuationIdOf(gson, data);
+                            records.add(new Record(sequence, continuationId, expiresAt, segment, offset + RECORD_HEADER_BYTES, length));
+                            pending = true;
+                        }
+                        nextSequence = Math.max(nextSequence, sequence + 1);
+                        offset += RECORD_HEADER_BYTES + length;
+                    }
+                } catch (EOFException e) {
+                    // end of the segment, or a record torn by a crash
+                } finally {
+                    in.close();
+                }
+
+                if (offset < segment.length()) {
+                    RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+                    try {
+                        raf.setLength(offset);
+                    } finally {
+                        raf.close();
+                    }
+                }
+
+                if (!pending) {
+                    segment.delete();
+                } else {
+                    active = segment;
+                    activeLength = offset;
+                }
+            }
+        }
+
+        private long append(String continuationId, byte[] data, long expiresAt) throws IOException {
+            if (active == null || activeLength >= segmentBytes) {
+                if (!dir.isDirectory() && !dir.mkdirs())
+                    throw new IOException("Can't create the continuation queue: " + dir);
+                active = new File(dir, String.format("%020d", nextSequence) + SEGMENT_SUFFIX);
+                activeLength = 0;
+            }
+
+            long sequence = nextSequence;
+            FileOutputStream file = new FileOutputStream(active, true);
+            DataOutputStream out = new DataOutputStream(file);
+            try {
+                out.writeInt(data.length);
+                out.writeLong(sequence);
+                out.writeLong(expiresAt);
+                out.write(data);
+                out.flush();
+                // the continuation must survive a restart
+                file.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            nextSequence++;
+            records.add(new Record(sequence, continuationId, expiresAt, active, activeLength + RECORD_HEADER_BYTES, data.length));
+            activeLength += RECORD_HEADER_BYTES + data.length;
+
+            // caps exceeded, drop the oldest continuations
+            int count = 0;
+            long pendingBytes = 0;
+            for (Record record : records) {
+                if (!record.acknowledged) {
+                    count++;
+                    pendingBytes += record.length;
+                }
+            }
+            Iterator<Record> it = records.iterator();
+            while (it.hasNext() && (count > maxRecords || pendingBytes > maxBytes)) {
+                Record record = it.next();
+                if (!record.acknowledged) {
+                    record.acknowledged = true;
+                    count--;
+                    pendingBytes -= record.length;
+                }
+            }
+            compact();
+            return sequence;
+        }
+
+        private String continuationIdOf(Gson gson, byte[] data) {
+            try {
+                RemoteExecutionDescriptor red = gson.fromJson(new String(data, UTF8), RemoteExecutionDescriptor.class);
+                return red != null ? red.getContinuationId() : null;
+            } catch (JsonParseException e) {
+                // unreadable record, it can't be acknowledged and expires with the ttl
+                return null;
+            }
+        }
+
+        private byte[] read(Record record) throws IOException {
+            byte[] data = new byte[record.length];
+            RandomAccessFile raf = new RandomAccessFile(record.segment, "r");
+            try {
+                raf.seek(record.offset);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            return data;
+        }
+
+        /**
+         * Remove the acknowledged and expired records from the head of the index,
+         * save the cursor and delete the segments no longer needed
+         */
+        private void compact() {
+            long now = System.currentTimeMillis();
+            long newCursor = cursor;
+            Record head;
+            while ((head = records.peek()) != null && (head.acknowledged || head.expiresAt <= now)) {
+                records.poll();
+                newCursor = head.sequence;
+
+                Record next = records.peek();
+                File segment = head.segment;
+                if ((next == null || next.segment != segment) && segment != active)
+                    segment.delete();
+            }
+
+            if (newCursor == cursor)
+                return;
+            cursor = newCursor;
+
+            if (records.isEmpty() && active != null) {
+                // nothing pending, start a new segment with the next continuation
+                active.delete();
+                active = null;
+            }
+            try {
+                writeCursor();
+            } catch (IOException e) {
+                // the records will be delivered again after a restart
+                e.printStackTrace();
+            }
+        }
+
+        private long readCursor() throws IOException {
+            File file = new File(dir, CURSOR_FILE);
+            if (!file.exists())
+                return 0;
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readLong();
+            } catch (EOFException e) {
+                return 0;
+            } finally {
+                in.close();
+            }
+        }
+
+        private void writeCursor() throws IOException {
+            File tmp = new File(dir, CURSOR_FILE + ".tmp");
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+            try {
+                out.writeLong(cursor);
+            } finally {
+                out.close();
+            }
+            File file = new File(dir, CURSOR_FILE);
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        }
+    }
+}
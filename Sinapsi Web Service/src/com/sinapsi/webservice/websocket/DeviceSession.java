@@ -0,0 +1,94 @@
+package com.sinapsi.webservice.websocket;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Websocket connection of a device of a user
+ *
+ */
+public class DeviceSession {
+    private final String username;
+    private final int idDevice;
+    private final WebSocket connection;
+    private final OutboundQueue queue;
+    private final String framing;
+    private volatile long lastSeen = System.currentTimeMillis();
+
+    /**
+     * Ctor
+     *
+     * @param username email of the user
+     * @param idDevice id of the device
+     * @param connection websocket connection of the device
+     * @param queue queue of the messages to send to the device
+     * @param framing framing mode negotiated with the device
+     */
+    public DeviceSession(String username, int idDevice, WebSocket connection, OutboundQueue queue, String framing) {
+        this.username = username;
+        this.idDevice = idDevice;
+        this.connection = connection;
+        this.queue = queue;
+        this.framing = framing;
+    }
+
+    /**
+     * Return the email of the user
+     *
+     * @return username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Return the id of the device
+     *
+     * @return id of the device
+     */
+    public int getIdDevice() {
+        return idDevice;
+    }
+
+    /**
+     * Return the websocket connection of the device
+     *
+     * @return websocket connection
+     */
+    public WebSocket getConnection() {
+        return connection;
+    }
+
+    /**
+     * Return the queue of the messages to send to the device
+     *
+     * @return outbound queue
+     */
+    public OutboundQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Return the framing mode negotiated with the device
+     *
+     * @return framing mode, one of the BinaryFrameCodec modes
+     */
+    public String getFraming() {
+        return framing;
+    }
+
+    /**
+     * Return the last time something was received from the device
+     *
+     * @return timestamp in milliseconds
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    /**
+     * Update the last time something was received from the device
+     */
+    public void touch() {
+        lastSeen = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,92 @@
+package com.sinapsi.webservice.websocket;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.framing.FramedataImpl1;
+
+/**
+ * Timer wheel checking the liveness of the websocket sessions. The sessions are
+ * spread over the slots of the wheel, and every tick checks only one slot, so a
+ * single timer serves all the connections and the pings are spread over time.
+ * An idle session gets a ping, a session idle for longer than the timeout is closed
+ *
+ */
+public class HeartbeatWheel implements Runnable {
+    private final Set<DeviceSession>[] slots;
+    private final long pingAfterMillis;
+    private final long idleTimeoutMillis;
+    private int cursor = 0;
+
+    /**
+     * Ctor
+     *
+     * @param slots number of slots of the wheel, the wheel must tick every interval / slots
+     * @param pingAfterMillis idle time after which a session gets a ping
+     * @param idleTimeoutMillis idle time after which a session is closed
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HeartbeatWheel(int slots, long pingAfterMillis, long idleTimeoutMillis) {
+        this.slots = new Set[slots];
+        for (int i = 0; i < slots; ++i)
+            this.slots[i] = Collections.newSetFromMap(new ConcurrentHashMap<DeviceSession, Boolean>());
+        this.pingAfterMillis = pingAfterMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Add a session to the wheel
+     *
+     * @param session the session
+     */
+    public void add(DeviceSession session) {
+        slotOf(session).add(session);
+    }
+
+    /**
+     * Remove a session from the wheel
+     *
+     * @param session the session
+     */
+    public void remove(DeviceSession session) {
+        slotOf(session).remove(session);
+    }
+
+    /**
+     * Check the sessions of the next slot
+     */
+    @Override
+    public void run() {
+        Set<DeviceSession> slot;
+        synchronized (this) {
+            cursor = (cursor + 1) % slots.length;
+            slot = slots[cursor];
+        }
+
+        long now = System.currentTimeMillis();
+        for (DeviceSession session : slot) {
+            long idle = now - session.getLastSeen();
+            try {
+                if (idle >= idleTimeoutMillis) {
+                    // a half-open connection never completes the close handshake
+                    slot.remove(session);
+                    session.getConnection().closeConnection(CloseFrame.GOING_AWAY, "Heartbeat timeout");
+                } else if (idle >= pingAfterMillis && session.getConnection().isOpen()) {
+                    FramedataImpl1 ping = new FramedataImpl1(Opcode.PING);
+                    ping.setFin(true);
+                    session.getConnection().sendFrame(ping);
+                }
+            } catch (RuntimeException e) {
+                // the connection has been closed meanwhile
+                slot.remove(session);
+            }
+        }
+    }
+
+    private Set<DeviceSession> slotOf(DeviceSession session) {
+        return slots[(session.getIdDevice() & 0x7FFFFFFF) % slots.length];
+    }
+}
@@ -0,0 +1,131 @@
+package com.sinapsi.webservice.websocket;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
+
+/**
+ * Bounded queue of the messages waiting to be sent on a websocket connection.
+ * When the queue is full, the overflow policy decides what to do with a new message
+ *
+ */
+public class OutboundQueue {
+
+    /**
+     * What to do when a message is offered to a full queue
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest queued message
+         */
+        DROP_OLDEST,
+
+        /**
+         * Keep only the last model update notification, and drop
+         * the oldest message if the queue is still full. A device missing
+         * a notification sees a gap in the revisions and pulls the changes
+         */
+        COALESCE,
+
+        /**
+         * Refuse the message, the connection should be closed
+         */
+        DISCONNECT
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<OutgoingMessage> messages = new ArrayDeque<OutgoingMessage>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private long dropped = 0;
+
+    /**
+     * Ctor
+     *
+     * @param capacity max number of queued messages
+     * @param policy overflow policy
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add a message to the queue
+     *
+     * @param message the message
+     * @return false if the queue is full and the policy is DISCONNECT
+     */
+    public synchronized boolean offer(OutgoingMessage message) {
+        if (policy == OverflowPolicy.COALESCE && SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION.equals(message.getMsgType())) {
+            Iterator<OutgoingMessage> it = messages.iterator();
+            while (it.hasNext()) {
+                if (SinapsiMessageTypes.MODEL_UPDATED_NOTIFICATION.equals(it.next().getMsgType())) {
+                    it.remove();
+                    dropped++;
+                }
+            }
+        }
+
+        if (messages.size() >= capacity) {
+            if (policy == OverflowPolicy.DISCONNECT)
+                return false;
+            messages.poll();
+            dropped++;
+        }
+        messages.add(message);
+        return true;
+    }
+
+    /**
+     * Remove the first message from the queue
+     *
+     * @return the message, null if the queue is empty
+     */
+    public synchronized OutgoingMessage poll() {
+        return messages.poll();
+    }
+
+    /**
+     * Remove every message from the queue
+     */
+    public synchronized void clear() {
+        messages.clear();
+    }
+
+    /**
+     * Return the number of queued messages
+     *
+     * @return depth of the queue
+     */
+    public synchronized int getDepth() {
+        return messages.size();
+    }
+
+    /**
+     * Return the number of messages dropped by the overflow policy
+     *
+     * @return dropped messages
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Mark the queue as being drained
+     *
+     * @return false if the queue was already being drained
+     */
+    boolean startDraining() {
+        return draining.compareAndSet(false, true);
+    }
+
+    /**
+     * Mark the queue as no longer being drained
+     */
+    void stopDraining() {
+        draining.set(false);
+    }
+}
@@ -0,0 +1,72 @@
+package com.sinapsi.webservice.websocket;
+
+import com.google.gson.Gson;
+import com.sinapsi.engine.execution.RemoteExecutionDescriptor;
+import com.sinapsi.webservice.engine.WebServiceGsonManager;
+import com.sinapsi.webshared.wsproto.BinaryFrameCodec;
+import com.sinapsi.webshared.wsproto.WebSocketMessage;
+
+/**
+ * Message to send to one or more devices. The text and binary encodings
+ * are built only when needed, and only once for all the receivers
+ *
+ */
+public class OutgoingMessage {
+    private final WebSocketMessage message;
+    private final RemoteExecutionDescriptor descriptor;
+    private String text;
+    private byte[] binary;
+    private byte[] deflated;
+
+    /**
+     * Ctor
+     *
+     * @param message the message
+     * @param descriptor the remote execution descriptor carried by the message, can be null
+     * @param text the text encoding of the message if already known, can be null
+     */
+    public OutgoingMessage(WebSocketMessage message, RemoteExecutionDescriptor descriptor, String text) {
+        this.message = message;
+        this.descriptor = descriptor;
+        this.text = text;
+    }
+
+    /**
+     * Return the type of the message
+     *
+     * @return message type
+     */
+    public String getMsgType() {
+        return message.getMsgType();
+    }
+
+    /**
+     * Return the encoding of the message for a framing mode
+     *
+     * @param framing the framing mode of the receiver
+     * @return a String for text framing, a byte array for binary framing
+     */
+    public synchronized Object encode(String framing) {
+        if (BinaryFrameCodec.MODE_BINARY.equals(framing)) {
+            if (binary == null)
+                binary = BinaryFrameCodec.encode(message, descriptor, false);
+            return binary;
+        }
+        if (BinaryFrameCodec.MODE_BINARY_DEFLATE.equals(framing)) {
+            if (deflated == null)
+                deflated = BinaryFrameCodec.encode(message, descriptor, true);
+            return deflated;
+        }
+        if (text == null) {
+            Gson gson = WebServiceGsonManager.getGson();
+            WebSocketMessage textMessage = message;
+            // the text protocol carries the descriptor as a json string
+            if (descriptor != null)
+                textMessage = message.getTargetDevice() != null
+                        ? new WebSocketMessage(message.getMsgType(), gson.toJson(descriptor), message.getTargetDevice())
+                        : new WebSocketMessage(message.getMsgType(), gson.toJson(descriptor));
+            text = gson.toJson(textMessage);
+        }
+        return text;
+    }
+}
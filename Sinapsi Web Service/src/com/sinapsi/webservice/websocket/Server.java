@@ -1,24 +1,39 @@
 package com.sinapsi.webservice.websocket;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.sinapsi.engine.execution.RemoteExecutionDescriptor;
 import com.sinapsi.webservice.engine.WebServiceGsonManager;
+import com.sinapsi.webservice.engine.DebugLog;
 import com.sinapsi.webservice.engine.WebServiceLog;
+import com.sinapsi.webservice.system.WebServiceConsts;
+import com.sinapsi.webshared.wsproto.BinaryFrameCodec;
 import com.sinapsi.webshared.wsproto.SinapsiMessageTypes;
 import com.sinapsi.webshared.wsproto.WebSocketMessage;
 
@@ -26,13 +41,24 @@ import com.sinapsi.webshared.wsproto.WebSocketMessage;
  * WebSocketServer implementation
  */
 public class Server extends WebSocketServer {
-    private Map<String, WebSocket> clients = Collections.synchronizedMap(new HashMap<String, WebSocket>());
-    private Map<WebSocket, String> clientsWS = Collections.synchronizedMap(new HashMap<WebSocket, String>());
+    private SessionRegistry sessions = new SessionRegistry();
     
-    private Map<Integer, WebSocket> devices = Collections.synchronizedMap(new HashMap<Integer, WebSocket>());
-    private Map<WebSocket, Integer> devicesWS = Collections.synchronizedMap(new HashMap<WebSocket, Integer>());
+    // threads sending the queued messages, so callers never block on a slow connection
+    private ScheduledExecutorService drainer = Executors.newScheduledThreadPool(WebServiceConsts.WS_DRAIN_THREADS);
+    private AtomicLong evictions = new AtomicLong(0);
     
-    private Map<String, Integer> clientDevices = Collections.synchronizedMap(new HashMap<String, Integer>());
+    // liveness of the sessions, and last time the offline devices have been seen
+    private HeartbeatWheel heartbeat = new HeartbeatWheel(WebServiceConsts.WS_HEARTBEAT_WHEEL_SLOTS, 
+                                                          WebServiceConsts.WS_HEARTBEAT_INTERVAL_MILLIS / 2, 
+                                                          WebServiceConsts.WS_IDLE_TIMEOUT_MILLIS);
+    private ConcurrentMap<Integer, Long> lastSeen = new ConcurrentHashMap<Integer, Long>();
+    
+    // continuations waiting for offline devices
+    private ContinuationStore continuations = new ContinuationStore(getContinuationDir(), 
+                                                                    WebServiceConsts.WS_CONTINUATION_TTL_MILLIS, 
+                                                                    WebServiceConsts.WS_CONTINUATION_MAX_PER_DEVICE, 
+                                                                    WebServiceConsts.WS_CONTINUATION_MAX_BYTES_PER_DEVICE, 
+                                                                    WebServiceConsts.WS_CONTINUATION_SEGMENT_BYTES);
     
     private WebServiceLog wslog = new WebServiceLog(WebServiceLog.WEBSOCKET_FILE_OUT);
     
@@ -53,21 +79,44 @@ public class Server extends WebSocketServer {
         super(address);
     }
 
+    /**
+     * Method called on the handshake of a new connection. The server confirms 
+     * the framing mode requested by the client, old clients get text frames
+     */
+    @Override
+    public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft, ClientHandshake request) throws InvalidDataException {
+        ServerHandshakeBuilder response = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+        response.put(BinaryFrameCodec.FRAMES_HEADER, getFraming(request));
+        return response;
+    }
+
     /**
      * Method called when connection is established with a client
      */
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        clients.put(handshake.getFieldValue("Username"), conn);
-        clientsWS.put(conn, handshake.getFieldValue("Username"));
+        String username = handshake.getFieldValue("Username");
+        int idDevice = Integer.parseInt(handshake.getFieldValue("device"));
         
-        devices.put(Integer.parseInt(handshake.getFieldValue("device")), conn);
-        devicesWS.put(conn, Integer.parseInt(handshake.getFieldValue("device")));
+        OutboundQueue queue = new OutboundQueue(WebServiceConsts.WS_OUTBOUND_QUEUE_CAPACITY, 
+                                                WebServiceConsts.WS_OUTBOUND_OVERFLOW_POLICY);
+        DeviceSession session = new DeviceSession(username, idDevice, conn, queue, getFraming(handshake));
+        DeviceSession old = sessions.open(session);
+        // the device reconnected, close the old connection
+        if(old != null && old.getConnection() != conn) {
+            heartbeat.remove(old);
+            old.getConnection().close();
+        }
+        heartbeat.add(session);
         
-        clientDevices.put(handshake.getFieldValue("Username"), Integer.parseInt(handshake.getFieldValue("device")));
+        // replay the continuations not yet acknowledged by the device, in order
+        for(RemoteExecutionDescriptor red : continuations.getPending(idDevice))
+            sendRemoteExecution(idDevice, red);
         
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
-        broadcast(gson.toJson(new WebSocketMessage(SinapsiMessageTypes.NEW_CONNECTION, "New connection: " + handshake.getFieldValue("Username"))));
+        // presence events are sent only to the other devices of the same user
+        sendToUser(username, 
+                   new OutgoingMessage(new WebSocketMessage(SinapsiMessageTypes.NEW_CONNECTION, "New connection: " + username), null, null),
+                   idDevice);
         wslog.log(wslog.getTime(), handshake.getFieldValue("Username") + " connected!");
     }
 
@@ -76,26 +125,124 @@ public class Server extends WebSocketServer {
      */
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        Gson gson = WebServiceGsonManager.defaultSinapsiGsonBuilder().create();
-        broadcast(gson.toJson((new WebSocketMessage(SinapsiMessageTypes.CONNECTION_LOST, clientsWS.get(conn) + " disconnected!"))));
-        wslog.log(wslog.getTime(), clientsWS.get(conn) + " disconnected!");
+        DeviceSession session = sessions.close(conn);
+        if(session == null)
+            return;
+        session.getQueue().clear();
+        heartbeat.remove(session);
+        lastSeen.put(session.getIdDevice(), session.getLastSeen());
+        
+        // the device is still online if it reconnected meanwhile
+        if(!isDeviceOnline(session.getIdDevice())) {
+            sendToUser(session.getUsername(), 
+                       new OutgoingMessage(new WebSocketMessage(SinapsiMessageTypes.CONNECTION_LOST, session.getUsername() + " disconnected!"), null, null), 
+                       session.getIdDevice());
+        }
+        wslog.log(wslog.getTime(), session.getUsername() + " disconnected!");
+    }
+
+    /**
+     * Method called on message recived. A message with a target device is sent only to that device,
+     * otherwise it's sent to all the other devices of the sender's user
+     */
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        DeviceSession session = sessions.get(conn);
+        if(session == null)
+            return;
+        session.touch();
+        DebugLog.log(DebugLog.Category.WEBSOCKET, session.getUsername(), session.getIdDevice(), "received", message);
+        
+        WebSocketMessage wsMessage;
+        try {
+            Gson gson = WebServiceGsonManager.getGson();
+            wsMessage = gson.fromJson(message, WebSocketMessage.class);
+        } catch(JsonSyntaxException e) {
+            wsMessage = null;
+        }
+        if(wsMessage == null) {
+            wslog.log(wslog.getTime(), "malformed message from: " + session.getIdDevice());
+            return;
+        }
+        if(acknowledge(session, wsMessage))
+            return;
         
-        clientDevices.remove(clientsWS.get(conn));
+        route(session, new OutgoingMessage(wsMessage, null, message), wsMessage.getTargetDevice());
+    }
+    
+    /**
+     * Method called on binary message recived
+     */
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        DeviceSession session = sessions.get(conn);
+        if(session == null)
+            return;
+        session.touch();
         
-        devices.remove(devicesWS.get(conn));
-        devicesWS.remove(conn);   
+        BinaryFrameCodec.Frame frame;
+        try {
+            frame = BinaryFrameCodec.decode(message);
+        } catch(IllegalArgumentException e) {
+            wslog.log(wslog.getTime(), "malformed binary message from: " + session.getIdDevice());
+            return;
+        }
+        if(DebugLog.isEnabled(DebugLog.Category.WEBSOCKET, session.getUsername(), session.getIdDevice()))
+            DebugLog.log(DebugLog.Category.WEBSOCKET, session.getUsername(), session.getIdDevice(), 
+                         "received binary " + frame.getMessage().getMsgType(), null);
+        if(acknowledge(session, frame.getMessage()))
+            return;
         
-        clients.remove(clientsWS.get(conn));
-        clientsWS.remove(conn);      
+        route(session, 
+              new OutgoingMessage(frame.getMessage(), frame.getDescriptor(), null), 
+              frame.getMessage().getTargetDevice());
+    }
+    
+    /**
+     * Handle a continuation ack, the continuation is no longer sent to the device
+     * @return true if the message was an ack, and must not be routed
+     */
+    private boolean acknowledge(DeviceSession sender, WebSocketMessage message) {
+        if(!SinapsiMessageTypes.CONTINUATION_ACK.equals(message.getMsgType()))
+            return false;
+        continuations.acknowledge(sender.getIdDevice(), message.getData());
+        return true;
+    }
+    
+    /**
+     * Send a message received from a device. A message with a target device is sent only to that device,
+     * otherwise it's sent to all the other devices of the sender's user
+     */
+    private void route(DeviceSession sender, OutgoingMessage message, Integer targetDevice) {
+        if(targetDevice != null) {
+            // direct delivery, only between devices of the same user
+            DeviceSession target = sessions.get(targetDevice);
+            if(target != null && target.getUsername().equals(sender.getUsername()))
+                enqueue(target, message);
+        } else {
+            sendToUser(sender.getUsername(), message, sender.getIdDevice());
+        }
     }
 
     /**
-     * Method called on message recived
+     * Method called on ping received, the device is alive
      */
     @Override
-    public void onMessage(WebSocket conn, String message) {
-        this.broadcast(message);
-        wslog.log(wslog.getTime(), conn + ": " + message );
+    public void onWebsocketPing(WebSocket conn, Framedata f) {
+        super.onWebsocketPing(conn, f);
+        DeviceSession session = sessions.get(conn);
+        if(session != null)
+            session.touch();
+    }
+    
+    /**
+     * Method called on the answer to a heartbeat ping, the device is alive
+     */
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        DeviceSession session = sessions.get(conn);
+        if(session != null)
+            session.touch();
     }
 
     /**
@@ -106,6 +253,15 @@ public class Server extends WebSocketServer {
         wslog.log(wslog.getTime(), "received fragment: " + fragment);
     }
 
+    /**
+     * Stop the server and the threads sending the queued messages
+     */
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        drainer.shutdownNow();
+        super.stop(timeout);
+    }
+
     /**
      * Start the server
      * @param port server port
@@ -113,9 +269,20 @@ public class Server extends WebSocketServer {
      * @throws IOException
      */
     public void init() throws InterruptedException , IOException {
-        WebSocketImpl.DEBUG = true;
+        WebSocketImpl.DEBUG = WebServiceConsts.WS_LIBRARY_DEBUG;
 
+        try {
+            continuations.load();
+        } catch(IOException e) {
+            // the continuations for offline devices are lost, the server works anyway
+            e.printStackTrace();
+            wslog.log(wslog.getTime(), "continuation store unavailable, continuations are not stored: " + e.getMessage());
+        }
         this.start();
+        drainer.scheduleAtFixedRate(heartbeat, 
+                                    WebServiceConsts.WS_HEARTBEAT_INTERVAL_MILLIS / WebServiceConsts.WS_HEARTBEAT_WHEEL_SLOTS, 
+                                    WebServiceConsts.WS_HEARTBEAT_INTERVAL_MILLIS / WebServiceConsts.WS_HEARTBEAT_WHEEL_SLOTS, 
+                                    TimeUnit.MILLISECONDS);
         wslog.log(wslog.getTime(), "websocket server started on port: " + getPort());
     }
 
@@ -138,13 +305,29 @@ public class Server extends WebSocketServer {
      *            
      */
     public void broadcast(String text) {
-        wslog.log(wslog.getTime(), "broadcast : " + text);
-        Collection<WebSocket> con = connections();
-        synchronized (con) {
-            for(WebSocket c : con) {
-                if(c.isOpen())
-                    c.send(text);
-            }
+        DebugLog.log(DebugLog.Category.WEBSOCKET, null, null, "broadcast", text);
+        OutgoingMessage message = new OutgoingMessage(new WebSocketMessage(null, text), null, text);
+        for(DeviceSession session : sessions.getSessions()) {
+            // the text can't be encoded in binary frames
+            if(BinaryFrameCodec.MODE_TEXT.equals(session.getFraming()))
+                enqueue(session, message);
+        }
+    }
+    
+    /**
+     * Sends a message to all the connected devices of a user
+     * 
+     * @param username email of the user
+     * @param message the message
+     * @param exceptDevice id of a device to skip (the sender), null to send to all the devices
+     */
+    public void sendToUser(String username, OutgoingMessage message, Integer exceptDevice) {
+        for(Integer id : sessions.getDevices(username)) {
+            if(id.equals(exceptDevice))
+                continue;
+            DeviceSession session = sessions.get(id);
+            if(session != null)
+                enqueue(session, message);
         }
     }
     
@@ -154,7 +337,12 @@ public class Server extends WebSocketServer {
      * @return WebSocket
      */
     public WebSocket getClient(String username) {
-        return clients.get(username);
+        for(Integer id : sessions.getDevices(username)) {
+            DeviceSession session = sessions.get(id);
+            if(session != null)
+                return session.getConnection();
+        }
+        return null;
     }
     
    
@@ -164,28 +352,33 @@ public class Server extends WebSocketServer {
      * @return List of devices id
      */
     public List<Integer> getDevicesOnline(String username) {
-       List<Integer> devicesConnected = new ArrayList<Integer>();
-       synchronized (devicesConnected) {
-          for(Map.Entry<String, Integer> entry : clientDevices.entrySet()) {
-             if(entry.getKey() == username)  
-                devicesConnected.add(entry.getValue());
-          }
-       } 
-       return devicesConnected;
+       return sessions.getDevices(username);
     }
     
     /**
-     * Return the connectivity of a device
+     * Return the connectivity of a device. A device is online only if its connection
+     * is open and it answered the heartbeat within the idle timeout
      * @param id id of the device
      * @return boolean
      */
     public boolean isDeviceOnline(Integer id) {
-       WebSocket device = devices.get(id);
-       
-       if(device != null)
-          return devices.get(id).isOpen();
-       else
-          return false;
+       DeviceSession session = sessions.get(id);
+       return session != null && 
+              session.getConnection().isOpen() &&
+              System.currentTimeMillis() - session.getLastSeen() < WebServiceConsts.WS_IDLE_TIMEOUT_MILLIS;
+    }
+    
+    /**
+     * Return the last time something was received from a device
+     * @param id id of the device
+     * @return timestamp in milliseconds, -1 if the device has never been seen
+     */
+    public long getLastSeen(Integer id) {
+       DeviceSession session = sessions.get(id);
+       if(session != null)
+          return session.getLastSeen();
+       Long seen = lastSeen.get(id);
+       return seen != null ? seen : -1;
     }
     
     /**
@@ -194,7 +387,8 @@ public class Server extends WebSocketServer {
      * @return websocket connection object
      */
     public WebSocket getDevice(Integer idDevice) {
-       return devices.get(idDevice);
+       DeviceSession session = sessions.get(idDevice);
+       return session != null ? session.getConnection() : null;
     }
     
     /**
@@ -203,9 +397,222 @@ public class Server extends WebSocketServer {
      * @param msg message
      */
     public void send(Integer idDevice, String msg) {
-       if(devices.get(idDevice).isOpen()) {
-          wslog.log(wslog.getTime(), "To : " + idDevice  + " MSG : " + msg);
-          devices.get(idDevice).send(msg);
+       Gson gson = WebServiceGsonManager.getGson();
+       WebSocketMessage wsMessage;
+       try {
+          wsMessage = gson.fromJson(msg, WebSocketMessage.class);
+       } catch(JsonSyntaxException e) {
+          wsMessage = null;
+       }
+       if(wsMessage == null)
+          wsMessage = new WebSocketMessage(null, msg);
+       send(idDevice, new OutgoingMessage(wsMessage, null, msg));
+    }
+    
+    /**
+     * Send message to a device
+     * @param idDevice id of the device
+     * @param msg message
+     */
+    public void send(Integer idDevice, WebSocketMessage msg) {
+       send(idDevice, new OutgoingMessage(msg, null, null));
+    }
+    
+    /**
+     * Send a remote execution descriptor to a device. Devices using binary frames
+     * receive the descriptor encoded field by field, instead of as a json string
+     * @param idDevice id of the device
+     * @param red remote execution descriptor
+     */
+    public void sendRemoteExecution(Integer idDevice, RemoteExecutionDescriptor red) {
+       send(idDevice, new OutgoingMessage(new WebSocketMessage(SinapsiMessageTypes.REMOTE_EXECUTION_DESCRIPTOR, null), red, null));
+    }
+    
+    /**
+     * Send a remote execution descriptor to a device, storing it until the device acknowledges it. 
+     * A continuation not acknowledged is sent again when the device reconnects,
+     * a device can receive the same continuation twice and must execute it once
+     * @param idDevice id of the device
+     * @param red remote execution descriptor
+     */
+    public void enqueueRemoteExecution(Integer idDevice, RemoteExecutionDescriptor red) {
+       // the store failed to load at startup, only online devices get the continuation
+       if(!continuations.isAvailable()) {
+          sendRemoteExecution(idDevice, red);
+          return;
+       }
+       
+       RemoteExecutionDescriptor stored;
+       try {
+          stored = continuations.append(idDevice, red);
+       } catch(IOException e) {
+          e.printStackTrace();
+          wslog.log(wslog.getTime(), "Can't store the continuation for: " + idDevice);
+          sendRemoteExecution(idDevice, red);
+          return;
+       }
+       
+       if(!isDeviceOnline(idDevice)) {
+          wslog.log(wslog.getTime(), "Continuation stored for offline device: " + idDevice);
+          return;
+       }
+       sendRemoteExecution(idDevice, stored);
+    }
+    
+    /**
+     * Return the number of messages waiting to be sent on all the connections
+     * @return queued messages
+     */
+    public long getQueuedMessages() {
+       long queued = 0;
+       for(DeviceSession session : sessions.getSessions())
+          queued += session.getQueue().getDepth();
+       return queued;
+    }
+    
+    /**
+     * Return the number of messages dropped by the overflow policy on the open connections
+     * @return dropped messages
+     */
+    public long getDroppedMessages() {
+       long dropped = 0;
+       for(DeviceSession session : sessions.getSessions())
+          dropped += session.getQueue().getDropped();
+       return dropped;
+    }
+    
+    /**
+     * Return the number of open connections
+     * @return open connections
+     */
+    public int getSessionCount() {
+       return sessions.size();
+    }
+    
+    /**
+     * Return the number of connections closed because too slow
+     * @return evicted connections
+     */
+    public long getEvictions() {
+       return evictions.get();
+    }
+    
+    /**
+     * Return the number of continuations waiting to be sent to offline devices
+     * @return pending continuations
+     */
+    public long getPendingContinuations() {
+       return continuations.size();
+    }
+    
+    private void send(Integer idDevice, OutgoingMessage msg) {
+       DeviceSession session = sessions.get(idDevice);
+       if(session != null) {
+          wslog.log(wslog.getTime(), "To : " + idDevice  + " MSG : " + msg.getMsgType());
+          enqueue(session, msg);
+       }
+    }
+    
+    /**
+     * Return the folder of the continuation store: the sinapsi.continuation.dir system property,
+     * or a folder in the tomcat base folder
+     */
+    private static File getContinuationDir() {
+       String dir = System.getProperty(WebServiceConsts.WS_CONTINUATION_DIR_PROPERTY);
+       if(dir != null && !dir.trim().isEmpty())
+          return new File(dir.trim());
+       return new File(System.getProperty("catalina.base", "."), WebServiceConsts.WS_CONTINUATION_DIR);
+    }
+    
+    /**
+     * Return the framing mode requested by a client in the query of the websocket url
+     */
+    private static String getFraming(ClientHandshake handshake) {
+       try {
+          String query = new URI(handshake.getResourceDescriptor()).getQuery();
+          if(query != null) {
+             for(String param : query.split("&")) {
+                String[] pair = param.split("=", 2);
+                if(pair.length == 2 && pair[0].equals(BinaryFrameCodec.FRAMES_PARAM))
+                   return BinaryFrameCodec.negotiate(pair[1]);
+             }
+          }
+       } catch(URISyntaxException e) {
+          // malformed descriptor, use text frames
+       }
+       return BinaryFrameCodec.MODE_TEXT;
+    }
+    
+    /**
+     * Add a message to the outbound queue of a connection and start draining it.
+     * When the queue is full and the policy doesn't allow to drop messages, 
+     * the slow connection is closed
+     */
+    private void enqueue(DeviceSession session, OutgoingMessage message) {
+       if(!session.getConnection().isOpen())
+          return;
+       
+       if(!session.getQueue().offer(message)) {
+          evictions.incrementAndGet();
+          wslog.log(wslog.getTime(), "slow consumer evicted: " + session.getIdDevice());
+          session.getQueue().clear();
+          session.getConnection().close(CloseFrame.POLICY_VALIDATION, "Outbound queue full");
+          return;
+       }
+       
+       if(session.getQueue().startDraining()) {
+          try {
+             drainer.execute(new DrainTask(session));
+          } catch(RejectedExecutionException e) {
+             // the server is stopping
+             session.getQueue().stopDraining();
+          }
+       }
+    }
+    
+    /**
+     * Send the queued messages of a connection. The messages are handed to the socket 
+     * only when the previous ones have been written, otherwise the task retries later
+     */
+    private class DrainTask implements Runnable {
+       private final DeviceSession session;
+       
+       private DrainTask(DeviceSession session) {
+          this.session = session;
+       }
+       
+       @Override
+       public void run() {
+          OutboundQueue queue = session.getQueue();
+          WebSocket conn = session.getConnection();
+          
+          try {
+             OutgoingMessage message;
+             while(!conn.hasBufferedData() && (message = queue.poll()) != null) {
+                Object encoded = message.encode(session.getFraming());
+                if(encoded instanceof byte[])
+                   conn.send((byte[]) encoded);
+                else
+                   conn.send((String) encoded);
+             }
+          } catch(RuntimeException e) {
+             // the connection has been closed
+             queue.clear();
+          }
+          
+          try {
+             if(queue.getDepth() > 0) {
+                drainer.schedule(this, WebServiceConsts.WS_DRAIN_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+             }
+             
+             queue.stopDraining();
+             // a message has been queued after the last poll
+             if(queue.getDepth() > 0 && queue.startDraining())
+                drainer.execute(this);
+          } catch(RejectedExecutionException e) {
+             queue.stopDraining();
+          }
        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package com.sinapsi.webservice.websocket;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Lock-free registry of the websocket sessions, keyed by device id, with an index
+ * of the devices of each user. A device has at most one session: a new connection
+ * of the same device replaces the old one, and the close of the old connection
+ * doesn't remove the new session
+ *
+ */
+public class SessionRegistry {
+    private final ConcurrentMap<Integer, DeviceSession> byDevice = new ConcurrentHashMap<Integer, DeviceSession>();
+    private final ConcurrentMap<WebSocket, DeviceSession> byConnection = new ConcurrentHashMap<WebSocket, DeviceSession>();
+
+    // user sets are never removed, so a device is never added to a set no longer in the index
+    private final ConcurrentMap<String, Set<Integer>> byUser = new ConcurrentHashMap<String, Set<Integer>>();
+
+    /**
+     * Register the session of a new connection
+     *
+     * @param session the new session
+     * @return the replaced session of the same device, null if the device was offline
+     */
+    public DeviceSession open(DeviceSession session) {
+        byConnection.put(session.getConnection(), session);
+        DeviceSession old = byDevice.put(session.getIdDevice(), session);
+        if (old != null && old.getConnection() != session.getConnection())
+            byConnection.remove(old.getConnection(), old);
+
+        if (old != null && !old.getUsername().equals(session.getUsername()))
+            userDevices(old.getUsername()).remove(old.getIdDevice());
+        userDevices(session.getUsername()).add(session.getIdDevice());
+        return old;
+    }
+
+    /**
+     * Unregister the session of a closed connection
+     *
+     * @param connection the closed connection
+     * @return the removed session, null if the connection was not registered
+     */
+    public DeviceSession close(WebSocket connection) {
+        DeviceSession session = byConnection.remove(connection);
+        if (session == null)
+            return null;
+
+        if (byDevice.remove(session.getIdDevice(), session)) {
+            Set<Integer> devices = userDevices(session.getUsername());
+            devices.remove(session.getIdDevice());
+
+            // the device reconnected meanwhile
+            DeviceSession current = byDevice.get(session.getIdDevice());
+            if (current != null && current.getUsername().equals(session.getUsername()))
+                devices.add(session.getIdDevice());
+        }
+        return session;
+    }
+
+    /**
+     * Return the session of a device
+     *
+     * @param idDevice id of the device
+     * @return session, null if the device is offline
+     */
+    public DeviceSession get(int idDevice) {
+        return byDevice.get(idDevice);
+    }
+
+    /**
+     * Return the session of a connection
+     *
+     * @param connection websocket connection
+     * @return session, null if the connection is not registered
+     */
+    public DeviceSession get(WebSocket connection) {
+        return byConnection.get(connection);
+    }
+
+    /**
+     * Return the ids of the connected devices of a user
+     *
+     * @param username email of the user
+     * @return list of device ids
+     */
+    public List<Integer> getDevices(String username) {
+        Set<Integer> devices = byUser.get(username);
+        if (devices == null)
+            return new ArrayList<Integer>();
+        return new ArrayList<Integer>(devices);
+    }
+
+    /**
+     * Return all the registered sessions
+     *
+     * @return sessions
+     */
+    public Collection<DeviceSession> getSessions() {
+        return Collections.unmodifiableCollection(byDevice.values());
+    }
+
+    /**
+     * Return the number of registered sessions
+     *
+     * @return number of sessions
+     */
+    public int size() {
+        return byDevice.size();
+    }
+
+    private Set<Integer> userDevices(String username) {
+        Set<Integer> devices = byUser.get(username);
+        if (devices == null) {
+            devices = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+            Set<Integer> old = byUser.putIfAbsent(username, devices);
+            if (old != null)
+                devices = old;
+        }
+        return devices;
+    }
+}